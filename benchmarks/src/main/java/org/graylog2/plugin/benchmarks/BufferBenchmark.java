@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.benchmarks;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.graylog2.plugin.buffers.AbstractBuffer;
+import org.graylog2.plugin.buffers.BlockingWaitStrategy;
+import org.graylog2.plugin.buffers.Buffer;
+import org.graylog2.plugin.buffers.BufferOutOfCapacityException;
+import org.graylog2.plugin.buffers.ParkingWaitStrategy;
+import org.graylog2.plugin.buffers.ProducerType;
+import org.graylog2.plugin.buffers.RingBuffer;
+import org.graylog2.plugin.buffers.YieldingWaitStrategy;
+import org.graylog2.plugin.logmessage.LogMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Buffer.insert() with consumers draining the buffer at the same time. Compares a
+ * plain blocking queue with the RingBuffer and its wait strategies.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmark {
+
+    private static final int CAPACITY = 64 * 1024;
+
+    @Param({"queue", "ring-yielding", "ring-parking", "ring-blocking"})
+    public String implementation;
+
+    private Buffer buffer;
+    private QueueBuffer queueBuffer;
+    private RingBuffer ringBuffer;
+    private LogMessage message;
+
+    @Setup
+    public void setUp() {
+        if ("queue".equals(implementation)) {
+            queueBuffer = new QueueBuffer(CAPACITY);
+            buffer = queueBuffer;
+        } else if ("ring-yielding".equals(implementation)) {
+            ringBuffer = new RingBuffer(CAPACITY, ProducerType.MULTI, new YieldingWaitStrategy());
+            buffer = ringBuffer;
+        } else if ("ring-parking".equals(implementation)) {
+            ringBuffer = new RingBuffer(CAPACITY, ProducerType.MULTI, new ParkingWaitStrategy());
+            buffer = ringBuffer;
+        } else {
+            ringBuffer = new RingBuffer(CAPACITY, ProducerType.MULTI, new BlockingWaitStrategy());
+            buffer = ringBuffer;
+        }
+
+        message = Messages.create(10);
+    }
+
+    @Benchmark
+    @Group("insert")
+    @GroupThreads(2)
+    public boolean insert() {
+        try {
+            buffer.insert(message);
+            return true;
+        } catch (BufferOutOfCapacityException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    @Group("insert")
+    @GroupThreads(1)
+    public LogMessage consume() {
+        if (ringBuffer != null) {
+            return ringBuffer.poll();
+        }
+
+        return queueBuffer.queue.poll();
+    }
+
+    /**
+     * The simplest Buffer a server could ship: a bounded blocking queue.
+     */
+    static class QueueBuffer extends AbstractBuffer {
+
+        final BlockingQueue<LogMessage> queue;
+
+        QueueBuffer(int capacity) {
+            this.queue = new ArrayBlockingQueue<LogMessage>(capacity);
+        }
+
+        public void insert(LogMessage message) throws BufferOutOfCapacityException {
+            if (!queue.offer(message)) {
+                throw new BufferOutOfCapacityException();
+            }
+        }
+
+        public boolean hasCapacity() {
+            return queue.remainingCapacity() > 0;
+        }
+
+        @Override
+        protected int size() {
+            return queue.size();
+        }
+
+        @Override
+        protected int getCapacity() {
+            return queue.size() + queue.remainingCapacity();
+        }
+
+    }
+
+}
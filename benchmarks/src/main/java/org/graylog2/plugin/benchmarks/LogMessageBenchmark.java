@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.graylog2.plugin.logmessage.JsonDocumentWriter;
+import org.graylog2.plugin.logmessage.LogMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction, additional fields and serialization of LogMessage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogMessageBenchmark {
+
+    @Param({"5", "30"})
+    public int additionalFields;
+
+    private String[] keys;
+    private String[] values;
+
+    private LogMessage message;
+    private JsonDocumentWriter writer;
+
+    @Setup
+    public void setUp() {
+        keys = new String[additionalFields];
+        values = new String[additionalFields];
+        for (int i = 0; i < additionalFields; i++) {
+            keys[i] = "field_" + i;
+            values[i] = "value number " + i;
+        }
+
+        message = Messages.create(additionalFields);
+        writer = new JsonDocumentWriter();
+    }
+
+    @Benchmark
+    public LogMessage construct() {
+        return new LogMessage();
+    }
+
+    @Benchmark
+    public String constructWithId() {
+        return new LogMessage().getId();
+    }
+
+    @Benchmark
+    public LogMessage addAdditionalData() {
+        LogMessage m = new LogMessage();
+        for (int i = 0; i < keys.length; i++) {
+            m.addAdditionalData(keys[i], values[i]);
+        }
+        return m;
+    }
+
+    @Benchmark
+    public Map<String, Object> toElasticSearchObject() {
+        return message.toElasticSearchObject();
+    }
+
+    @Benchmark
+    public int writeJson() {
+        writer.reset();
+        message.writeTo(writer);
+        return writer.size();
+    }
+
+    @Benchmark
+    public String toStringBenchmark() {
+        return message.toString();
+    }
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.benchmarks;
+
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * Test messages that look like what GELF senders produce.
+ */
+final class Messages {
+
+    private Messages() { }
+
+    static LogMessage create(int additionalFields) {
+        LogMessage message = new LogMessage();
+        message.setHost("app-server-17.example.org");
+        message.setShortMessage("GET /api/v1/users/12345/profile returned 200 in 12ms");
+        message.setFullMessage("GET /api/v1/users/12345/profile HTTP/1.1\nUser-Agent: curl/7.27.0\nAccept: */*");
+        message.setFacility("nginx");
+        message.setLevel(6);
+        message.setFile("/var/log/nginx/access.log");
+        message.setLine(4711);
+        message.setCreatedAt(System.currentTimeMillis() / 1000.0);
+
+        for (int i = 0; i < additionalFields; i++) {
+            message.addAdditionalData("field_" + i, "value number " + i);
+        }
+
+        return message;
+    }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.graylog2.plugin.Tools;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decompression of GELF payloads and timestamp formatting.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ToolsBenchmark {
+
+    // Typical GELF datagram sizes.
+    @Param({"512", "8192"})
+    public int payloadSize;
+
+    private byte[] zlib;
+    private byte[] gzip;
+
+    private long timestamp;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"version\":\"1.0\",\"host\":\"app-server-17.example.org\",\"short_message\":\"");
+        while (sb.length() < payloadSize - 2) {
+            sb.append("Something happened. ");
+        }
+        sb.setLength(payloadSize - 2);
+        sb.append("\"}");
+        byte[] payload = sb.toString().getBytes("UTF-8");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compress(new DeflaterOutputStream(out), payload);
+        zlib = out.toByteArray();
+
+        out = new ByteArrayOutputStream();
+        compress(new GZIPOutputStream(out), payload);
+        gzip = out.toByteArray();
+
+        timestamp = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public String decompressZlib() throws IOException {
+        return Tools.decompressZlib(zlib, 0, zlib.length);
+    }
+
+    @Benchmark
+    public String decompressGzip() throws IOException {
+        return Tools.decompressGzip(gzip, 0, gzip.length);
+    }
+
+    @Benchmark
+    public String formatSameSecond() {
+        return Tools.format(timestamp);
+    }
+
+    @Benchmark
+    public String formatNewSecond() {
+        // Every call misses the cache.
+        timestamp += 1000;
+        return Tools.format(timestamp);
+    }
+
+    private static void compress(OutputStream out, byte[] payload) throws IOException {
+        out.write(payload);
+        out.close();
+    }
+
+}
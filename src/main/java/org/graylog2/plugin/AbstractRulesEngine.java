@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin;
+
+import java.util.List;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * Base class for rules engines that can evaluate a batch of messages at once.
+ * Batch evaluation is not part of RulesEngine, so existing engines keep
+ * compiling. Callers use {@link #evaluate(RulesEngine, List)}, which takes the
+ * batch path if the engine has one.
+ */
+public abstract class AbstractRulesEngine implements RulesEngine {
+
+    /**
+     * Evaluate a batch of messages. Same result as evaluating them one by one,
+     * but lets the engine set up its session once per batch. Evaluates them one
+     * by one unless overridden.
+     */
+    public void evaluate(List<LogMessage> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            evaluate(messages.get(i));
+        }
+    }
+
+    /**
+     * Evaluates a batch with any RulesEngine, as a batch if it extends
+     * AbstractRulesEngine and one by one otherwise.
+     */
+    public static void evaluate(RulesEngine engine, List<LogMessage> messages) {
+        if (engine instanceof AbstractRulesEngine) {
+            ((AbstractRulesEngine) engine).evaluate(messages);
+        } else {
+            for (int i = 0; i < messages.size(); i++) {
+                engine.evaluate(messages.get(i));
+            }
+        }
+    }
+
+}
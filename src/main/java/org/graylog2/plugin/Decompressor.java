@@ -0,0 +1,356 @@
+/**
+ * Copyright 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * This file is part of Graylog2.
+ *
+ * Graylog2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog2.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.graylog2.plugin;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Per-thread decompression state: one Inflater for ZLIB, one for raw deflate
+ * (GZIP members), and output buffers that grow as needed. The Inflaters are reset
+ * and reused for every payload instead of creating a new one each time and leaving
+ * its native memory to finalization. {@link Tools} keeps one instance per thread.
+ *
+ * Not thread safe.
+ */
+final class Decompressor {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    // Don't keep huge buffers around forever because of one big message.
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    // GZIP header flags, RFC 1952.
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final Inflater zlib = new Inflater();
+    private final Inflater deflate = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final CharsetDecoder utf8 = UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private byte[] output = new byte[INITIAL_BUFFER_SIZE];
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    String zlibToString(byte[] data, int offset, int length) throws IOException {
+        int n = inflateZlib(data, offset, length);
+        String result = new String(output, 0, n, UTF_8);
+        trim();
+        return result;
+    }
+
+    String gzipToString(byte[] data, int offset, int length) throws IOException {
+        int n = inflateGzip(data, offset, length);
+        String result = new String(output, 0, n, UTF_8);
+        trim();
+        return result;
+    }
+
+    int zlibTo(byte[] data, int offset, int length, ByteBuffer dst) throws IOException {
+        if (dst.hasArray()) {
+            // Inflate right into the caller's array.
+            int n = inflate(zlib, data, offset, length, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            dst.position(dst.position() + n);
+            return n;
+        }
+
+        int n = inflateZlib(data, offset, length);
+        return copy(n, dst);
+    }
+
+    int gzipTo(byte[] data, int offset, int length, ByteBuffer dst) throws IOException {
+        if (dst.hasArray()) {
+            // Inflate right into the caller's array.
+            byte[] array = dst.array();
+            int start = dst.arrayOffset() + dst.position();
+            int end = offset + length;
+            int pos = offset;
+            int n = 0;
+            do {
+                int bodyOffset = skipGzipHeader(data, pos, end - pos);
+                int member = inflate(deflate, data, bodyOffset, end - bodyOffset, array, start + n, dst.remaining() - n);
+                pos = checkGzipTrailer(data, end, array, start + n, member);
+                n += member;
+            } while (hasGzipMember(data, pos, end));
+            dst.position(dst.position() + n);
+            return n;
+        }
+
+        int n = inflateGzip(data, offset, length);
+        return copy(n, dst);
+    }
+
+    int zlibTo(byte[] data, int offset, int length, Appendable dst) throws IOException {
+        int n = inflateZlib(data, offset, length);
+        return decode(n, dst);
+    }
+
+    int gzipTo(byte[] data, int offset, int length, Appendable dst) throws IOException {
+        int n = inflateGzip(data, offset, length);
+        return decode(n, dst);
+    }
+
+    /**
+     * Frees the native memory of the Inflaters right away. The instance must
+     * not be used afterwards.
+     */
+    void end() {
+        zlib.end();
+        deflate.end();
+    }
+
+    private int inflateZlib(byte[] data, int offset, int length) throws IOException {
+        return inflate(zlib, data, offset, length, 0);
+    }
+
+    // Concatenated members are inflated one after the other, like GZIPInputStream does.
+    private int inflateGzip(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        int pos = offset;
+        int n = 0;
+        do {
+            int bodyOffset = skipGzipHeader(data, pos, end - pos);
+            int start = n;
+            n = inflate(deflate, data, bodyOffset, end - bodyOffset, start);
+            pos = checkGzipTrailer(data, end, output, start, n - start);
+        } while (hasGzipMember(data, pos, end));
+
+        return n;
+    }
+
+    /**
+     * @return Whether another GZIP member starts at pos. Anything else after a
+     *         member is ignored, as GZIPInputStream does.
+     */
+    private static boolean hasGzipMember(byte[] data, int pos, int end) {
+        return end - pos >= 18 && (data[pos] & 0xFF) == 0x1F && (data[pos + 1] & 0xFF) == 0x8B;
+    }
+
+    /**
+     * @return Offset of the deflate stream
+     */
+    private static int skipGzipHeader(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        int pos = offset;
+
+        if (length < 18 || (data[pos] & 0xFF) != 0x1F || (data[pos + 1] & 0xFF) != 0x8B) {
+            throw new IOException("Not in GZIP format");
+        }
+        if (data[pos + 2] != 8) {
+            throw new IOException("Unsupported compression method");
+        }
+
+        int flags = data[pos + 3] & 0xFF;
+        // Skip ID1, ID2, CM, FLG, MTIME, XFL and OS.
+        pos += 10;
+
+        if ((flags & FEXTRA) != 0) {
+            pos = ensureAvailable(pos, 2, end);
+            int extraLength = (data[pos] & 0xFF) | ((data[pos + 1] & 0xFF) << 8);
+            pos = ensureAvailable(pos + 2, extraLength, end) + extraLength;
+        }
+        if ((flags & FNAME) != 0) {
+            pos = skipZeroTerminated(data, pos, end);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            pos = skipZeroTerminated(data, pos, end);
+        }
+        if ((flags & FHCRC) != 0) {
+            pos = ensureAvailable(pos, 2, end) + 2;
+        }
+
+        return pos;
+    }
+
+    /**
+     * @return Offset right after the trailer
+     */
+    private int checkGzipTrailer(byte[] data, int end, byte[] inflated, int offset, int n) throws IOException {
+        // The trailer follows the deflate stream: CRC32 and size, both little endian.
+        int trailer = end - deflate.getRemaining();
+        ensureAvailable(trailer, 8, end);
+
+        crc.reset();
+        crc.update(inflated, offset, n);
+        if (readIntLE(data, trailer) != (int) crc.getValue()) {
+            throw new IOException("Corrupt GZIP trailer");
+        }
+        if (readIntLE(data, trailer + 4) != n) {
+            throw new IOException("Corrupt GZIP trailer");
+        }
+
+        return trailer + 8;
+    }
+
+    /**
+     * Inflates into the output buffer, starting at n.
+     *
+     * @return Number of valid bytes in the output buffer
+     */
+    private int inflate(Inflater inflater, byte[] data, int offset, int length, int n) throws IOException {
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+
+        try {
+            while (!inflater.finished()) {
+                if (n == output.length) {
+                    byte[] larger = new byte[output.length * 2];
+                    System.arraycopy(output, 0, larger, 0, n);
+                    output = larger;
+                }
+
+                int inflated = inflater.inflate(output, n, output.length - n);
+                if (inflated == 0) {
+                    if (inflater.needsDictionary()) {
+                        throw new IOException("Compressed data requires a preset dictionary");
+                    }
+                    if (inflater.needsInput()) {
+                        throw new EOFException("Unexpected end of compressed data");
+                    }
+                }
+                n += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed data", e);
+        }
+
+        return n;
+    }
+
+    private static int inflate(Inflater inflater, byte[] data, int offset, int length,
+                               byte[] dst, int dstOffset, int dstLength) throws IOException {
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+
+        int n = 0;
+        try {
+            while (!inflater.finished()) {
+                if (n == dstLength) {
+                    throw new IOException("Decompressed data does not fit into buffer (" + dstLength + " bytes remaining)");
+                }
+
+                int inflated = inflater.inflate(dst, dstOffset + n, dstLength - n);
+                if (inflated == 0) {
+                    if (inflater.needsDictionary()) {
+                        throw new IOException("Compressed data requires a preset dictionary");
+                    }
+                    if (inflater.needsInput()) {
+                        throw new EOFException("Unexpected end of compressed data");
+                    }
+                }
+                n += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed data", e);
+        }
+
+        return n;
+    }
+
+    private int copy(int n, ByteBuffer dst) throws IOException {
+        if (dst.remaining() < n) {
+            throw new IOException("Decompressed data (" + n + " bytes) does not fit into buffer ("
+                    + dst.remaining() + " bytes remaining)");
+        }
+
+        dst.put(output, 0, n);
+        trim();
+        return n;
+    }
+
+    private int decode(int n, Appendable dst) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(output, 0, n);
+        utf8.reset();
+        chars.clear();
+
+        int written = 0;
+        boolean flushing = false;
+        while (true) {
+            CoderResult result = flushing ? utf8.flush(chars) : utf8.decode(in, chars, true);
+            if (result.isOverflow()) {
+                // Hand over what we have and continue with an empty buffer.
+                chars.flip();
+                written += chars.remaining();
+                dst.append(chars);
+                chars.clear();
+            } else if (flushing) {
+                break;
+            } else {
+                // All input was consumed, only the flush is left.
+                flushing = true;
+            }
+        }
+
+        chars.flip();
+        written += chars.remaining();
+        dst.append(chars);
+
+        trim();
+        return written;
+    }
+
+    private void trim() {
+        if (output.length > MAX_RETAINED_BUFFER_SIZE) {
+            output = new byte[INITIAL_BUFFER_SIZE];
+        }
+    }
+
+    private static int ensureAvailable(int pos, int needed, int end) throws IOException {
+        if (pos + needed > end) {
+            throw new EOFException("Unexpected end of GZIP data");
+        }
+
+        return pos;
+    }
+
+    private static int skipZeroTerminated(byte[] data, int pos, int end) throws IOException {
+        while (pos < end) {
+            if (data[pos++] == 0) {
+                return pos;
+            }
+        }
+
+        throw new EOFException("Unexpected end of GZIP header");
+    }
+
+    private static int readIntLE(byte[] data, int pos) {
+        return (data[pos] & 0xFF)
+                | ((data[pos + 1] & 0xFF) << 8)
+                | ((data[pos + 2] & 0xFF) << 16)
+                | ((data[pos + 3] & 0xFF) << 24);
+    }
+
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * This file is part of Graylog2.
+ *
+ * Graylog2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog2.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.graylog2.plugin;
+
+/**
+ * Output formats of {@link Tools#format(long, TimestampFormat)}.
+ */
+public enum TimestampFormat {
+
+    /**
+     * "yyyy-MM-dd HH-mm-ss" in the local time zone, as used for histogram_time.
+     */
+    ELASTICSEARCH_HISTOGRAM(19, 1000, false),
+
+    /**
+     * "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" in UTC.
+     */
+    ISO_8601(24, 1, true);
+
+    private final int length;
+    private final long resolution;
+    private final boolean utc;
+
+    private TimestampFormat(int length, long resolution, boolean utc) {
+        this.length = length;
+        this.resolution = resolution;
+        this.utc = utc;
+    }
+
+    /**
+     * @return Number of bytes a formatted timestamp takes (for years 1000 to 9999).
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return Milliseconds that format to the same string, i.e. 1000 for formats without milliseconds.
+     */
+    public long getResolution() {
+        return resolution;
+    }
+
+    public boolean isUtc() {
+        return utc;
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * This file is part of Graylog2.
+ *
+ * Graylog2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog2.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.graylog2.plugin;
+
+import java.util.TimeZone;
+
+/**
+ * Formats timestamps by writing ASCII digits straight into a byte array. No
+ * Calendar, no StringBuffer and no allocation. The local time zone is captured
+ * when the instance is created.
+ *
+ * Not thread safe, {@link Tools} keeps one per thread.
+ */
+final class TimestampFormatter {
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private final TimeZone localZone = TimeZone.getDefault();
+
+    // Scratch space for Tools.format(long, TimestampFormat).
+    final byte[] buffer = new byte[32];
+
+    /**
+     * @return Number of bytes written.
+     */
+    int format(long millis, TimestampFormat format, byte[] dst, int offset) {
+        long local = format.isUtc() ? millis : millis + localZone.getOffset(millis);
+
+        long days = local / MILLIS_PER_DAY;
+        if (local % MILLIS_PER_DAY < 0) {
+            days--;
+        }
+        int millisOfDay = (int) (local - days * MILLIS_PER_DAY);
+
+        // Civil date from days since the epoch, see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        int hour = millisOfDay / 3600000;
+        int minute = (millisOfDay / 60000) % 60;
+        int second = (millisOfDay / 1000) % 60;
+
+        int pos = offset;
+        pos = digits(dst, pos, year, 4);
+        dst[pos++] = '-';
+        pos = digits(dst, pos, month, 2);
+        dst[pos++] = '-';
+        pos = digits(dst, pos, day, 2);
+
+        switch (format) {
+            case ELASTICSEARCH_HISTOGRAM:
+                dst[pos++] = ' ';
+                pos = digits(dst, pos, hour, 2);
+                dst[pos++] = '-';
+                pos = digits(dst, pos, minute, 2);
+                dst[pos++] = '-';
+                pos = digits(dst, pos, second, 2);
+                break;
+            case ISO_8601:
+                dst[pos++] = 'T';
+                pos = digits(dst, pos, hour, 2);
+                dst[pos++] = ':';
+                pos = digits(dst, pos, minute, 2);
+                dst[pos++] = ':';
+                pos = digits(dst, pos, second, 2);
+                dst[pos++] = '.';
+                pos = digits(dst, pos, millisOfDay % 1000, 3);
+                dst[pos++] = 'Z';
+                break;
+        }
+
+        return pos - offset;
+    }
+
+    private static int digits(byte[] dst, int pos, int value, int width) {
+        for (int i = pos + width - 1; i >= pos; i--) {
+            dst[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+
+        return pos + width;
+    }
+
+}
@@ -20,19 +20,17 @@
 
 package org.graylog2.plugin;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.drools.util.codec.Base64;
 import org.joda.time.DateTime;
 
@@ -43,6 +41,8 @@ import org.joda.time.DateTime;
  */
 public final class Tools {
 
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
     private Tools() { }
 
     /**
@@ -134,19 +134,40 @@ public final class Tools {
     }
 
 
+    private static final ThreadLocal<Decompressor> decompressor = new ThreadLocal<Decompressor>() {
+        @Override
+        protected Decompressor initialValue() {
+            return new Decompressor();
+        }
+    };
+
     /**
      * Decompress ZLIB (RFC 1950) compressed data
      *
      * @return A string containing the decompressed data
      */
     public static String decompressZlib(byte[] compressedData, int offset, int length) throws IOException {
-        byte[] buffer = new byte[length];
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(compressedData, offset, length));
-        for (int bytesRead = 0; bytesRead != -1; bytesRead = in.read(buffer)) {
-            out.write(buffer, 0, bytesRead);
-        }
-        return new String(out.toByteArray(), "UTF-8");
+        return decompressor.get().zlibToString(compressedData, offset, length);
+    }
+
+    /**
+     * Decompress ZLIB (RFC 1950) compressed data into the given buffer.
+     *
+     * @return Number of bytes written to dst
+     * @throws IOException if the data is invalid or does not fit into dst
+     */
+    public static int decompressZlib(byte[] compressedData, int offset, int length, ByteBuffer dst) throws IOException {
+        return decompressor.get().zlibTo(compressedData, offset, length, dst);
+    }
+
+    /**
+     * Decompress ZLIB (RFC 1950) compressed data and append it as UTF-8 decoded
+     * characters to the given sink, for example a reused StringBuilder.
+     *
+     * @return Number of chars appended to dst
+     */
+    public static int decompressZlib(byte[] compressedData, int offset, int length, Appendable dst) throws IOException {
+        return decompressor.get().zlibTo(compressedData, offset, length, dst);
     }
 
     /**
@@ -155,13 +176,37 @@ public final class Tools {
      * @return A string containing the decompressed data
      */
     public static String decompressGzip(byte[] compressedData, int offset, int length) throws IOException {
-        byte[] buffer = new byte[length];
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressedData,offset,length));
-        for (int bytesRead = 0; bytesRead != -1; bytesRead = in.read(buffer)) {
-            out.write(buffer, 0, bytesRead);
-        }
-        return new String(out.toByteArray(), "UTF-8");
+        return decompressor.get().gzipToString(compressedData, offset, length);
+    }
+
+    /**
+     * Decompress GZIP (RFC 1952) compressed data into the given buffer.
+     *
+     * @return Number of bytes written to dst
+     * @throws IOException if the data is invalid or does not fit into dst
+     */
+    public static int decompressGzip(byte[] compressedData, int offset, int length, ByteBuffer dst) throws IOException {
+        return decompressor.get().gzipTo(compressedData, offset, length, dst);
+    }
+
+    /**
+     * Decompress GZIP (RFC 1952) compressed data and append it as UTF-8 decoded
+     * characters to the given sink, for example a reused StringBuilder.
+     *
+     * @return Number of chars appended to dst
+     */
+    public static int decompressGzip(byte[] compressedData, int offset, int length, Appendable dst) throws IOException {
+        return decompressor.get().gzipTo(compressedData, offset, length, dst);
+    }
+
+    /**
+     * The decompress methods keep their Inflaters per thread and reuse them. Call
+     * this from threads that are about to terminate to free the native memory
+     * right away instead of leaving it to the garbage collector.
+     */
+    public static void releaseDecompressor() {
+        decompressor.get().end();
+        decompressor.remove();
     }
 
     /**
@@ -246,86 +291,82 @@ public final class Tools {
     // yyyy-MM-dd HH-mm-ss
     // http://docs.oracle.com/javase/1.5.0/docs/api/java/util/Formatter.html#syntax
     public static String buildElasticSearchTimeFormat(double timestamp) {
-        return format(System.currentTimeMillis()); // ramtamtam no more. just fast
+        return format(Math.round(timestamp * 1000));
     }
     
 
-    static private volatile long   lastTime;
-    static private volatile String lastTimeString = null;
+    private static final TimestampFormat[] FORMATS = TimestampFormat.values();
+
+    // Last formatted timestamp per format. Key and text live in one immutable
+    // object that is swapped as a whole, so readers never see one thread's
+    // second paired with another thread's string.
+    private static final AtomicReferenceArray<CachedTimestamp> timestampCache =
+            new AtomicReferenceArray<CachedTimestamp>(FORMATS.length);
+
+    private static final ThreadLocal<TimestampFormatter> timestampFormatter = new ThreadLocal<TimestampFormatter>() {
+        @Override
+        protected TimestampFormatter initialValue() {
+            return new TimestampFormatter();
+        }
+    };
 
     /**
-         Appends a date in the format "YYYY-mm-dd HH-mm-ss"
-         to <code>sbuf</code>. For example: "1999-11-27 15-49-37".
+     * Formats a millisecond timestamp in the format "YYYY-mm-dd HH-mm-ss", for
+     * example "1999-11-27 15-49-37".
+     *
+     * @param now A millisecond timestamp (milliseconds since UNIX epoch)
+     */
+    public static String format(long now) {
+        return format(now, TimestampFormat.ELASTICSEARCH_HISTOGRAM);
+    }
 
-         @param sbuf the <code>StringBuffer</code> to write to
+    /**
+     * Formats a millisecond timestamp. The last result per format is cached, so
+     * as long as callers ask for the same second (or millisecond for formats that
+     * include them) no formatting and no allocation happens.
+     *
+     * @param millis A millisecond timestamp (milliseconds since UNIX epoch)
      */
-    public static String format(long now ) {
-
-        int millis = (int)(now % 1000);
-
-        if ((now - millis) != lastTime || lastTimeString == null) {
-            StringBuffer sbuf = new StringBuffer(20);
-            // We reach this point at most once per second
-            // across all threads instead of each time format()
-            // is called. This saves considerable CPU time.
-            Calendar calendar = Calendar.getInstance();
-
-            calendar.setTimeInMillis(now);
-
-            int year =  calendar.get(Calendar.YEAR);
-            sbuf.append(year);
-
-            String month;
-            switch(calendar.get(Calendar.MONTH)) {
-            case Calendar.JANUARY: month = "-01-"; break;
-            case Calendar.FEBRUARY: month = "-02-";  break;
-            case Calendar.MARCH: month = "-03-"; break;
-            case Calendar.APRIL: month = "-04-";  break;
-            case Calendar.MAY: month = "-05-"; break;
-            case Calendar.JUNE: month = "-06-";  break;
-            case Calendar.JULY: month = "-07-"; break;
-            case Calendar.AUGUST: month = "-08-";  break;
-            case Calendar.SEPTEMBER: month = "-09-"; break;
-            case Calendar.OCTOBER: month = "-10-"; break;
-            case Calendar.NOVEMBER: month = "-11-";  break;
-            case Calendar.DECEMBER: month = "-12-";  break;
-            default: month = "-NA-"; break;
-            }
-            sbuf.append(month);
-
-            int day = calendar.get(Calendar.DAY_OF_MONTH);
-            if(day < 10)
-                sbuf.append('0');
-            sbuf.append(day);
-
-            sbuf.append(' ');
-
-            int hour = calendar.get(Calendar.HOUR_OF_DAY);
-            if(hour < 10) {
-                sbuf.append('0');
-            }
-            sbuf.append(hour);
-            sbuf.append('-');
-
-            int mins = calendar.get(Calendar.MINUTE);
-            if(mins < 10) {
-                sbuf.append('0');
-            }
-            sbuf.append(mins);
-            sbuf.append('-');
-
-            int secs = calendar.get(Calendar.SECOND);
-            if(secs < 10) {
-                sbuf.append('0');
-            }
-            sbuf.append(secs);
-
-            lastTime = now - millis;
-            lastTimeString = sbuf.toString();
+    public static String format(long millis, TimestampFormat format) {
+        long key = millis / format.getResolution();
+        if (millis < 0 && millis % format.getResolution() != 0) {
+            key--;
+        }
+
+        CachedTimestamp cached = timestampCache.get(format.ordinal());
+        if (cached != null && cached.key == key) {
+            return cached.text;
+        }
+
+        TimestampFormatter formatter = timestampFormatter.get();
+        int length = formatter.format(millis, format, formatter.buffer, 0);
+        String text = new String(formatter.buffer, 0, length, US_ASCII);
+
+        timestampCache.set(format.ordinal(), new CachedTimestamp(key, text));
+        return text;
+    }
+
+    /**
+     * Formats a millisecond timestamp as ASCII into the given array without
+     * allocating anything.
+     *
+     * @param dst Must have room for {@link TimestampFormat#getLength()} bytes after offset
+     * @return Number of bytes written
+     */
+    public static int format(long millis, TimestampFormat format, byte[] dst, int offset) {
+        return timestampFormatter.get().format(millis, format, dst, offset);
+    }
+
+    private static final class CachedTimestamp {
+
+        final long key;
+        final String text;
+
+        CachedTimestamp(long key, String text) {
+            this.key = key;
+            this.text = text;
         }
 
-        return lastTimeString;
     }
 
- 
 }
@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * Base class for Buffer implementations that only need to provide insert() and
+ * hasCapacity(). The batch, non-throwing and timed variants fall back to those,
+ * and the capacity listeners are managed here.
+ *
+ * Implementations call {@link #capacityExhausted()} when an insert finds the buffer
+ * full and {@link #capacityRestored()} once consumers made room again. Listeners are
+ * only notified on the transitions, so calling these often is cheap. Buffers that
+ * only implement insert() get both from the tryInsert() fallback, but are only
+ * noticed to have room again on the next insert that goes through it.
+ *
+ * Implementations record their traffic in {@link #getStatistics()} and report
+ * their fill level by overriding {@link #size()} and {@link #getCapacity()}.
+ * Inserts through the fallbacks here are recorded already.
+ */
+public abstract class AbstractBuffer implements Buffer {
+
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final List<CapacityListener> capacityListeners = new CopyOnWriteArrayList<CapacityListener>();
+    private final AtomicBoolean exhausted = new AtomicBoolean(false);
+
+    private final BufferStatistics statistics = new BufferStatistics() {
+        public int getSize() {
+            return size();
+        }
+
+        public int getCapacity() {
+            return AbstractBuffer.this.getCapacity();
+        }
+    };
+
+    /**
+     * Insert a message without throwing if the buffer is full. Use this instead of
+     * insert() on hot paths: building BufferOutOfCapacityException is expensive and
+     * happens exactly when the system is already overloaded.
+     *
+     * Falls back to insert(). Override this, the fallback still pays for the exception.
+     * The fallback signals the capacity listeners itself: exhausted when insert()
+     * throws, restored on the next insert that succeeds.
+     */
+    public InsertStatus tryInsert(LogMessage message) {
+        try {
+            insert(message);
+            statistics.recordEnqueued(1);
+            capacityRestored();
+            return InsertStatus.ACCEPTED;
+        } catch (BufferOutOfCapacityException e) {
+            statistics.recordRejected(1);
+            capacityExhausted();
+            return InsertStatus.FULL;
+        }
+    }
+
+    /**
+     * Insert a message, waiting up to the given time for room in the buffer.
+     *
+     * Retries tryInsert() with a growing park time in between until it succeeds
+     * or the time is up. Buffers that can wait for consumers directly should
+     * override this.
+     *
+     * @return true if the message was inserted, false if the time ran out
+     */
+    public boolean insert(LogMessage message, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long backoff = MIN_BACKOFF_NANOS;
+
+        while (true) {
+            if (tryInsert(message) == InsertStatus.ACCEPTED) {
+                return true;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+
+            LockSupport.parkNanos(this, Math.min(backoff, remaining));
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+        }
+    }
+
+    /**
+     * Insert a batch of messages at once. Never throws because of missing capacity.
+     * If not all messages fit, the buffer accepts as many as it can, always a prefix
+     * of the list in list order, and the rest stays with the caller.
+     *
+     * This implementation inserts message by message and stops at the first one
+     * that doesn't fit. Override it if the buffer can claim space for a whole batch
+     * at once.
+     *
+     * @return Number of messages accepted, i.e. messages.get(0) to messages.get(n-1) were inserted
+     */
+    public int insertAll(List<LogMessage> messages) {
+        int accepted = 0;
+        for (LogMessage message : messages) {
+            if (tryInsert(message) != InsertStatus.ACCEPTED) {
+                break;
+            }
+
+            accepted++;
+        }
+
+        return accepted;
+    }
+
+    /**
+     * Register a listener that is told when the buffer runs full and when it has room again.
+     */
+    public void addCapacityListener(CapacityListener listener) {
+        capacityListeners.add(listener);
+    }
+
+    public void removeCapacityListener(CapacityListener listener) {
+        capacityListeners.remove(listener);
+    }
+
+    /**
+     * Fill level, throughput and queue time of this buffer. Recorded all the time,
+     * cheap enough for production.
+     */
+    public BufferMetrics getMetrics() {
+        return statistics;
+    }
+
+    protected BufferStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return Number of messages in the buffer, -1 if unknown.
+     */
+    protected int size() {
+        return -1;
+    }
+
+    /**
+     * @return Maximum number of messages in the buffer, -1 if unknown.
+     */
+    protected int getCapacity() {
+        return -1;
+    }
+
+    /**
+     * Tell the listeners that the buffer is full, unless they already know.
+     */
+    protected void capacityExhausted() {
+        if (!exhausted.get() && exhausted.compareAndSet(false, true)) {
+            for (CapacityListener listener : capacityListeners) {
+                listener.capacityExhausted(this);
+            }
+        }
+    }
+
+    /**
+     * Tell the listeners that the buffer has room again, if it was full before.
+     */
+    protected void capacityRestored() {
+        if (exhausted.get() && exhausted.compareAndSet(true, false)) {
+            for (CapacityListener listener : capacityListeners) {
+                listener.capacityRestored(this);
+            }
+        }
+    }
+
+    protected boolean isCapacityExhausted() {
+        return exhausted.get();
+    }
+
+}
@@ -24,12 +24,22 @@ package org.graylog2.plugin.buffers;
 import org.graylog2.plugin.logmessage.LogMessage;
 
 /**
+ * A successful insert hands the message over to the buffer and its consumers. The
+ * caller must not modify or reuse it afterwards, because messages may come from
+ * a {@link org.graylog2.plugin.logmessage.LogMessagePool} and get recycled once
+ * the last stage is done with them. A message that was not accepted stays with
+ * the caller.
+ *
+ * Implementations usually extend {@link AbstractBuffer}, which adds batch,
+ * non-throwing and timed inserts, capacity listeners and metrics on top of this
+ * interface. They are not part of it, so existing implementations keep compiling.
  *
  * @author Lennart Koopmann <lennart@socketfeed.com>
  */
 public interface Buffer {
     
     public void insert(LogMessage message) throws BufferOutOfCapacityException;
+
     public boolean hasCapacity();
     
 }
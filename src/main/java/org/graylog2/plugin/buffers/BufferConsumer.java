@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * Runs workers that take batches from a {@link ConsumableBuffer} and pass them to a
+ * {@link MessageHandler}. The workers come from a ThreadFactory. By default that is
+ * a factory for virtual threads where the JVM has them (Java 21 and later), so
+ * thousands of workers only need the small carrier pool of the JVM. Older JVMs get
+ * platform threads.
+ *
+ * Workers only block in the buffer, which waits with locks and parking instead of
+ * synchronized, so virtual threads unmount while they wait. Handlers that run on
+ * virtual threads should avoid synchronized around blocking calls for the same reason.
+ *
+ * Idle workers cost as much as the wait strategy of the buffer: with a
+ * {@link BlockingWaitStrategy}, the default, they sleep until messages arrive. With
+ * a polling strategy like {@link ParkingWaitStrategy} every idle worker keeps
+ * waking up, which adds up with thousands of them.
+ */
+public class BufferConsumer {
+
+    private static final int DEFAULT_BATCH_SIZE = 256;
+    private static final long POLL_MILLIS = 100;
+
+    private final ConsumableBuffer buffer;
+    private final MessageHandler handler;
+    private final int workerCount;
+    private final int batchSize;
+    private final ThreadFactory threadFactory;
+
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private volatile boolean running = false;
+    private final AtomicLong handlerErrors = new AtomicLong();
+    private final RateLimitedLogger handlerErrorLog = new RateLimitedLogger(BufferConsumer.class);
+
+    public BufferConsumer(ConsumableBuffer buffer, MessageHandler handler, int workerCount) {
+        this(buffer, handler, workerCount, DEFAULT_BATCH_SIZE, defaultThreadFactory());
+    }
+
+    public BufferConsumer(ConsumableBuffer buffer, MessageHandler handler, int workerCount, int batchSize, ThreadFactory threadFactory) {
+        this.buffer = buffer;
+        this.handler = handler;
+        this.workerCount = workerCount;
+        this.batchSize = batchSize;
+        this.threadFactory = threadFactory;
+    }
+
+    public void start() {
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = threadFactory.newThread(new Worker());
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops the workers after their current batch and waits for them.
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        workers.clear();
+    }
+
+    /**
+     * @return Number of RuntimeExceptions thrown by the handler. The workers go on
+     *         after them. The first one is logged, after that one per minute.
+     */
+    public long getHandlerErrorCount() {
+        return handlerErrors.get();
+    }
+
+    /**
+     * @return A factory for virtual threads, or null if this JVM has none.
+     */
+    public static ThreadFactory virtualThreadFactory() {
+        try {
+            // Thread.ofVirtual().name("buffer-consumer-", 0).factory(), without requiring Java 21 to build.
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "buffer-consumer-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            // Older JVM or virtual threads still in preview.
+            return null;
+        }
+    }
+
+    /**
+     * @return Virtual threads if the JVM has them, otherwise daemon platform threads.
+     */
+    public static ThreadFactory defaultThreadFactory() {
+        ThreadFactory virtual = virtualThreadFactory();
+        if (virtual != null) {
+            return virtual;
+        }
+
+        final ThreadFactory platform = Executors.defaultThreadFactory();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = platform.newThread(r);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private class Worker implements Runnable {
+
+        private final List<LogMessage> batch = new ArrayList<LogMessage>(batchSize);
+
+        public void run() {
+            while (running) {
+                try {
+                    if (buffer.drainTo(batch, batchSize, POLL_MILLIS, TimeUnit.MILLISECONDS) == 0) {
+                        continue;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                try {
+                    handler.handle(batch);
+                } catch (RuntimeException e) {
+                    handlerErrors.incrementAndGet();
+                    handlerErrorLog.warn("MessageHandler failed, the batch is dropped.", e);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import org.graylog2.plugin.metrics.LatencyHistogram;
+
+/**
+ * What a buffer knows about its fill level and the messages that went through it.
+ * A live view: every call returns the current value. Counters are kept with striped
+ * cells, so reading is slower than recording and may miss concurrent updates.
+ */
+public interface BufferMetrics {
+
+    /**
+     * @return Number of messages in the buffer or -1 if the buffer can't tell.
+     */
+    public int getSize();
+
+    /**
+     * @return Maximum number of messages in the buffer or -1 if the buffer can't tell.
+     */
+    public int getCapacity();
+
+    public long getEnqueuedCount();
+
+    public long getDequeuedCount();
+
+    /**
+     * @return Number of messages that were refused because the buffer was full.
+     */
+    public long getRejectedCount();
+
+    /**
+     * @return Inserted messages per second, one minute moving average.
+     */
+    public double getEnqueueRate();
+
+    /**
+     * @return Consumed messages per second, one minute moving average.
+     */
+    public double getDequeueRate();
+
+    /**
+     * @return Refused messages per second, one minute moving average.
+     */
+    public double getRejectionRate();
+
+    /**
+     * @return Nanoseconds between insert and consumption of a message.
+     */
+    public LatencyHistogram getQueueTime();
+
+}
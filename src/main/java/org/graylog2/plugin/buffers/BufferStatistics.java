@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import org.graylog2.plugin.metrics.LatencyHistogram;
+import org.graylog2.plugin.metrics.Meter;
+
+/**
+ * BufferMetrics that buffer implementations record into. Only size and capacity
+ * are left to the buffer.
+ */
+public abstract class BufferStatistics implements BufferMetrics {
+
+    private final Meter enqueued = new Meter();
+    private final Meter dequeued = new Meter();
+    private final Meter rejected = new Meter();
+    private final LatencyHistogram queueTime = new LatencyHistogram();
+
+    public void recordEnqueued(int messages) {
+        enqueued.mark(messages);
+    }
+
+    public void recordDequeued(int messages) {
+        dequeued.mark(messages);
+    }
+
+    public void recordRejected(int messages) {
+        rejected.mark(messages);
+    }
+
+    /**
+     * @param nanos Time one message spent in the buffer
+     */
+    public void recordQueueTime(long nanos) {
+        queueTime.record(nanos);
+    }
+
+    public long getEnqueuedCount() {
+        return enqueued.getCount();
+    }
+
+    public long getDequeuedCount() {
+        return dequeued.getCount();
+    }
+
+    public long getRejectedCount() {
+        return rejected.getCount();
+    }
+
+    public double getEnqueueRate() {
+        return enqueued.getOneMinuteRate();
+    }
+
+    public double getDequeueRate() {
+        return dequeued.getOneMinuteRate();
+    }
+
+    public double getRejectionRate() {
+        return rejected.getOneMinuteRate();
+    }
+
+    public LatencyHistogram getQueueTime() {
+        return queueTime;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + getSize() + "/" + getCapacity()
+                + " enqueued=" + getEnqueuedCount()
+                + " dequeued=" + getDequeuedCount()
+                + " rejected=" + getRejectedCount()
+                + " queueTimeP99=" + queueTime.getPercentile(0.99) + "ns";
+    }
+
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * The consumer side of a Buffer. Taking a message hands it over to the consumer.
+ *
+ * Implementations wait without synchronized blocks, so consumers can run on
+ * virtual threads without pinning their carrier, see {@link BufferConsumer}.
+ */
+public interface ConsumableBuffer extends Buffer {
+
+    /**
+     * @return The next message or null if the buffer is empty
+     */
+    public LogMessage poll();
+
+    /**
+     * @return The next message or null if none arrived in time
+     */
+    public LogMessage poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Waits as long as it takes for the next message.
+     */
+    public LogMessage take() throws InterruptedException;
+
+    /**
+     * Moves up to maxMessages messages to the target without waiting.
+     *
+     * @return Number of messages moved
+     */
+    public int drainTo(Collection<? super LogMessage> target, int maxMessages);
+
+    /**
+     * Moves up to maxMessages messages to the target, waiting up to the given time
+     * for the first one.
+     *
+     * @return Number of messages moved, 0 if none arrived in time
+     */
+    public int drainTo(Collection<? super LogMessage> target, int maxMessages, long timeout, TimeUnit unit) throws InterruptedException;
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * Classifies by syslog level into three lanes: emergency to error (0-3), warning
+ * and notice (4-5) and everything else, mostly info and debug (6-7).
+ */
+public class LevelLaneClassifier implements LaneClassifier {
+
+    public static final int LANES = 3;
+
+    public static final int LANE_CRITICAL = 0;
+    public static final int LANE_WARNING = 1;
+    public static final int LANE_OTHER = 2;
+
+    public int classify(LogMessage message) {
+        int level = message.getLevel();
+        if (level >= 0 && level <= 3) {
+            return LANE_CRITICAL;
+        }
+
+        if (level == 4 || level == 5) {
+            return LANE_WARNING;
+        }
+
+        return LANE_OTHER;
+    }
+
+}
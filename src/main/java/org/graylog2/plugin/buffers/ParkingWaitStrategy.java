@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spins and yields briefly, then parks for a fixed time between checks. Needs no
+ * signalling from producers. Latency is at most the park time. Works well with
+ * virtual threads, which unmount while parked.
+ *
+ * Every idle thread still wakes up once per park time: 10,000 times a second with
+ * the default of 100 microseconds. That is little for a few consumers, but a
+ * {@link BufferConsumer} with thousands of idle workers keeps cores busy just
+ * checking empty buffers. Use a longer park time or a {@link BlockingWaitStrategy}
+ * for many waiting threads.
+ */
+public class ParkingWaitStrategy implements WaitStrategy {
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 10;
+
+    private final long parkNanos;
+
+    public ParkingWaitStrategy() {
+        this(100, TimeUnit.MICROSECONDS);
+    }
+
+    public ParkingWaitStrategy(long parkTime, TimeUnit unit) {
+        this.parkNanos = unit.toNanos(parkTime);
+    }
+
+    public boolean await(WaitCondition condition, long deadline) throws InterruptedException {
+        int counter = SPIN_TRIES + YIELD_TRIES;
+        while (!condition.isSatisfied()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+
+            if (counter > YIELD_TRIES) {
+                counter--;
+            } else if (counter > 0) {
+                counter--;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(this, Math.min(parkNanos, remaining));
+            }
+        }
+
+        return true;
+    }
+
+    public void signalAll() {
+    }
+
+}
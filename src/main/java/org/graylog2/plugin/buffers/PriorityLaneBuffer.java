@@ -0,0 +1,333 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * A buffer with several lanes, each its own RingBuffer with its own capacity. A
+ * {@link LaneClassifier} picks the lane of every message, by default the
+ * {@link LevelLaneClassifier}. A flood in one lane only fills that lane, so
+ * messages of other lanes are neither refused nor queued behind it.
+ *
+ * Consumers take from the lanes by weight: with weights 8, 4 and 1 the first lane
+ * gets 8 of 13 turns. Turns of empty lanes go to the others in lane order, so no
+ * consumer idles while any lane has messages.
+ *
+ * The order of messages is only kept within a lane.
+ *
+ * The capacity listeners of this buffer are only told about the most important
+ * lane: a flood in a less important lane must not make inputs stop reading. To
+ * follow a single lane, register with its ring, see {@link #getLane(int)}.
+ */
+public class PriorityLaneBuffer extends AbstractBuffer implements ConsumableBuffer {
+
+    private static final int[] DEFAULT_WEIGHTS = { 8, 4, 1 };
+
+    private final RingBuffer[] lanes;
+    private final int[] weights;
+    private final int totalWeight;
+    private final LaneClassifier classifier;
+    private final WaitStrategy waitStrategy;
+
+    // Lane of every turn, with the lanes spread evenly over all turns.
+    private final int[] schedule;
+    private final AtomicLong turn = new AtomicLong();
+
+    private final WaitCondition messageAvailable = new WaitCondition() {
+        public boolean isSatisfied() {
+            for (RingBuffer lane : lanes) {
+                if (lane.size() > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Three lanes by level with the given capacity each, weighted 8, 4 and 1,
+     * threads wait with a {@link BlockingWaitStrategy}.
+     */
+    public PriorityLaneBuffer(int capacityPerLane) {
+        this(new int[] { capacityPerLane, capacityPerLane, capacityPerLane }, DEFAULT_WEIGHTS,
+                new LevelLaneClassifier(), new BlockingWaitStrategy());
+    }
+
+    /**
+     * @param capacities   Capacity of every lane, most important lane first
+     * @param weights      Share of consumer turns of every lane
+     * @param waitStrategy Shared by all lanes, so consumers can wait for any of them
+     */
+    public PriorityLaneBuffer(int[] capacities, int[] weights, LaneClassifier classifier, WaitStrategy waitStrategy) {
+        if (capacities.length == 0 || capacities.length != weights.length) {
+            throw new IllegalArgumentException("Need a capacity and a weight for every lane.");
+        }
+
+        this.lanes = new RingBuffer[capacities.length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new RingBuffer(capacities[i], ProducerType.MULTI, waitStrategy);
+        }
+
+        int total = 0;
+        for (int weight : weights) {
+            if (weight < 1) {
+                throw new IllegalArgumentException("Lane weights must be at least 1.");
+            }
+            total += weight;
+        }
+
+        this.weights = weights.clone();
+        this.totalWeight = total;
+        this.schedule = buildSchedule(this.weights, total);
+        this.classifier = classifier;
+        this.waitStrategy = waitStrategy;
+    }
+
+    public void insert(LogMessage message) throws BufferOutOfCapacityException {
+        if (tryInsert(message) != InsertStatus.ACCEPTED) {
+            throw new BufferOutOfCapacityException();
+        }
+    }
+
+    @Override
+    public InsertStatus tryInsert(LogMessage message) {
+        if (laneOf(message).tryInsert(message) != InsertStatus.ACCEPTED) {
+            getStatistics().recordRejected(1);
+            rejected();
+            return InsertStatus.FULL;
+        }
+
+        getStatistics().recordEnqueued(1);
+        return InsertStatus.ACCEPTED;
+    }
+
+    /**
+     * Inserts runs of messages for the same lane with one claim each.
+     *
+     * Unlike other buffers, only a full most important lane stops the batch and
+     * leaves the rest with the caller. Messages for any other lane that is full
+     * are refused like with tryInsert() and the batch goes on, so a flood of debug
+     * messages cannot hold back the critical ones behind it.
+     *
+     * @return Number of messages handled, i.e. messages.get(0) to messages.get(n-1)
+     *         were inserted or refused for good
+     */
+    @Override
+    public int insertAll(List<LogMessage> messages) {
+        int handled = 0;
+        int inserted = 0;
+        int size = messages.size();
+        while (handled < size) {
+            RingBuffer lane = laneOf(messages.get(handled));
+            int end = handled + 1;
+            while (end < size && laneOf(messages.get(end)) == lane) {
+                end++;
+            }
+
+            int accepted = lane.insertAll(messages.subList(handled, end));
+            inserted += accepted;
+            if (accepted < end - handled && lane == lanes[0]) {
+                handled += accepted;
+                break;
+            }
+            handled = end;
+        }
+
+        getStatistics().recordEnqueued(inserted);
+        if (inserted < size) {
+            getStatistics().recordRejected(size - inserted);
+            rejected();
+        }
+
+        return handled;
+    }
+
+    /**
+     * @return true if any lane has room. Inserts into a full lane are still refused.
+     */
+    public boolean hasCapacity() {
+        for (RingBuffer lane : lanes) {
+            if (lane.hasCapacity()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes a message from the lane whose turn it is, or from the most important
+     * lane that has one.
+     *
+     * @return The message or null if all lanes are empty
+     */
+    public LogMessage poll() {
+        int preferred = schedule[(int) (turn.getAndIncrement() % schedule.length)];
+        LogMessage message = lanes[preferred].poll();
+        if (message == null) {
+            for (int i = 0; i < lanes.length && message == null; i++) {
+                if (i != preferred) {
+                    message = lanes[i].poll();
+                }
+            }
+        }
+
+        if (message != null) {
+            consumed();
+        }
+
+        return message;
+    }
+
+    public LogMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            LogMessage message = poll();
+            if (message != null) {
+                return message;
+            }
+
+            if (!waitStrategy.await(messageAvailable, deadline)) {
+                return null;
+            }
+        }
+    }
+
+    public LogMessage take() throws InterruptedException {
+        while (true) {
+            LogMessage message = poll();
+            if (message != null) {
+                return message;
+            }
+
+            waitStrategy.await(messageAvailable, System.nanoTime() + Long.MAX_VALUE / 2);
+        }
+    }
+
+    /**
+     * Drains every lane up to its weighted share of maxMessages, most important
+     * lane first. Room that is left goes to the lanes in lane order.
+     */
+    public int drainTo(Collection<? super LogMessage> target, int maxMessages) {
+        int drained = 0;
+        for (int i = 0; i < lanes.length && drained < maxMessages; i++) {
+            int share = Math.max(1, (int) ((long) maxMessages * weights[i] / totalWeight));
+            drained += lanes[i].drainTo(target, Math.min(share, maxMessages - drained));
+        }
+
+        for (int i = 0; i < lanes.length && drained < maxMessages; i++) {
+            drained += lanes[i].drainTo(target, maxMessages - drained);
+        }
+
+        if (drained > 0) {
+            consumed();
+        }
+
+        return drained;
+    }
+
+    public int drainTo(Collection<? super LogMessage> target, int maxMessages, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            int drained = drainTo(target, maxMessages);
+            if (drained > 0) {
+                return drained;
+            }
+
+            if (!waitStrategy.await(messageAvailable, deadline)) {
+                return 0;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (RingBuffer lane : lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    @Override
+    public int getCapacity() {
+        int capacity = 0;
+        for (RingBuffer lane : lanes) {
+            capacity += lane.getCapacity();
+        }
+        return capacity;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * @return The ring of a lane, for example to read the queue time of that lane from its metrics.
+     */
+    public RingBuffer getLane(int lane) {
+        return lanes[lane];
+    }
+
+    private RingBuffer laneOf(LogMessage message) {
+        int lane = classifier.classify(message);
+        return lanes[lane >= 0 && lane < lanes.length ? lane : lanes.length - 1];
+    }
+
+    private void rejected() {
+        if (!lanes[0].hasCapacity()) {
+            capacityExhausted();
+        }
+    }
+
+    private void consumed() {
+        if (isCapacityExhausted() && lanes[0].hasCapacity()) {
+            capacityRestored();
+        }
+    }
+
+    /*
+     * Smooth weighted round robin: every turn, each lane gains its weight and
+     * the lane with the most credit gets the turn and pays the total weight.
+     */
+    private static int[] buildSchedule(int[] weights, int totalWeight) {
+        int[] schedule = new int[totalWeight];
+        int[] credit = new int[weights.length];
+        for (int t = 0; t < totalWeight; t++) {
+            int best = 0;
+            for (int i = 0; i < weights.length; i++) {
+                credit[i] += weights[i];
+                if (credit[i] > credit[best]) {
+                    best = i;
+                }
+            }
+            credit[best] -= totalWeight;
+            schedule[t] = best;
+        }
+        return schedule;
+    }
+
+}
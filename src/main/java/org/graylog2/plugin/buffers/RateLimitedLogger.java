@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs failures that may repeat for every batch without flooding the log: the
+ * first one right away, after that at most one per interval together with the
+ * number of failures that were not logged in between.
+ */
+final class RateLimitedLogger {
+
+    private static final long DEFAULT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Logger logger;
+    private final long intervalNanos;
+    private final AtomicLong nextLogTime;
+    private final AtomicLong suppressed = new AtomicLong();
+
+    RateLimitedLogger(Class<?> owner) {
+        this(Logger.getLogger(owner.getName()), DEFAULT_INTERVAL_NANOS);
+    }
+
+    RateLimitedLogger(Logger logger, long intervalNanos) {
+        this.logger = logger;
+        this.intervalNanos = intervalNanos;
+        this.nextLogTime = new AtomicLong(System.nanoTime());
+    }
+
+    void warn(String message, Throwable t) {
+        long now = System.nanoTime();
+        long next = nextLogTime.get();
+        if (now - next < 0 || !nextLogTime.compareAndSet(next, now + intervalNanos)) {
+            suppressed.incrementAndGet();
+            return;
+        }
+
+        long skipped = suppressed.getAndSet(0);
+        if (skipped > 0) {
+            message = message + " (" + skipped + " more since the last one were not logged)";
+        }
+        logger.log(Level.WARNING, message, t);
+    }
+
+}
@@ -0,0 +1,390 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * Reference Buffer implementation on a pre-allocated ring of slots. Can be used
+ * as process and output buffer.
+ *
+ * Each slot has its own sequence number that says whether it is free for the
+ * current lap or holds a published message. Producers claim slots by moving the
+ * tail and consumers claim them by moving the head. Both move by a whole batch at
+ * once in insertAll() and drainTo(). With {@link ProducerType#SINGLE} the tail is
+ * moved without CAS. Any number of consumers can drain concurrently.
+ *
+ * Apart from the ring itself nothing is allocated on inserts or drains. How waiting
+ * producers and consumers wait is decided by the {@link WaitStrategy}.
+ *
+ * Every slot also stores the System.nanoTime() of its insert, so the metrics can
+ * tell how long messages waited for a consumer.
+ */
+public class RingBuffer extends AbstractBuffer implements ConsumableBuffer {
+
+    private final int capacity;
+    private final int mask;
+    private final LogMessage[] entries;
+    private final long[] insertTimes;
+
+    /*
+     * sequences[i] == p:     slot is free for the producer of position p
+     * sequences[i] == p + 1: slot holds the message of position p
+     */
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private final ProducerType producerType;
+    private final WaitStrategy waitStrategy;
+
+    private final WaitCondition messageAvailable = new WaitCondition() {
+        public boolean isSatisfied() {
+            long h = head.get();
+            return sequences.get(index(h)) == h + 1;
+        }
+    };
+
+    private final WaitCondition spaceAvailable = new WaitCondition() {
+        public boolean isSatisfied() {
+            return hasCapacity();
+        }
+    };
+
+    /**
+     * Several producers, threads wait with a {@link BlockingWaitStrategy}.
+     */
+    public RingBuffer(int capacity) {
+        this(capacity, ProducerType.MULTI, new BlockingWaitStrategy());
+    }
+
+    /**
+     * @param capacity Number of slots. Rounded up to the next power of two, at
+     *        least two: with a single slot a consumer's release would look like
+     *        the previous lap's publish, and a producer could overwrite a message
+     *        that was claimed but not read yet.
+     */
+    public RingBuffer(int capacity, ProducerType producerType, WaitStrategy waitStrategy) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30.");
+        }
+
+        this.capacity = roundUp(capacity);
+        this.mask = this.capacity - 1;
+        this.entries = new LogMessage[this.capacity];
+        this.insertTimes = new long[this.capacity];
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+
+        this.producerType = producerType;
+        this.waitStrategy = waitStrategy;
+    }
+
+    public void insert(LogMessage message) throws BufferOutOfCapacityException {
+        if (tryInsert(message) != InsertStatus.ACCEPTED) {
+            throw new BufferOutOfCapacityException();
+        }
+    }
+
+    @Override
+    public InsertStatus tryInsert(LogMessage message) {
+        long position = claim(1);
+        if (position < 0) {
+            getStatistics().recordRejected(1);
+            capacityExhausted();
+            return InsertStatus.FULL;
+        }
+
+        publish(position, message, System.nanoTime());
+        getStatistics().recordEnqueued(1);
+        waitStrategy.signalAll();
+        return InsertStatus.ACCEPTED;
+    }
+
+    /**
+     * Waits for room with the wait strategy instead of polling.
+     */
+    @Override
+    public boolean insert(LogMessage message, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            if (tryInsert(message) == InsertStatus.ACCEPTED) {
+                return true;
+            }
+
+            if (!waitStrategy.await(spaceAvailable, deadline)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Claims the slots for as many messages as fit with a single claim.
+     */
+    @Override
+    public int insertAll(List<LogMessage> messages) {
+        int wanted = messages.size();
+        if (wanted == 0) {
+            return 0;
+        }
+
+        long position;
+        int accepted;
+        if (producerType == ProducerType.SINGLE) {
+            position = tail.get();
+            accepted = (int) Math.min(wanted, capacity - (position - head.get()));
+            if (accepted <= 0) {
+                getStatistics().recordRejected(wanted);
+                capacityExhausted();
+                return 0;
+            }
+            tail.lazySet(position + accepted);
+        } else {
+            while (true) {
+                position = tail.get();
+                accepted = (int) Math.min(wanted, capacity - (position - head.get()));
+                if (accepted <= 0) {
+                    getStatistics().recordRejected(wanted);
+                    capacityExhausted();
+                    return 0;
+                }
+                if (tail.compareAndSet(position, position + accepted)) {
+                    break;
+                }
+            }
+        }
+
+        long now = System.nanoTime();
+        for (int i = 0; i < accepted; i++) {
+            publish(position + i, messages.get(i), now);
+        }
+        getStatistics().recordEnqueued(accepted);
+        waitStrategy.signalAll();
+
+        if (accepted < wanted) {
+            getStatistics().recordRejected(wanted - accepted);
+            capacityExhausted();
+        }
+
+        return accepted;
+    }
+
+    public boolean hasCapacity() {
+        return tail.get() - head.get() < capacity;
+    }
+
+    /**
+     * Removes the next message without waiting.
+     *
+     * @return The message or null if the buffer is empty
+     */
+    public LogMessage poll() {
+        while (true) {
+            long h = head.get();
+            if (sequences.get(index(h)) != h + 1) {
+                return null;
+            }
+
+            if (head.compareAndSet(h, h + 1)) {
+                LogMessage message = release(h, System.nanoTime());
+                consumed(1);
+                return message;
+            }
+        }
+    }
+
+    /**
+     * Removes the next message, waiting up to the given time for one to arrive.
+     *
+     * @return The message or null if the time is up
+     */
+    public LogMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            LogMessage message = poll();
+            if (message != null) {
+                return message;
+            }
+
+            if (!waitStrategy.await(messageAvailable, deadline)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Removes the next message, waiting as long as it takes for one to arrive.
+     */
+    public LogMessage take() throws InterruptedException {
+        while (true) {
+            LogMessage message = poll();
+            if (message != null) {
+                return message;
+            }
+
+            waitStrategy.await(messageAvailable, System.nanoTime() + Long.MAX_VALUE / 2);
+        }
+    }
+
+    /**
+     * Moves up to maxMessages published messages to the target with a single claim.
+     * Does not wait.
+     *
+     * @return Number of messages moved
+     */
+    public int drainTo(Collection<? super LogMessage> target, int maxMessages) {
+        while (true) {
+            long h = head.get();
+            int available = 0;
+            while (available < maxMessages && sequences.get(index(h + available)) == h + available + 1) {
+                available++;
+            }
+
+            if (available == 0) {
+                return 0;
+            }
+
+            if (head.compareAndSet(h, h + available)) {
+                long now = System.nanoTime();
+                for (int i = 0; i < available; i++) {
+                    target.add(release(h + i, now));
+                }
+                consumed(available);
+                return available;
+            }
+        }
+    }
+
+    /**
+     * Like {@link #drainTo(Collection, int)}, but waits up to the given time for
+     * the first message.
+     *
+     * @return Number of messages moved, 0 if the time is up
+     */
+    public int drainTo(Collection<? super LogMessage> target, int maxMessages, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            int drained = drainTo(target, maxMessages);
+            if (drained > 0) {
+                return drained;
+            }
+
+            if (!waitStrategy.await(messageAvailable, deadline)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Number of claimed slots. Includes slots that producers are still writing to.
+     */
+    @Override
+    public int size() {
+        return (int) Math.max(0, Math.min(capacity, tail.get() - head.get()));
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public ProducerType getProducerType() {
+        return producerType;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * @return The first claimed position or -1 if there is no room
+     */
+    private long claim(int n) {
+        if (producerType == ProducerType.SINGLE) {
+            long position = tail.get();
+            if (position + n - head.get() > capacity) {
+                return -1;
+            }
+            tail.lazySet(position + n);
+            return position;
+        }
+
+        while (true) {
+            long position = tail.get();
+            if (position + n - head.get() > capacity) {
+                return -1;
+            }
+            if (tail.compareAndSet(position, position + n)) {
+                return position;
+            }
+        }
+    }
+
+    private void publish(long position, LogMessage message, long now) {
+        int index = index(position);
+
+        // A consumer that claimed this slot in the last lap may still be reading it.
+        while (sequences.get(index) != position) {
+            Thread.yield();
+        }
+
+        entries[index] = message;
+        insertTimes[index] = now;
+        sequences.lazySet(index, position + 1);
+    }
+
+    private LogMessage release(long position, long now) {
+        // Consumers only claim published slots, no need to wait here.
+        int index = index(position);
+        LogMessage message = entries[index];
+        entries[index] = null;
+        getStatistics().recordQueueTime(now - insertTimes[index]);
+        sequences.lazySet(index, position + capacity);
+        return message;
+    }
+
+    private void consumed(int messages) {
+        getStatistics().recordDequeued(messages);
+        waitStrategy.signalAll();
+        if (isCapacityExhausted() && tail.get() - head.get() <= capacity / 2) {
+            capacityRestored();
+        }
+    }
+
+    private int index(long position) {
+        return (int) position & mask;
+    }
+
+    private static int roundUp(int capacity) {
+        int rounded = Math.max(2, Integer.highestOneBit(capacity));
+        return rounded >= capacity ? rounded : rounded << 1;
+    }
+
+}
@@ -0,0 +1,500 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only journal of byte records in memory-mapped segment files. Records are
+ * read back in the order they were appended. Segments that were read completely
+ * are deleted.
+ *
+ * Every record is its length as int followed by the data. Segment files are
+ * created zero filled, so a length of 0 marks the end of the written data.
+ * Committing a record negates its length in the file. That way segments that are
+ * left over from a previous run are recovered when the journal is opened, and
+ * reading goes on after the last record that was committed before.
+ *
+ * Records can be read and committed separately, see {@link #read()} and
+ * {@link #commit(int)}: what was read but not committed when the journal is
+ * closed is read again by the next journal on the same directory. Segment files
+ * are unmapped as soon as they are deleted or the journal is closed.
+ *
+ * Appends only write to the page cache. Call {@link #flush()} to force them to disk.
+ * All methods are thread safe.
+ */
+public class SegmentJournal implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SUFFIX = ".segment";
+
+    private final File directory;
+    private final int segmentSize;
+    private final long maxBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Oldest first. The last one is written to.
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+    private long nextSegmentNumber = 0;
+    private long records = 0;
+    private long bytes = 0;
+    private boolean closed = false;
+
+    public SegmentJournal(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens the journal in the given directory and recovers segments that are already there.
+     *
+     * @param segmentSize Size of a segment file in bytes. Larger records get a segment of their own.
+     * @param maxBytes    Appends fail once the segment files would take more space than this
+     */
+    public SegmentJournal(File directory, int segmentSize, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create journal directory " + directory);
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+
+        recover();
+    }
+
+    /**
+     * @return false if the record does not fit because of the size limit
+     */
+    public boolean append(byte[] data, int offset, int length) throws IOException {
+        if (length <= 0) {
+            throw new IllegalArgumentException("Records must not be empty.");
+        }
+
+        lock.lock();
+        try {
+            ensureOpen();
+
+            Segment segment = segments.peekLast();
+            if (segment == null || segment.remaining() < length + 4) {
+                int size = Math.max(segmentSize, length + 4);
+                if (bytes + size > maxBytes) {
+                    return false;
+                }
+
+                segment = createSegment(size);
+            }
+
+            segment.append(data, offset, length);
+            records++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads and commits the oldest unread record.
+     *
+     * @return The record as read-only view into the segment, or null if the journal is empty.
+     *         Only valid until the next call, so copy or decode it before.
+     */
+    public ByteBuffer next() throws IOException {
+        lock.lock();
+        try {
+            ByteBuffer record = read();
+            if (record != null) {
+                commit(1);
+            }
+            return record;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the oldest unread record without removing it from the journal. Reading
+     * again returns the record after it. The record is removed by {@link #commit(int)}.
+     *
+     * @return The record as read-only view into the segment, or null if all records
+     *         were read. Only valid until the next call of read(), next() or close()
+     *         after it was committed, so copy or decode it before.
+     */
+    public ByteBuffer read() throws IOException {
+        lock.lock();
+        try {
+            ensureOpen();
+            deleteCommittedSegments();
+
+            // Only the last segment is appended to, so the first one with unread records is the oldest.
+            for (Segment segment : segments) {
+                ByteBuffer record = segment.read();
+                if (record != null) {
+                    records--;
+                    return record;
+                }
+            }
+
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the oldest records that were read but not committed yet, in the
+     * order they were read.
+     *
+     * @throws IllegalStateException if fewer records were read than should be committed
+     */
+    public void commit(int count) throws IOException {
+        lock.lock();
+        try {
+            ensureOpen();
+
+            for (Segment segment : segments) {
+                while (count > 0 && segment.commit()) {
+                    count--;
+                }
+                if (count == 0) {
+                    return;
+                }
+            }
+
+            throw new IllegalStateException("Cannot commit " + count + " more records than were read.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of records that were not read yet. Records that were read but
+     *         not committed don't count.
+     */
+    public long getRecordCount() {
+        lock.lock();
+        try {
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return getRecordCount() == 0;
+    }
+
+    /**
+     * @return Size of all segment files in bytes.
+     */
+    public long getSizeInBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Whether small records still fit without exceeding the size limit.
+     */
+    public boolean hasCapacity() {
+        lock.lock();
+        try {
+            Segment segment = segments.peekLast();
+            return !closed && (segment != null && segment.remaining() > 4 || bytes + segmentSize <= maxBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Forces all appended records to disk.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                segment.map.force();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes and unmaps the journal. Records that were not committed stay on disk
+     * and are recovered by the next journal opened on this directory.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (!closed) {
+                flush();
+                for (Segment segment : segments) {
+                    Unmapper.unmap(segment.map);
+                }
+                segments.clear();
+                closed = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Journal is closed.");
+        }
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX) && parseNumber(name) >= 0;
+            }
+        });
+
+        if (files == null) {
+            throw new IOException("Could not list journal directory " + directory);
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long x = parseNumber(a.getName());
+                long y = parseNumber(b.getName());
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            Segment segment = new Segment(file, (int) file.length());
+            records += segment.recover();
+            bytes += segment.size();
+            segments.addLast(segment);
+            nextSegmentNumber = parseNumber(file.getName()) + 1;
+        }
+    }
+
+    // The last segment is kept for further appends.
+    private void deleteCommittedSegments() {
+        while (segments.size() > 1 && segments.peekFirst().isCommitted()) {
+            Segment segment = segments.pollFirst();
+            bytes -= segment.size();
+            segment.delete();
+        }
+    }
+
+    private Segment createSegment(int size) throws IOException {
+        File file = new File(directory, String.format("%020d", nextSegmentNumber++) + SUFFIX);
+        Segment segment = new Segment(file, size);
+        segments.addLast(segment);
+        bytes += size;
+        return segment;
+    }
+
+    private static long parseNumber(String name) {
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static class Segment {
+
+        private final File file;
+        private final MappedByteBuffer map;
+        private int writePosition = 0;
+        private int readPosition = 0;
+        private int commitPosition = 0;
+
+        Segment(File file, int size) throws IOException {
+            this.file = file;
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                // Extending the file fills it with zeros.
+                raf.setLength(size);
+                this.map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                // The mapping stays valid after closing the file.
+                raf.close();
+            }
+        }
+
+        int size() {
+            return map.capacity();
+        }
+
+        int remaining() {
+            return map.capacity() - writePosition;
+        }
+
+        void append(byte[] data, int offset, int length) {
+            ByteBuffer view = map.duplicate();
+            view.position(writePosition + 4);
+            view.put(data, offset, length);
+
+            // Length last: until it is written the record ends the segment.
+            map.putInt(writePosition, length);
+            writePosition += length + 4;
+        }
+
+        ByteBuffer read() {
+            if (readPosition >= writePosition) {
+                return null;
+            }
+
+            int length = map.getInt(readPosition);
+            ByteBuffer view = map.duplicate();
+            view.position(readPosition + 4);
+            view.limit(readPosition + 4 + length);
+            readPosition += length + 4;
+            return view.slice().asReadOnlyBuffer();
+        }
+
+        /**
+         * Commits the oldest record that was read but not committed.
+         *
+         * @return false if there is none
+         */
+        boolean commit() {
+            if (commitPosition >= readPosition) {
+                return false;
+            }
+
+            int length = map.getInt(commitPosition);
+            map.putInt(commitPosition, -length);
+            commitPosition += length + 4;
+            return true;
+        }
+
+        boolean isCommitted() {
+            return commitPosition >= writePosition;
+        }
+
+        /**
+         * Finds the end of the written records and the first unread one.
+         *
+         * @return Number of unread records in this segment
+         */
+        int recover() {
+            int count = 0;
+            while (writePosition + 4 <= map.capacity()) {
+                int length = map.getInt(writePosition);
+                int size = Math.abs(length);
+                if (length == 0 || writePosition + 4 + size > map.capacity()) {
+                    break;
+                }
+
+                if (length < 0 && readPosition == writePosition) {
+                    readPosition += size + 4;
+                } else if (length > 0) {
+                    count++;
+                }
+
+                writePosition += size + 4;
+            }
+
+            commitPosition = readPosition;
+            return count;
+        }
+
+        void delete() {
+            Unmapper.unmap(map);
+            file.delete();
+        }
+
+    }
+
+    /**
+     * Unmaps segments right away instead of when the buffer happens to be collected,
+     * which keeps the address space and, on Windows, the file until then. There is
+     * no public API for it: Java 9 and later have Unsafe.invokeCleaner(), before
+     * that the buffer's cleaner is called directly. If neither works the buffer is
+     * left to the garbage collector as before.
+     *
+     * The buffer and all views of it must not be touched afterwards.
+     */
+    private static class Unmapper {
+
+        private static final Method INVOKE_CLEANER;
+        private static final Object UNSAFE;
+
+        static {
+            Method invokeCleaner = null;
+            Object unsafe = null;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unsafe = theUnsafe.get(null);
+            } catch (Exception e) {
+                // Before Java 9.
+                invokeCleaner = null;
+            }
+
+            INVOKE_CLEANER = invokeCleaner;
+            UNSAFE = unsafe;
+        }
+
+        static void unmap(MappedByteBuffer buffer) {
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                } else {
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    }
+                }
+            } catch (Exception e) {
+                // Left to the garbage collector.
+            }
+        }
+
+    }
+
+}
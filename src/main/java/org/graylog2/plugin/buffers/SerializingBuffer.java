@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.graylog2.plugin.logmessage.JsonDocumentWriter;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * Serializes every message once when it enters the wrapped buffer and keeps the
+ * JSON document with the message, see {@link LogMessage#getSerializedDocument()}.
+ * Meant as output buffer: every MessageOutput that needs the document can take
+ * the bytes from the message instead of calling toElasticSearchObject() again.
+ *
+ * Messages that already carry a document are not serialized again. Serializing
+ * happens on the inserting thread, with one reused JsonDocumentWriter per thread.
+ *
+ * Capacity and capacity listeners are those of the wrapped buffer, as long as it
+ * is an {@link AbstractBuffer}. Other buffers only get insert() and hasCapacity()
+ * calls and the fallbacks of AbstractBuffer. Consumers read from the wrapped buffer.
+ */
+public class SerializingBuffer extends AbstractBuffer {
+
+    private static final ThreadLocal<JsonDocumentWriter> WRITER = new ThreadLocal<JsonDocumentWriter>() {
+        @Override
+        protected JsonDocumentWriter initialValue() {
+            return new JsonDocumentWriter();
+        }
+    };
+
+    private final Buffer buffer;
+
+    public SerializingBuffer(Buffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public void insert(LogMessage message) throws BufferOutOfCapacityException {
+        serialize(message);
+        buffer.insert(message);
+    }
+
+    @Override
+    public InsertStatus tryInsert(LogMessage message) {
+        serialize(message);
+        if (buffer instanceof AbstractBuffer) {
+            return ((AbstractBuffer) buffer).tryInsert(message);
+        }
+        return super.tryInsert(message);
+    }
+
+    @Override
+    public boolean insert(LogMessage message, long timeout, TimeUnit unit) throws InterruptedException {
+        serialize(message);
+        if (buffer instanceof AbstractBuffer) {
+            return ((AbstractBuffer) buffer).insert(message, timeout, unit);
+        }
+        return super.insert(message, timeout, unit);
+    }
+
+    @Override
+    public int insertAll(List<LogMessage> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            serialize(messages.get(i));
+        }
+        if (buffer instanceof AbstractBuffer) {
+            return ((AbstractBuffer) buffer).insertAll(messages);
+        }
+        return super.insertAll(messages);
+    }
+
+    public boolean hasCapacity() {
+        return buffer.hasCapacity();
+    }
+
+    @Override
+    public void addCapacityListener(CapacityListener listener) {
+        if (buffer instanceof AbstractBuffer) {
+            ((AbstractBuffer) buffer).addCapacityListener(listener);
+        } else {
+            super.addCapacityListener(listener);
+        }
+    }
+
+    @Override
+    public void removeCapacityListener(CapacityListener listener) {
+        if (buffer instanceof AbstractBuffer) {
+            ((AbstractBuffer) buffer).removeCapacityListener(listener);
+        } else {
+            super.removeCapacityListener(listener);
+        }
+    }
+
+    @Override
+    public BufferMetrics getMetrics() {
+        if (buffer instanceof AbstractBuffer) {
+            return ((AbstractBuffer) buffer).getMetrics();
+        }
+        return super.getMetrics();
+    }
+
+    public Buffer getBuffer() {
+        return buffer;
+    }
+
+    private static void serialize(LogMessage message) {
+        if (message.getSerializedDocument() != null) {
+            return;
+        }
+
+        JsonDocumentWriter writer = WRITER.get();
+        writer.reset();
+        message.writeTo(writer);
+        message.setSerializedDocument(writer.toByteArray());
+    }
+
+}
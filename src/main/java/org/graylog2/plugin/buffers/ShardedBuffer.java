@@ -0,0 +1,270 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * A buffer that splits messages by host onto several independent RingBuffers.
+ * Every shard is consumed by one dedicated worker thread that hands batches to a
+ * {@link ShardHandler}. All messages of a host go through the same shard and
+ * thread, in insert order, so per-host state like host counters or stream matching
+ * caches can be kept per shard without locks, and producers and consumers of
+ * different shards never touch the same sequences.
+ *
+ * Java can't pin threads to cores by itself. Pass a ThreadFactory that does it if
+ * the platform allows, every shard gets its own thread from it.
+ *
+ * The capacity listeners of this buffer are only told when all shards are full:
+ * one busy host must not make inputs stop reading for all others. To follow a
+ * single shard, register with its ring, see {@link #getShard(int)}.
+ */
+public class ShardedBuffer extends AbstractBuffer {
+
+    private static final int DEFAULT_BATCH_SIZE = 256;
+    private static final long POLL_MILLIS = 100;
+
+    private final RingBuffer[] shards;
+    private final ShardHandler handler;
+    private final ThreadFactory threadFactory;
+    private final int batchSize;
+
+    private final Thread[] workers;
+    private volatile boolean running = false;
+    private final AtomicLong handlerErrors = new AtomicLong();
+    private final RateLimitedLogger handlerErrorLog = new RateLimitedLogger(ShardedBuffer.class);
+
+    public ShardedBuffer(int shards, int capacityPerShard, ShardHandler handler) {
+        this(createRings(shards, capacityPerShard), handler, Executors.defaultThreadFactory(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param shards    One ring per shard. Each should have its own wait strategy instance.
+     * @param batchSize Maximum number of messages per handler call
+     */
+    public ShardedBuffer(RingBuffer[] shards, ShardHandler handler, ThreadFactory threadFactory, int batchSize) {
+        if (shards.length == 0) {
+            throw new IllegalArgumentException("Need at least one shard.");
+        }
+
+        this.shards = shards.clone();
+        this.handler = handler;
+        this.threadFactory = threadFactory;
+        this.batchSize = batchSize;
+        this.workers = new Thread[shards.length];
+    }
+
+    /**
+     * Starts one worker thread per shard.
+     */
+    public void start() {
+        running = true;
+        for (int i = 0; i < shards.length; i++) {
+            workers[i] = threadFactory.newThread(new Worker(i));
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Stops the workers after their current batch. Messages that were not handled
+     * yet stay in the shards.
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            if (worker != null) {
+                worker.join();
+            }
+        }
+    }
+
+    public void insert(LogMessage message) throws BufferOutOfCapacityException {
+        if (tryInsert(message) != InsertStatus.ACCEPTED) {
+            throw new BufferOutOfCapacityException();
+        }
+    }
+
+    @Override
+    public InsertStatus tryInsert(LogMessage message) {
+        if (shards[shardOf(message.getHost())].tryInsert(message) != InsertStatus.ACCEPTED) {
+            getStatistics().recordRejected(1);
+            rejected();
+            return InsertStatus.FULL;
+        }
+
+        getStatistics().recordEnqueued(1);
+        return InsertStatus.ACCEPTED;
+    }
+
+    /**
+     * Inserts runs of messages for the same shard with one claim each.
+     */
+    @Override
+    public int insertAll(List<LogMessage> messages) {
+        int accepted = 0;
+        int size = messages.size();
+        while (accepted < size) {
+            int shard = shardOf(messages.get(accepted).getHost());
+            int end = accepted + 1;
+            while (end < size && shardOf(messages.get(end).getHost()) == shard) {
+                end++;
+            }
+
+            accepted += shards[shard].insertAll(messages.subList(accepted, end));
+            if (accepted < end) {
+                break;
+            }
+        }
+
+        getStatistics().recordEnqueued(accepted);
+        if (accepted < size) {
+            getStatistics().recordRejected(size - accepted);
+            rejected();
+        }
+
+        return accepted;
+    }
+
+    /**
+     * @return true if any shard has room. Inserts into a full shard are still refused.
+     */
+    public boolean hasCapacity() {
+        for (RingBuffer shard : shards) {
+            if (shard.hasCapacity()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The shard that all messages of this host go to.
+     */
+    public int shardOf(String host) {
+        if (host == null) {
+            return 0;
+        }
+
+        // Spread the bits, String hash codes of similar host names differ only a little.
+        int h = host.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return (h & Integer.MAX_VALUE) % shards.length;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (RingBuffer shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public int getCapacity() {
+        int capacity = 0;
+        for (RingBuffer shard : shards) {
+            capacity += shard.getCapacity();
+        }
+        return capacity;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return The ring of a shard, for example for its metrics.
+     */
+    public RingBuffer getShard(int shard) {
+        return shards[shard];
+    }
+
+    /**
+     * @return Number of RuntimeExceptions thrown by the handler. The workers go on
+     *         after them. The first one is logged, after that one per minute.
+     */
+    public long getHandlerErrorCount() {
+        return handlerErrors.get();
+    }
+
+    private void rejected() {
+        if (!hasCapacity()) {
+            capacityExhausted();
+        }
+    }
+
+    private static RingBuffer[] createRings(int shards, int capacityPerShard) {
+        RingBuffer[] rings = new RingBuffer[shards];
+        for (int i = 0; i < shards; i++) {
+            rings[i] = new RingBuffer(capacityPerShard, ProducerType.MULTI, new BlockingWaitStrategy());
+        }
+        return rings;
+    }
+
+    private class Worker implements Runnable {
+
+        private final int shard;
+        private final List<LogMessage> batch = new ArrayList<LogMessage>(batchSize);
+
+        Worker(int shard) {
+            this.shard = shard;
+        }
+
+        public void run() {
+            RingBuffer ring = shards[shard];
+            while (running) {
+                try {
+                    if (ring.drainTo(batch, batchSize, POLL_MILLIS, TimeUnit.MILLISECONDS) == 0) {
+                        continue;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (isCapacityExhausted()) {
+                    // This shard just made room.
+                    capacityRestored();
+                }
+
+                try {
+                    handler.handle(shard, batch);
+                } catch (RuntimeException e) {
+                    handlerErrors.incrementAndGet();
+                    handlerErrorLog.warn("ShardHandler failed on shard " + shard + ", the batch is dropped.", e);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,396 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import org.graylog2.plugin.logmessage.LogMessage;
+import org.graylog2.plugin.logmessage.LogMessageCodec;
+import org.graylog2.plugin.streams.Stream;
+
+/**
+ * A RingBuffer that spills to disk instead of refusing messages. As long as the ring
+ * has room, inserts go straight into it. Once it is full, this and all following
+ * inserts are encoded with {@link LogMessageCodec} and appended to a
+ * {@link SegmentJournal}, so nothing can overtake the spilled messages. A replay
+ * thread reads the journal in large batches and inserts them back into the ring as
+ * consumers make room. When the journal is empty, inserts go directly to the ring again.
+ *
+ * Messages are only refused if the journal hits its size limit or fails to write.
+ * Journal records that cannot be decoded, for example from a newer version or cut
+ * short, are logged, counted and skipped.
+ *
+ * Consumers read through the methods of this class or directly from
+ * {@link #getRingBuffer()}. Spilled messages come back as new LogMessage objects and
+ * get their streams from the given map by stream ID. Pass a map that is kept up to
+ * date, like the one of GraylogServer.getEnabledStreams().
+ *
+ * The consumer side of the metrics (dequeues and queue time) is recorded by the ring,
+ * see getRingBuffer().getMetrics().
+ */
+public class SpillingBuffer extends AbstractBuffer implements ConsumableBuffer {
+
+    private static final int DEFAULT_REPLAY_BATCH_SIZE = 1024;
+    private static final long REPLAY_WAIT_MILLIS = 100;
+
+    private final RingBuffer ring;
+    private final SegmentJournal journal;
+    private final Map<String, Stream> streams;
+    private final int replayBatchSize;
+
+    // Guards spilling, the journal appends and the codec used by them.
+    private final ReentrantLock spillLock = new ReentrantLock();
+    private final Condition spilled = spillLock.newCondition();
+    private final LogMessageCodec encoder = new LogMessageCodec();
+    private volatile boolean spilling = false;
+
+    private final Thread replayThread;
+    private volatile boolean running = false;
+    private volatile IOException lastError;
+    // Only written by the replay thread.
+    private volatile long corruptRecords = 0;
+    private final RateLimitedLogger replayErrorLog = new RateLimitedLogger(SpillingBuffer.class);
+
+    public SpillingBuffer(RingBuffer ring, SegmentJournal journal, Map<String, Stream> streams) {
+        this(ring, journal, streams, DEFAULT_REPLAY_BATCH_SIZE);
+    }
+
+    public SpillingBuffer(RingBuffer ring, SegmentJournal journal, Map<String, Stream> streams, int replayBatchSize) {
+        this.ring = ring;
+        this.journal = journal;
+        this.streams = streams;
+        this.replayBatchSize = replayBatchSize;
+
+        this.replayThread = new Thread(new Replayer(), "spilling-buffer-replay-" + journal.getDirectory().getName());
+        this.replayThread.setDaemon(true);
+
+        // Messages left over from the last run go first.
+        this.spilling = !journal.isEmpty();
+    }
+
+    /**
+     * Starts the replay thread.
+     */
+    public void start() {
+        running = true;
+        replayThread.start();
+    }
+
+    /**
+     * Stops the replay thread and closes the journal. Messages still in the journal
+     * stay on disk and are replayed by the next SpillingBuffer on the same journal directory.
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        replayThread.interrupt();
+        replayThread.join();
+        journal.close();
+    }
+
+    public void insert(LogMessage message) throws BufferOutOfCapacityException {
+        if (tryInsert(message) != InsertStatus.ACCEPTED) {
+            throw new BufferOutOfCapacityException();
+        }
+    }
+
+    @Override
+    public InsertStatus tryInsert(LogMessage message) {
+        if (!spilling && ring.tryInsert(message) == InsertStatus.ACCEPTED) {
+            getStatistics().recordEnqueued(1);
+            return InsertStatus.ACCEPTED;
+        }
+
+        spillLock.lock();
+        try {
+            // The replay thread may have switched back in the meantime.
+            if (!spilling && ring.tryInsert(message) == InsertStatus.ACCEPTED) {
+                getStatistics().recordEnqueued(1);
+                return InsertStatus.ACCEPTED;
+            }
+
+            spilling = true;
+            if (!spill(message)) {
+                getStatistics().recordRejected(1);
+                capacityExhausted();
+                return InsertStatus.FULL;
+            }
+
+            getStatistics().recordEnqueued(1);
+            spilled.signal();
+            return InsertStatus.ACCEPTED;
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    @Override
+    public int insertAll(List<LogMessage> messages) {
+        int accepted = 0;
+        if (!spilling) {
+            accepted = ring.insertAll(messages);
+            if (accepted == messages.size()) {
+                getStatistics().recordEnqueued(accepted);
+                return accepted;
+            }
+        }
+
+        spillLock.lock();
+        try {
+            if (!spilling && accepted == 0) {
+                accepted = ring.insertAll(messages);
+            }
+
+            if (accepted < messages.size()) {
+                spilling = true;
+                while (accepted < messages.size() && spill(messages.get(accepted))) {
+                    accepted++;
+                }
+                spilled.signal();
+            }
+        } finally {
+            spillLock.unlock();
+        }
+
+        getStatistics().recordEnqueued(accepted);
+        if (accepted < messages.size()) {
+            getStatistics().recordRejected(messages.size() - accepted);
+            capacityExhausted();
+        }
+
+        return accepted;
+    }
+
+    /**
+     * @return true unless the ring is full and the journal is at its size limit
+     */
+    public boolean hasCapacity() {
+        return ring.hasCapacity() || journal.hasCapacity();
+    }
+
+    public LogMessage poll() {
+        return ring.poll();
+    }
+
+    public LogMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return ring.poll(timeout, unit);
+    }
+
+    public LogMessage take() throws InterruptedException {
+        return ring.take();
+    }
+
+    public int drainTo(Collection<? super LogMessage> target, int maxMessages) {
+        return ring.drainTo(target, maxMessages);
+    }
+
+    public int drainTo(Collection<? super LogMessage> target, int maxMessages, long timeout, TimeUnit unit) throws InterruptedException {
+        return ring.drainTo(target, maxMessages, timeout, unit);
+    }
+
+    /**
+     * Messages in the ring plus messages in the journal, capped at Integer.MAX_VALUE.
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, ring.size() + journal.getRecordCount());
+    }
+
+    @Override
+    public int getCapacity() {
+        return ring.getCapacity();
+    }
+
+    public boolean isSpilling() {
+        return spilling;
+    }
+
+    public RingBuffer getRingBuffer() {
+        return ring;
+    }
+
+    public SegmentJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return The last error of writing to or reading from the journal, or null.
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * @return Number of journal records that could not be decoded and were skipped.
+     */
+    public long getCorruptRecordCount() {
+        return corruptRecords;
+    }
+
+    // Caller holds spillLock.
+    private boolean spill(LogMessage message) {
+        try {
+            int length = encoder.encode(message);
+            if (!journal.append(encoder.getBuffer(), 0, length)) {
+                return false;
+            }
+        } catch (IOException e) {
+            lastError = e;
+            return false;
+        }
+
+        return true;
+    }
+
+    private class Replayer implements Runnable {
+
+        private final LogMessageCodec decoder = new LogMessageCodec();
+        private final List<LogMessage> batch = new ArrayList<LogMessage>(replayBatchSize);
+
+        // Records read before the batch that are in the ring or were skipped, but not committed yet.
+        private int done = 0;
+        // A record that cannot be decoded was read right after the batch.
+        private boolean corruptAfterBatch = false;
+
+        public void run() {
+            while (running) {
+                try {
+                    commitDone();
+
+                    if (!readBatch()) {
+                        continue;
+                    }
+
+                    insertBatch();
+
+                    if (ring.hasCapacity()) {
+                        capacityRestored();
+                    }
+                } catch (InterruptedException e) {
+                    // stop() was called. What didn't make it into the ring is still in the journal.
+                    return;
+                } catch (IOException e) {
+                    lastError = e;
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(REPLAY_WAIT_MILLIS));
+                } catch (RuntimeException e) {
+                    replayErrorLog.warn("Replaying the journal in " + journal.getDirectory() + " failed.", e);
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(REPLAY_WAIT_MILLIS));
+                }
+            }
+        }
+
+        /**
+         * Moves the batch into the ring and commits in the journal what got there,
+         * also if interrupted on the way.
+         */
+        private void insertBatch() throws IOException, InterruptedException {
+            int inserted = 0;
+            try {
+                while (inserted < batch.size()) {
+                    inserted += ring.insertAll(inserted == 0 ? batch : batch.subList(inserted, batch.size()));
+                    if (inserted < batch.size() && ring.insert(batch.get(inserted), REPLAY_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        inserted++;
+                    }
+                }
+            } finally {
+                batch.subList(0, inserted).clear();
+                done += inserted;
+                if (batch.isEmpty() && corruptAfterBatch) {
+                    done++;
+                    corruptAfterBatch = false;
+                }
+                commitDone();
+            }
+        }
+
+        /**
+         * Reads up to replayBatchSize messages from the journal, without committing
+         * them. Records that cannot be decoded are skipped. If the journal is
+         * empty, switches inserts back to the ring or waits for the next spill.
+         *
+         * @return true if the batch has messages
+         */
+        private boolean readBatch() throws IOException, InterruptedException {
+            ByteBuffer record;
+            while (batch.size() < replayBatchSize && !corruptAfterBatch && (record = journal.read()) != null) {
+                LogMessage message;
+                try {
+                    message = decoder.decode(record, new LogMessage(), streams);
+                } catch (RuntimeException e) {
+                    skipped(e);
+                    // Commits go in read order, so it can only be committed once the batch before it is.
+                    if (batch.isEmpty()) {
+                        done++;
+                        commitDone();
+                    } else {
+                        corruptAfterBatch = true;
+                    }
+                    continue;
+                }
+                batch.add(message);
+            }
+
+            if (!batch.isEmpty()) {
+                return true;
+            }
+
+            spillLock.lock();
+            try {
+                if (journal.isEmpty()) {
+                    if (spilling) {
+                        // Everything spilled is in the ring. New inserts can go there directly.
+                        spilling = false;
+                    } else {
+                        spilled.await(REPLAY_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+                }
+            } finally {
+                spillLock.unlock();
+            }
+
+            return false;
+        }
+
+        // Only forgets what was committed, a failed commit is tried again.
+        private void commitDone() throws IOException {
+            if (done > 0) {
+                journal.commit(done);
+                done = 0;
+            }
+        }
+
+        private void skipped(RuntimeException e) {
+            corruptRecords++;
+            replayErrorLog.warn("Skipping a record of the journal in " + journal.getDirectory()
+                    + " that cannot be decoded.", e);
+        }
+
+    }
+
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+/**
+ * How threads wait for a {@link RingBuffer}: consumers for messages, producers
+ * for room. Trades latency against CPU usage.
+ *
+ * <ul>
+ * <li>{@link BusySpinWaitStrategy}: lowest latency, burns a core per waiting thread.</li>
+ * <li>{@link YieldingWaitStrategy}: spins, then yields. Low latency if there are spare cores.</li>
+ * <li>{@link ParkingWaitStrategy}: spins, then parks for a fixed time. Little CPU per thread, latency up
+ * to the park time, but every idle thread keeps waking up.</li>
+ * <li>{@link BlockingWaitStrategy}: sleeps on a lock condition and is woken up. Least CPU, slowest handoff.
+ * The default of the buffers.</li>
+ * </ul>
+ *
+ * Strategies can have state, so every buffer gets its own instance.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Wait until the condition is satisfied or the deadline passed.
+     *
+     * @param deadline Deadline in terms of System.nanoTime()
+     * @return true if the condition is satisfied, false if the deadline passed first
+     */
+    public boolean await(WaitCondition condition, long deadline) throws InterruptedException;
+
+    /**
+     * Called by the buffer whenever something was published or freed.
+     */
+    public void signalAll();
+
+}
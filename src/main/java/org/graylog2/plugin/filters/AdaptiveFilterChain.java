@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.filters;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.graylog2.plugin.GraylogServer;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * A filter chain that reorders its filters by what they cost and drop. Every
+ * filter is measured like an {@link InstrumentedMessageFilter}. After a number
+ * of batches the chain orders the filters by mean nanoseconds per message
+ * divided by drop ratio, cheapest first, which puts cheap filters that drop a
+ * lot in front of expensive ones that everything has to pass otherwise. Filters
+ * that dropped nothing go last. Only what happened since the last reordering
+ * counts.
+ *
+ * Filters only move where it is safe:
+ * <ul>
+ *   <li>Filters that conflict keep their chain order, see {@link FieldAwareFilter}.
+ *       Filters that do not declare their fields therefore stay in place.</li>
+ *   <li>{@link OrderedMessageFilter} constraints are kept.</li>
+ * </ul>
+ *
+ * The drop ratio of a filter is measured on what earlier filters let through,
+ * so it shifts somewhat when the order changes.
+ */
+public class AdaptiveFilterChain implements BatchMessageFilter {
+
+    private static final int DEFAULT_REORDER_INTERVAL = 1024;
+
+    private final String name;
+    private final List<InstrumentedMessageFilter> filters;
+    private final boolean[][] before;
+    private final int reorderInterval;
+
+    private volatile List<InstrumentedMessageFilter> order;
+    private final Window[] windows;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicBoolean reordering = new AtomicBoolean(false);
+
+    public AdaptiveFilterChain(List<? extends MessageFilter> filters) {
+        this("AdaptiveFilterChain", filters, new ConcurrentHashMap<String, FilterMetrics>(), DEFAULT_REORDER_INTERVAL);
+    }
+
+    /**
+     * @param registry Where to register the metrics of the filters, see {@link InstrumentedMessageFilter#wrap}
+     * @param reorderInterval Number of filter calls between reorderings
+     * @throws IllegalArgumentException if the ordering constraints contain a cycle
+     */
+    public AdaptiveFilterChain(String name, List<? extends MessageFilter> filters, ConcurrentMap<String, FilterMetrics> registry, int reorderInterval) {
+        if (reorderInterval < 1) {
+            throw new IllegalArgumentException("Reorder interval must be at least 1.");
+        }
+
+        this.name = name;
+        this.reorderInterval = reorderInterval;
+
+        List<InstrumentedMessageFilter> wrapped = new ArrayList<InstrumentedMessageFilter>(filters.size());
+        for (MessageFilter filter : filters) {
+            wrapped.add(InstrumentedMessageFilter.wrap(filter, registry));
+        }
+        this.filters = Collections.unmodifiableList(wrapped);
+        this.before = FilterDependencies.precedence(wrapped);
+
+        this.windows = new Window[wrapped.size()];
+        double[] rank = new double[wrapped.size()];
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = new Window(wrapped.get(i).getMetrics());
+            rank[i] = i;
+        }
+
+        // Chain order as far as the explicit constraints allow.
+        this.order = ordered(FilterDependencies.order(before, rank));
+    }
+
+    public void filter(List<LogMessage> messages, BitSet dropped, GraylogServer server) {
+        List<InstrumentedMessageFilter> current = order;
+        int size = messages.size();
+        for (int i = 0; i < current.size(); i++) {
+            if (dropped.nextClearBit(0) >= size) {
+                break;
+            }
+
+            current.get(i).filter(messages, dropped, server);
+        }
+
+        called();
+    }
+
+    public boolean filter(LogMessage msg, GraylogServer server) {
+        List<InstrumentedMessageFilter> current = order;
+        boolean drop = false;
+        for (int i = 0; i < current.size() && !drop; i++) {
+            drop = current.get(i).filter(msg, server);
+        }
+
+        called();
+        return drop;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The filters in the order they were given.
+     */
+    public List<InstrumentedMessageFilter> getFilters() {
+        return filters;
+    }
+
+    /**
+     * @return The filters in the order they currently run.
+     */
+    public List<InstrumentedMessageFilter> getOrder() {
+        return order;
+    }
+
+    /**
+     * Orders the filters by what was measured since the last reordering. Filters
+     * without new measurements keep their last rank.
+     */
+    public void reorder() {
+        if (!reordering.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            double[] rank = new double[windows.length];
+            for (int i = 0; i < windows.length; i++) {
+                rank[i] = windows[i].advance();
+            }
+            order = ordered(FilterDependencies.order(before, rank));
+        } finally {
+            reordering.set(false);
+        }
+    }
+
+    private void called() {
+        if (calls.incrementAndGet() % reorderInterval == 0) {
+            reorder();
+        }
+    }
+
+    private List<InstrumentedMessageFilter> ordered(int[] indexes) {
+        List<InstrumentedMessageFilter> result = new ArrayList<InstrumentedMessageFilter>(indexes.length);
+        for (int index : indexes) {
+            result.add(filters.get(index));
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    // Counter readings of one filter at the last reordering. Only used under the reordering flag.
+    private static class Window {
+
+        private final FilterMetrics metrics;
+        private long invocations;
+        private long drops;
+        private long latencySum;
+        private long latencyCount;
+        private double rank = 0;
+
+        Window(FilterMetrics metrics) {
+            this.metrics = metrics;
+            this.invocations = metrics.getInvocationCount();
+            this.drops = metrics.getDropCount();
+            this.latencySum = metrics.getTimedNanos();
+            this.latencyCount = metrics.getTimedMessageCount();
+        }
+
+        // Starts a new window and returns the rank for the one that ended.
+        double advance() {
+            long newInvocations = metrics.getInvocationCount();
+            long newDrops = metrics.getDropCount();
+            long newLatencySum = metrics.getTimedNanos();
+            long newLatencyCount = metrics.getTimedMessageCount();
+
+            long invoked = newInvocations - invocations;
+            long sampled = newLatencyCount - latencyCount;
+            if (invoked > 0 && sampled > 0) {
+                double cost = (double) (newLatencySum - latencySum) / sampled;
+                double dropRatio = (double) (newDrops - drops) / invoked;
+                rank = dropRatio > 0 ? cost / dropRatio : Double.POSITIVE_INFINITY;
+            }
+
+            invocations = newInvocations;
+            drops = newDrops;
+            latencySum = newLatencySum;
+            latencyCount = newLatencyCount;
+            return rank;
+        }
+
+    }
+
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.filters;
+
+import java.util.BitSet;
+import java.util.List;
+import org.graylog2.plugin.GraylogServer;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * A MessageFilter that processes a whole batch per call. Saves the dispatch per
+ * message and keeps the filter's code and data hot in the cache while it runs over
+ * the batch. Single message filters are adapted with {@link SingleMessageFilterAdapter}.
+ */
+public interface BatchMessageFilter extends MessageFilter {
+
+    /**
+     * Process a batch of messages.
+     *
+     * Messages whose index is already set in dropped were dropped by an earlier
+     * filter and must be skipped. Set the index of every message that should not
+     * further be handled. Never clear bits.
+     *
+     * Same borrowing rules as {@link MessageFilter#filter(LogMessage, GraylogServer)}.
+     */
+    public void filter(List<LogMessage> messages, BitSet dropped, GraylogServer server);
+
+}
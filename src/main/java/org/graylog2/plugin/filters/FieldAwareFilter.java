@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.filters;
+
+import java.util.Set;
+
+/**
+ * A MessageFilter that declares which message fields it reads and writes, so
+ * that a {@link ParallelFilterChain} can run it at the same time as filters it
+ * does not conflict with.
+ *
+ * Fields are named like in the message document: message, full_message, file,
+ * line, host, facility, level, created_at and streams, additional fields with
+ * their leading underscore. A filter that drops messages but changes nothing
+ * has no write fields.
+ *
+ * The sets must not change while the filter is in a chain.
+ */
+public interface FieldAwareFilter extends MessageFilter {
+
+    /**
+     * @return Names of the fields this filter reads, never null.
+     */
+    public Set<String> getReadFields();
+
+    /**
+     * @return Names of the fields this filter writes, never null.
+     */
+    public Set<String> getWriteFields();
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.filters;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import org.graylog2.plugin.GraylogServer;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * Runs filters over a batch one after the other: the first filter over the whole
+ * batch, then the next, instead of all filters per message. Stops as soon as every
+ * message of the batch was dropped.
+ *
+ * A chain is a BatchMessageFilter itself, so chains can be nested and decorated.
+ */
+public class FilterChain implements BatchMessageFilter {
+
+    private final String name;
+    private final List<BatchMessageFilter> filters;
+
+    public FilterChain(List<? extends MessageFilter> filters) {
+        this("FilterChain", filters);
+    }
+
+    public FilterChain(String name, List<? extends MessageFilter> filters) {
+        this.name = name;
+
+        List<BatchMessageFilter> adapted = new ArrayList<BatchMessageFilter>(filters.size());
+        for (MessageFilter filter : filters) {
+            adapted.add(SingleMessageFilterAdapter.adapt(filter));
+        }
+        this.filters = Collections.unmodifiableList(adapted);
+    }
+
+    public void filter(List<LogMessage> messages, BitSet dropped, GraylogServer server) {
+        int size = messages.size();
+        for (int i = 0; i < filters.size(); i++) {
+            if (dropped.nextClearBit(0) >= size) {
+                return;
+            }
+
+            filters.get(i).filter(messages, dropped, server);
+        }
+    }
+
+    public boolean filter(LogMessage msg, GraylogServer server) {
+        for (int i = 0; i < filters.size(); i++) {
+            if (filters.get(i).filter(msg, server)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The filters of this chain in order, single message filters wrapped in adapters.
+     */
+    public List<BatchMessageFilter> getFilters() {
+        return filters;
+    }
+
+    /**
+     * Builds a chain that records {@link FilterMetrics} for every filter in the
+     * registry, keyed by filter name. See {@link InstrumentedMessageFilter}.
+     */
+    public static FilterChain instrumented(String name, List<? extends MessageFilter> filters, ConcurrentMap<String, FilterMetrics> registry) {
+        List<BatchMessageFilter> wrapped = new ArrayList<BatchMessageFilter>(filters.size());
+        for (MessageFilter filter : filters) {
+            wrapped.add(InstrumentedMessageFilter.wrap(filter, registry));
+        }
+
+        return new FilterChain(name, wrapped);
+    }
+
+    /**
+     * Removes the dropped messages from the list, keeping the order of the others.
+     */
+    public static void removeDropped(List<LogMessage> messages, BitSet dropped) {
+        int size = messages.size();
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (!dropped.get(i)) {
+                if (kept != i) {
+                    messages.set(kept, messages.get(i));
+                }
+                kept++;
+            }
+        }
+
+        messages.subList(kept, size).clear();
+    }
+
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.filters;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which filters may run at the same time or in another order, based on
+ * the fields declared by {@link FieldAwareFilter}s.
+ */
+final class FilterDependencies {
+
+    private FilterDependencies() { }
+
+    /**
+     * @return The filter of the given type behind adapters and instrumentation, or null if there is none.
+     */
+    static <T> T unwrap(MessageFilter filter, Class<T> type) {
+        while (true) {
+            if (type.isInstance(filter)) {
+                return type.cast(filter);
+            } else if (filter instanceof InstrumentedMessageFilter) {
+                filter = ((InstrumentedMessageFilter) filter).getFilter();
+            } else if (filter instanceof SingleMessageFilterAdapter) {
+                filter = ((SingleMessageFilterAdapter) filter).getFilter();
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Two filters conflict if one writes a field the other reads or writes. All
+     * additional fields of a message share one storage, so writing any of them
+     * conflicts with every access to any other. Filters that declare nothing
+     * conflict with everything.
+     */
+    static boolean conflict(MessageFilter a, MessageFilter b) {
+        FieldAwareFilter fa = unwrap(a, FieldAwareFilter.class);
+        FieldAwareFilter fb = unwrap(b, FieldAwareFilter.class);
+        if (fa == null || fb == null) {
+            return true;
+        }
+
+        return writesInto(fa.getWriteFields(), fb) || writesInto(fb.getWriteFields(), fa);
+    }
+
+    /**
+     * Which filter has to run before which: filters in conflict keep their chain
+     * order, and explicit {@link OrderedMessageFilter} constraints apply.
+     *
+     * @return before[a][b] is true if filter a has to run before filter b
+     */
+    static boolean[][] precedence(List<? extends MessageFilter> filters) {
+        int n = filters.size();
+        boolean[][] before = new boolean[n][n];
+        for (int a = 0; a < n; a++) {
+            for (int b = a + 1; b < n; b++) {
+                if (conflict(filters.get(a), filters.get(b))) {
+                    before[a][b] = true;
+                }
+            }
+        }
+
+        for (int a = 0; a < n; a++) {
+            OrderedMessageFilter ordered = unwrap(filters.get(a), OrderedMessageFilter.class);
+            if (ordered == null) {
+                continue;
+            }
+
+            Set<String> runAfter = ordered.getRunAfter();
+            Set<String> runBefore = ordered.getRunBefore();
+            for (int b = 0; b < n; b++) {
+                if (b == a) {
+                    continue;
+                }
+
+                String name = filters.get(b).getName();
+                if (runAfter.contains(name)) {
+                    before[b][a] = true;
+                }
+                if (runBefore.contains(name)) {
+                    before[a][b] = true;
+                }
+            }
+        }
+
+        return before;
+    }
+
+    /**
+     * Orders the filters by rank, lowest first, as far as the precedence allows:
+     * always picks the lowest ranked filter whose predecessors are all placed.
+     * Equal ranks keep their chain order.
+     *
+     * @return Indexes of the filters in order
+     * @throws IllegalArgumentException if the precedence has a cycle
+     */
+    static int[] order(boolean[][] before, double[] rank) {
+        int n = rank.length;
+        int[] order = new int[n];
+        boolean[] placed = new boolean[n];
+        for (int k = 0; k < n; k++) {
+            int best = -1;
+            for (int b = 0; b < n; b++) {
+                if (placed[b] || (best >= 0 && rank[b] >= rank[best])) {
+                    continue;
+                }
+
+                boolean ready = true;
+                for (int a = 0; a < n && ready; a++) {
+                    ready = placed[a] || !before[a][b];
+                }
+                if (ready) {
+                    best = b;
+                }
+            }
+
+            if (best < 0) {
+                throw new IllegalArgumentException("Filter ordering constraints contain a cycle.");
+            }
+            placed[best] = true;
+            order[k] = best;
+        }
+
+        return order;
+    }
+
+    private static boolean writesInto(Set<String> writes, FieldAwareFilter other) {
+        if (writes.isEmpty()) {
+            return false;
+        }
+
+        boolean additionalWrite = containsAdditional(writes);
+        return touches(writes, additionalWrite, other.getReadFields())
+                || touches(writes, additionalWrite, other.getWriteFields());
+    }
+
+    private static boolean touches(Set<String> writes, boolean additionalWrite, Set<String> fields) {
+        for (String field : fields) {
+            if (writes.contains(field) || (additionalWrite && isAdditional(field))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean containsAdditional(Set<String> fields) {
+        for (String field : fields) {
+            if (isAdditional(field)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isAdditional(String field) {
+        return field.startsWith("_");
+    }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.filters;
+
+import org.graylog2.plugin.metrics.LatencyHistogram;
+import org.graylog2.plugin.metrics.StripedCounter;
+
+/**
+ * What a message filter did: how many messages it saw, how many it dropped and
+ * how long it took. The latency is sampled, see {@link InstrumentedMessageFilter}.
+ * Single message calls and batch calls are timed into separate histograms, one
+ * holds nanoseconds per message, the other nanoseconds per batch.
+ */
+public class FilterMetrics {
+
+    private final String filterName;
+    private final StripedCounter invocations = new StripedCounter();
+    private final StripedCounter drops = new StripedCounter();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+    private final StripedCounter timedBatchMessages = new StripedCounter();
+
+    public FilterMetrics(String filterName) {
+        this.filterName = filterName;
+    }
+
+    public void recordInvocations(int messages, int dropped) {
+        invocations.add(messages);
+        if (dropped > 0) {
+            drops.add(dropped);
+        }
+    }
+
+    /**
+     * @param nanos Time the filter took for one message
+     */
+    public void recordLatency(long nanos) {
+        latency.record(nanos);
+    }
+
+    /**
+     * @param nanos    Time the filter took for the whole batch
+     * @param messages Number of messages in the batch that were not dropped before
+     */
+    public void recordBatchLatency(long nanos, int messages) {
+        batchLatency.record(nanos);
+        timedBatchMessages.add(messages);
+    }
+
+    public String getFilterName() {
+        return filterName;
+    }
+
+    /**
+     * @return Number of messages the filter processed.
+     */
+    public long getInvocationCount() {
+        return invocations.sum();
+    }
+
+    public long getDropCount() {
+        return drops.sum();
+    }
+
+    /**
+     * @return Share of processed messages that were dropped, between 0 and 1.
+     */
+    public double getDropRatio() {
+        long count = getInvocationCount();
+        return count == 0 ? 0 : (double) getDropCount() / count;
+    }
+
+    /**
+     * @return Sampled nanoseconds per message of single message calls.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return Sampled nanoseconds per batch call.
+     */
+    public LatencyHistogram getBatchLatency() {
+        return batchLatency;
+    }
+
+    /**
+     * @return Nanoseconds of all timed calls, single message and batch.
+     */
+    public long getTimedNanos() {
+        return latency.getSum() + batchLatency.getSum();
+    }
+
+    /**
+     * @return Number of messages in all timed calls, single message and batch.
+     *         Together with {@link #getTimedNanos()} the mean cost per message.
+     */
+    public long getTimedMessageCount() {
+        return latency.getCount() + timedBatchMessages.sum();
+    }
+
+    @Override
+    public String toString() {
+        return filterName + ": invocations=" + getInvocationCount()
+                + " drops=" + getDropCount()
+                + " meanNanos=" + Math.round(latency.getMean())
+                + " p99Nanos=" + latency.getPercentile(0.99)
+                + " meanBatchNanos=" + Math.round(batchLatency.getMean())
+                + " p99BatchNanos=" + batchLatency.getPercentile(0.99);
+    }
+
+}
@@ -34,6 +34,9 @@ public interface MessageFilter {
     /**
      * Process a LogMessage
      *
+     * The message is only borrowed for the duration of the call. Do not keep a
+     * reference to it: messages may be pooled and reset once they are processed.
+     *
      * @return true if this message should not further be handled (for example for blacklisting purposes)
      */
     public boolean filter(LogMessage msg, GraylogServer server);
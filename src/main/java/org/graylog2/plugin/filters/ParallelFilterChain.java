@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.filters;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.graylog2.plugin.GraylogServer;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * A filter chain that runs independent filters at the same time. Neighbouring
+ * filters in the chain are grouped into stages as long as none of them conflicts
+ * with another one of the stage, see {@link FieldAwareFilter}, or has to run
+ * after another one of the stage, see {@link OrderedMessageFilter}. Filters that
+ * do not declare their fields get a stage of their own. Stages run one after the
+ * other in chain order. Where {@link OrderedMessageFilter} constraints contradict
+ * the chain order, filters wait for the ones they have to run after.
+ *
+ * The filters of a stage each run over the whole batch on a ForkJoinPool, one
+ * task per filter, and their drops are merged after the stage. So a filter may
+ * still see a message that another filter of the same stage drops. Messages are
+ * fully decoded and get their ID before a stage runs in parallel, because lazy
+ * decoding and ID generation write to the message. Batches smaller than the
+ * minimum run sequentially.
+ *
+ * A filter of a parallel stage runs on the calling thread or on a pool thread,
+ * but never on two threads for the same batch.
+ */
+public class ParallelFilterChain implements BatchMessageFilter {
+
+    private static final int DEFAULT_MIN_PARALLEL_BATCH = 64;
+
+    private final String name;
+    private final List<BatchMessageFilter> filters;
+    private final List<List<BatchMessageFilter>> stages;
+    private final ForkJoinPool pool;
+    private final int minParallelBatch;
+
+    public ParallelFilterChain(List<? extends MessageFilter> filters) {
+        this("ParallelFilterChain", filters, DefaultPool.POOL, DEFAULT_MIN_PARALLEL_BATCH);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the ordering constraints contain a cycle
+     */
+    public ParallelFilterChain(String name, List<? extends MessageFilter> filters, ForkJoinPool pool, int minParallelBatch) {
+        this.name = name;
+        this.pool = pool;
+        this.minParallelBatch = minParallelBatch;
+
+        List<BatchMessageFilter> adapted = new ArrayList<BatchMessageFilter>(filters.size());
+        for (MessageFilter filter : filters) {
+            adapted.add(SingleMessageFilterAdapter.adapt(filter));
+        }
+
+        // Chain order as far as the explicit constraints allow.
+        double[] rank = new double[adapted.size()];
+        for (int i = 0; i < rank.length; i++) {
+            rank[i] = i;
+        }
+        List<BatchMessageFilter> ordered = new ArrayList<BatchMessageFilter>(adapted.size());
+        for (int index : FilterDependencies.order(FilterDependencies.precedence(adapted), rank)) {
+            ordered.add(adapted.get(index));
+        }
+
+        this.filters = Collections.unmodifiableList(ordered);
+        this.stages = buildStages(ordered);
+    }
+
+    public void filter(List<LogMessage> messages, BitSet dropped, GraylogServer server) {
+        int size = messages.size();
+        for (int i = 0; i < stages.size(); i++) {
+            if (dropped.nextClearBit(0) >= size) {
+                return;
+            }
+
+            List<BatchMessageFilter> stage = stages.get(i);
+            if (stage.size() == 1 || size - dropped.cardinality() < minParallelBatch) {
+                for (int j = 0; j < stage.size(); j++) {
+                    stage.get(j).filter(messages, dropped, server);
+                }
+            } else {
+                runParallel(stage, messages, dropped, server);
+            }
+        }
+    }
+
+    public boolean filter(LogMessage msg, GraylogServer server) {
+        for (int i = 0; i < filters.size(); i++) {
+            if (filters.get(i).filter(msg, server)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The filters of this chain in the order they run, single message filters wrapped in adapters.
+     */
+    public List<BatchMessageFilter> getFilters() {
+        return filters;
+    }
+
+    /**
+     * @return The filters grouped into the stages that run one after the other.
+     */
+    public List<List<BatchMessageFilter>> getStages() {
+        return stages;
+    }
+
+    private void runParallel(List<BatchMessageFilter> stage, List<LogMessage> messages, BitSet dropped, GraylogServer server) {
+        int size = messages.size();
+        for (int i = dropped.nextClearBit(0); i < size; i = dropped.nextClearBit(i + 1)) {
+            LogMessage message = messages.get(i);
+            message.decode();
+            message.getId();
+        }
+
+        // The first filter runs on the calling thread, the others are forked into the pool.
+        FilterTask[] tasks = new FilterTask[stage.size()];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new FilterTask(stage.get(i), messages, (BitSet) dropped.clone(), server);
+        }
+        for (int i = 1; i < tasks.length; i++) {
+            pool.execute(tasks[i]);
+        }
+
+        RuntimeException failure = null;
+        try {
+            tasks[0].compute();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        for (int i = 1; i < tasks.length; i++) {
+            try {
+                tasks[i].join();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        for (int i = 0; i < tasks.length; i++) {
+            dropped.or(tasks[i].dropped);
+        }
+    }
+
+    /**
+     * @param filters In an order that satisfies their precedence
+     */
+    static List<List<BatchMessageFilter>> buildStages(List<BatchMessageFilter> filters) {
+        boolean[][] before = FilterDependencies.precedence(filters);
+
+        List<List<BatchMessageFilter>> stages = new ArrayList<List<BatchMessageFilter>>();
+        List<BatchMessageFilter> current = null;
+        int stageStart = 0;
+        for (int i = 0; i < filters.size(); i++) {
+            if (current == null || !fitsInto(before, stageStart, i)) {
+                if (current != null) {
+                    stages.add(Collections.unmodifiableList(current));
+                }
+                current = new ArrayList<BatchMessageFilter>();
+                stageStart = i;
+            }
+            current.add(filters.get(i));
+        }
+        if (current != null) {
+            stages.add(Collections.unmodifiableList(current));
+        }
+
+        return Collections.unmodifiableList(stages);
+    }
+
+    // Covers conflicts as well as explicit constraints, see FilterDependencies.precedence().
+    private static boolean fitsInto(boolean[][] before, int stageStart, int filter) {
+        for (int member = stageStart; member < filter; member++) {
+            if (before[member][filter] || before[filter][member]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static class FilterTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BatchMessageFilter filter;
+        private final List<LogMessage> messages;
+        private final BitSet dropped;
+        private final GraylogServer server;
+
+        FilterTask(BatchMessageFilter filter, List<LogMessage> messages, BitSet dropped, GraylogServer server) {
+            this.filter = filter;
+            this.messages = messages;
+            this.dropped = dropped;
+            this.server = server;
+        }
+
+        @Override
+        protected void compute() {
+            filter.filter(messages, dropped, server);
+        }
+
+    }
+
+    // Created on first use only.
+    private static class DefaultPool {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.filters;
+
+import java.util.BitSet;
+import java.util.List;
+import org.graylog2.plugin.GraylogServer;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * Runs a single message filter over a batch, message by message.
+ */
+public class SingleMessageFilterAdapter implements BatchMessageFilter {
+
+    private final MessageFilter filter;
+
+    public SingleMessageFilterAdapter(MessageFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @return The filter itself if it handles batches already, otherwise an adapter
+     */
+    public static BatchMessageFilter adapt(MessageFilter filter) {
+        if (filter instanceof BatchMessageFilter) {
+            return (BatchMessageFilter) filter;
+        }
+
+        return new SingleMessageFilterAdapter(filter);
+    }
+
+    public void filter(List<LogMessage> messages, BitSet dropped, GraylogServer server) {
+        int size = messages.size();
+        for (int i = dropped.nextClearBit(0); i < size; i = dropped.nextClearBit(i + 1)) {
+            if (filter.filter(messages.get(i), server)) {
+                dropped.set(i);
+            }
+        }
+    }
+
+    public boolean filter(LogMessage msg, GraylogServer server) {
+        return filter.filter(msg, server);
+    }
+
+    public String getName() {
+        return filter.getName();
+    }
+
+    public MessageFilter getFilter() {
+        return filter;
+    }
+
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.inputs;
+
+import java.util.Map;
+import org.graylog2.plugin.GraylogServer;
+
+/**
+ * A MessageInput that does its network I/O on event loops shared by all inputs
+ * instead of starting its own threads. Servers that support it call this
+ * initialize() instead of the one of MessageInput. The input registers its
+ * channels with loops of the group and gets its buffers from the allocator of
+ * the group.
+ *
+ * Handlers run on the I/O threads, so they must never block. Decode and insert
+ * with tryInsert() and drop or count what doesn't fit.
+ */
+public interface EventLoopMessageInput extends MessageInput {
+
+    void initialize(Map<String, String> config, GraylogServer graylogServer, InputEventLoopGroup eventLoops) throws MessageInputConfigurationException;
+
+}
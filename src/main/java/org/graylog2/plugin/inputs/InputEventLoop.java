@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.inputs;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * One I/O thread with its selector. Every channel registered with it is handled
+ * by this thread only.
+ */
+public interface InputEventLoop {
+
+    /**
+     * Switches the channel to non-blocking mode and registers it with the selector
+     * of this loop. Registration happens on the loop thread, failures go to
+     * {@link ChannelHandler#closed(SelectableChannel, IOException)}.
+     *
+     * @param interestOps Operations of SelectionKey to wait for, like SelectionKey.OP_READ
+     */
+    public void register(SelectableChannel channel, int interestOps, ChannelHandler handler) throws IOException;
+
+    /**
+     * Runs the task on the loop thread, for example to change the interest ops of a key.
+     */
+    public void execute(Runnable task);
+
+    /**
+     * @return true if called from the thread of this loop.
+     */
+    public boolean inEventLoop();
+
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.inputs;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference InputEventLoopGroup on plain java.nio: a fixed number of threads, one
+ * per core by default, each running a Selector.
+ */
+public class NioEventLoopGroup implements InputEventLoopGroup {
+
+    private final Loop[] loops;
+    private final Thread[] threads;
+    private final ByteBufferAllocator allocator;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    public NioEventLoopGroup() throws IOException {
+        this(Runtime.getRuntime().availableProcessors(), Executors.defaultThreadFactory(), new PooledByteBufferAllocator());
+    }
+
+    public NioEventLoopGroup(int threadCount, ThreadFactory threadFactory, ByteBufferAllocator allocator) throws IOException {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Need at least one thread.");
+        }
+
+        this.allocator = allocator;
+        this.loops = new Loop[threadCount];
+        this.threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            loops[i] = new Loop(Selector.open());
+        }
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = threadFactory.newThread(loops[i]);
+            threads[i].start();
+        }
+    }
+
+    public InputEventLoop next() {
+        return loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    public int size() {
+        return loops.length;
+    }
+
+    public ByteBufferAllocator getAllocator() {
+        return allocator;
+    }
+
+    /**
+     * Stops all loops, closes all channels registered with them and waits for the threads.
+     */
+    public void shutdown() throws InterruptedException {
+        for (Loop loop : loops) {
+            loop.shutdown();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static class Loop implements InputEventLoop, Runnable {
+
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+        private volatile Thread thread;
+        private volatile boolean running = true;
+
+        Loop(Selector selector) {
+            this.selector = selector;
+        }
+
+        public void register(final SelectableChannel channel, final int interestOps, final ChannelHandler handler) throws IOException {
+            if (!running) {
+                throw new ClosedChannelException();
+            }
+
+            channel.configureBlocking(false);
+            execute(new Runnable() {
+                public void run() {
+                    try {
+                        channel.register(selector, interestOps, handler);
+                    } catch (IOException e) {
+                        close(channel, handler, e);
+                    }
+                }
+            });
+        }
+
+        public void execute(Runnable task) {
+            tasks.add(task);
+            if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        public boolean inEventLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        public void run() {
+            thread = Thread.currentThread();
+            try {
+                while (running) {
+                    try {
+                        selector.select();
+                    } catch (IOException e) {
+                        // Selector is broken, nothing left to do.
+                        break;
+                    }
+
+                    wakeupPending.set(false);
+                    runTasks();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        ChannelHandler handler = (ChannelHandler) key.attachment();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+
+                        try {
+                            handler.ready(key);
+                        } catch (IOException e) {
+                            close(key.channel(), handler, e);
+                        } catch (RuntimeException e) {
+                            close(key.channel(), handler, new IOException(e));
+                        }
+                    }
+                }
+            } finally {
+                runTasks();
+                for (SelectionKey key : selector.keys()) {
+                    close(key.channel(), (ChannelHandler) key.attachment(), null);
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                    // We are done with it anyway.
+                }
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException ignored) {
+                    // A failing task must not take down the loop and all channels on it.
+                }
+            }
+        }
+
+        private static void close(SelectableChannel channel, ChannelHandler handler, IOException cause) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Closing anyway.
+            }
+            handler.closed(channel, cause);
+        }
+
+    }
+
+}
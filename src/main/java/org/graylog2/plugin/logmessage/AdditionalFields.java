@@ -0,0 +1,352 @@
+/**
+ * Copyright 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * This file is part of Graylog2.
+ *
+ * Graylog2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog2.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.graylog2.plugin.logmessage;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Additional fields of a LogMessage, stored in parallel arrays of field name IDs
+ * (see {@link FieldNames}), canonical name Strings and values. Messages carry a
+ * few dozen fields at most, so a linear scan over an int array beats hashing and
+ * we don't pay for a HashMap entry per field.
+ *
+ * Names that didn't get an ID because the dictionary is full are stored with ID -1
+ * and compared by equals().
+ *
+ * Numeric values added through putLong()/putDouble() are kept unboxed in a long
+ * array (doubles as their raw bits) and only boxed when read through the Map interface.
+ */
+class AdditionalFields extends AbstractMap<String, Object> {
+
+    static final byte TYPE_OBJECT = 0;
+    static final byte TYPE_LONG = 1;
+    static final byte TYPE_DOUBLE = 2;
+
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private int[] ids;
+    private String[] keys;
+    private Object[] values;
+    private byte[] types;
+    private long[] numbers;
+    private int size;
+
+    private int modCount;
+
+    AdditionalFields() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    AdditionalFields(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.ids = new int[capacity];
+        this.keys = new String[capacity];
+        this.values = new Object[capacity];
+        this.types = new byte[capacity];
+        this.numbers = new long[capacity];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    String keyAt(int index) {
+        return keys[index];
+    }
+
+    Object valueAt(int index) {
+        switch (types[index]) {
+            case TYPE_LONG: return numbers[index];
+            case TYPE_DOUBLE: return Double.longBitsToDouble(numbers[index]);
+            default: return values[index];
+        }
+    }
+
+    byte typeAt(int index) {
+        return types[index];
+    }
+
+    long longAt(int index) {
+        return numbers[index];
+    }
+
+    double doubleAt(int index) {
+        return Double.longBitsToDouble(numbers[index]);
+    }
+
+    /**
+     * @return The index of the field or -1.
+     */
+    int indexOf(int id, String key) {
+        return id >= 0 ? indexOfId(id) : indexOfName(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : valueAt(i);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int id = FieldNames.intern(key);
+        return put(id, id >= 0 ? FieldNames.name(id) : key, value);
+    }
+
+    /**
+     * @param id The ID of the name in {@link FieldNames} or -1
+     * @param key The name. Should be the canonical instance if the ID is known.
+     */
+    Object put(int id, String key, Object value) {
+        int i = slot(id, key);
+        Object old = valueAt(i);
+        types[i] = TYPE_OBJECT;
+        values[i] = value;
+        return old;
+    }
+
+    void putLong(int id, String key, long value) {
+        int i = slot(id, key);
+        types[i] = TYPE_LONG;
+        values[i] = null;
+        numbers[i] = value;
+    }
+
+    void putDouble(int id, String key, double value) {
+        int i = slot(id, key);
+        types[i] = TYPE_DOUBLE;
+        values[i] = null;
+        numbers[i] = Double.doubleToRawLongBits(value);
+    }
+
+    // Index of the existing field or of a newly appended, empty one.
+    private int slot(int id, String key) {
+        int i = indexOf(id, key);
+        if (i >= 0) {
+            return i;
+        }
+
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            types = Arrays.copyOf(types, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+        }
+
+        ids[size] = id;
+        keys[size] = key;
+        values[size] = null;
+        types[size] = TYPE_OBJECT;
+        modCount++;
+        return size++;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+
+        Object old = valueAt(i);
+        removeAt(i);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        // Keep the arrays around, only drop the references.
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new EntrySet();
+    }
+
+    private void removeAt(int i) {
+        int moved = size - i - 1;
+        if (moved > 0) {
+            System.arraycopy(ids, i + 1, ids, i, moved);
+            System.arraycopy(keys, i + 1, keys, i, moved);
+            System.arraycopy(values, i + 1, values, i, moved);
+            System.arraycopy(types, i + 1, types, i, moved);
+            System.arraycopy(numbers, i + 1, numbers, i, moved);
+        }
+
+        size--;
+        keys[size] = null;
+        values[size] = null;
+        modCount++;
+    }
+
+    private int indexOf(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+
+        String name = (String) key;
+        return indexOf(FieldNames.idOf(name), name);
+    }
+
+    private int indexOfId(int id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private int indexOfName(String name) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] < 0 && keys[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            AdditionalFields.this.clear();
+        }
+
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+        private int next = 0;
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        public Map.Entry<String, Object> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+
+            last = next++;
+            return new Entry(last);
+        }
+
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            removeAt(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+
+    }
+
+    private class Entry implements Map.Entry<String, Object> {
+
+        private final int index;
+
+        Entry(int index) {
+            this.index = index;
+        }
+
+        public String getKey() {
+            return keys[index];
+        }
+
+        public Object getValue() {
+            return valueAt(index);
+        }
+
+        public Object setValue(Object value) {
+            Object old = valueAt(index);
+            types[index] = TYPE_OBJECT;
+            values[index] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object value = getValue();
+            return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+
+    }
+
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * This file is part of Graylog2.
+ *
+ * Graylog2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog2.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.graylog2.plugin.logmessage;
+
+/**
+ * Receives the fields of a LogMessage one by one, see {@link LogMessage#writeTo(DocumentWriter)}.
+ * Implementations decide what to build from them: a map, a JSON byte stream, ...
+ */
+public interface DocumentWriter {
+
+    public void startDocument();
+    public void endDocument();
+
+    public void writeString(String name, String value);
+    public void writeInt(String name, int value);
+    public void writeLong(String name, long value);
+    public void writeDouble(String name, double value);
+
+    /**
+     * Writes a timestamp given in milliseconds since the epoch as UNIX timestamp
+     * in seconds with milliseconds, the format of "created_at".
+     */
+    public void writeTimestamp(String name, long millis);
+
+    /**
+     * Writes a value of unknown type, for example an additional field.
+     */
+    public void writeObject(String name, Object value);
+
+    public void startArray(String name);
+    public void writeArrayValue(String value);
+    public void endArray();
+
+}
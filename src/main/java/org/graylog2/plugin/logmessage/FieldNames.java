@@ -0,0 +1,133 @@
+/**
+ * Copyright 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * This file is part of Graylog2.
+ *
+ * Graylog2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog2.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.graylog2.plugin.logmessage;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide dictionary of additional field names. Every distinct name gets a
+ * small integer ID and one canonical String instance that all messages share, so
+ * senders that use the same field names over and over don't make us build a new
+ * "_"-prefixed key String for every message.
+ *
+ * The dictionary is bounded by {@link #MAX_NAMES}. Once it is full, unknown names
+ * get no ID (-1) and are stored by LogMessage as plain Strings like before.
+ */
+public final class FieldNames {
+
+    public static final int MAX_NAMES = 4096;
+
+    // Raw keys as they are passed to addAdditionalData(), i.e. "foo", "_foo" or " foo".
+    private static final int MAX_RAW_KEYS = MAX_NAMES * 4;
+
+    private static final ConcurrentMap<String, Integer> rawKeys = new ConcurrentHashMap<String, Integer>();
+    private static final ConcurrentMap<String, Integer> names = new ConcurrentHashMap<String, Integer>();
+
+    private static final Object lock = new Object();
+    private static volatile String[] byId = new String[64];
+    private static int count = 0;
+
+    private FieldNames() { }
+
+    /**
+     * Resolves a raw additional field key like "foo" to the ID of its prepared
+     * form "_foo", registering it if it's new.
+     *
+     * @return The ID of the prepared name or -1 if the dictionary is full.
+     */
+    public static int idOfRawKey(String rawKey) {
+        Integer id = rawKeys.get(rawKey);
+        if (id != null) {
+            return id;
+        }
+
+        int newId = intern(prepare(rawKey));
+        if (newId >= 0 && rawKeys.size() < MAX_RAW_KEYS) {
+            rawKeys.putIfAbsent(rawKey, newId);
+        }
+
+        return newId;
+    }
+
+    /**
+     * Resolves an exact field name, registering it if it's new.
+     *
+     * @return The ID of the name or -1 if the dictionary is full.
+     */
+    public static int intern(String name) {
+        Integer id = names.get(name);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (lock) {
+            id = names.get(name);
+            if (id != null) {
+                return id;
+            }
+
+            if (count >= MAX_NAMES) {
+                return -1;
+            }
+
+            String[] current = byId;
+            if (count == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[count] = name;
+            byId = current;
+
+            names.put(name, count);
+            return count++;
+        }
+    }
+
+    /**
+     * Looks up an exact field name without registering it.
+     *
+     * @return The ID of the name or -1 if it is not known.
+     */
+    public static int idOf(String name) {
+        Integer id = names.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return The canonical name instance for the given ID.
+     */
+    public static String name(int id) {
+        return byId[id];
+    }
+
+    static String prepare(final String _key) {
+        String key = _key.trim();
+
+        // Add the required underscore if it was not set.
+        if (!key.startsWith("_")) {
+            key = "_" + key;
+        }
+
+        return key;
+    }
+
+}
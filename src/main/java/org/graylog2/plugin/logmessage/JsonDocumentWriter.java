@@ -0,0 +1,317 @@
+/**
+ * Copyright 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * This file is part of Graylog2.
+ *
+ * Graylog2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog2.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.graylog2.plugin.logmessage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Writes a document as UTF-8 encoded JSON into a growable byte array. The array
+ * is kept between documents, so one instance per thread can serialize any number
+ * of messages without allocating: call {@link #reset()}, write the message and
+ * read the result with {@link #getBuffer()} and {@link #size()}.
+ *
+ * Not thread safe.
+ */
+public class JsonDocumentWriter implements DocumentWriter {
+
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+    private byte[] buf;
+    private int count;
+
+    private boolean firstField;
+    private boolean firstArrayValue;
+
+    public JsonDocumentWriter() {
+        this(1024);
+    }
+
+    public JsonDocumentWriter(int initialCapacity) {
+        this.buf = new byte[initialCapacity];
+    }
+
+    /**
+     * Forget the written document but keep the backing array.
+     */
+    public void reset() {
+        count = 0;
+    }
+
+    /**
+     * @return The backing array. Only the first {@link #size()} bytes are valid.
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    public void writeTo(ByteBuffer out) {
+        out.put(buf, 0, count);
+    }
+
+    public void startDocument() {
+        writeByte('{');
+        firstField = true;
+    }
+
+    public void endDocument() {
+        writeByte('}');
+    }
+
+    public void writeString(String name, String value) {
+        writeName(name);
+        writeQuoted(value);
+    }
+
+    public void writeInt(String name, int value) {
+        writeName(name);
+        writeNumber(value);
+    }
+
+    public void writeLong(String name, long value) {
+        writeName(name);
+        writeNumber(value);
+    }
+
+    public void writeDouble(String name, double value) {
+        writeName(name);
+        writeNumber(value);
+    }
+
+    public void writeTimestamp(String name, long millis) {
+        writeName(name);
+        writeMillisAsSeconds(millis);
+    }
+
+    public void writeObject(String name, Object value) {
+        writeName(name);
+
+        if (value == null) {
+            writeBytes(NULL);
+        } else if (value instanceof String) {
+            writeQuoted((String) value);
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            writeNumber(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            writeNumber(((Double) value).doubleValue());
+        } else if (value instanceof Float) {
+            writeNumber(((Float) value).floatValue());
+        } else if (value instanceof Number) {
+            writeAscii(value.toString());
+        } else if (value instanceof Boolean) {
+            writeBytes(((Boolean) value) ? TRUE : FALSE);
+        } else {
+            writeQuoted(value.toString());
+        }
+    }
+
+    public void startArray(String name) {
+        writeName(name);
+        writeByte('[');
+        firstArrayValue = true;
+    }
+
+    public void writeArrayValue(String value) {
+        if (!firstArrayValue) {
+            writeByte(',');
+        }
+        firstArrayValue = false;
+
+        writeQuoted(value);
+    }
+
+    public void endArray() {
+        writeByte(']');
+    }
+
+    private void writeName(String name) {
+        if (!firstField) {
+            writeByte(',');
+        }
+        firstField = false;
+
+        writeQuoted(name);
+        writeByte(':');
+    }
+
+    private void writeNumber(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+
+        ensureCapacity(20);
+        if (value < 0) {
+            buf[count++] = '-';
+            value = -value;
+        }
+
+        int start = count;
+        do {
+            buf[count++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+
+        // Digits were written backwards.
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte tmp = buf[i];
+            buf[i] = buf[j];
+            buf[j] = tmp;
+        }
+    }
+
+    // Same text as Double.toString(), only timestamps take the fast path in writeTimestamp().
+    private void writeNumber(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeBytes(NULL);
+        } else {
+            writeAscii(Double.toString(value));
+        }
+    }
+
+    // Widening to double would write 0.1f as 0.10000000149011612.
+    private void writeNumber(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            writeBytes(NULL);
+        } else {
+            writeAscii(Float.toString(value));
+        }
+    }
+
+    private void writeMillisAsSeconds(long millis) {
+        if (millis < 0) {
+            writeAscii(Double.toString(millis / 1000.0));
+            return;
+        }
+
+        writeNumber(millis / 1000);
+        ensureCapacity(4);
+        int fraction = (int) (millis % 1000);
+        buf[count++] = '.';
+        buf[count++] = (byte) ('0' + fraction / 100);
+        buf[count++] = (byte) ('0' + (fraction / 10) % 10);
+        buf[count++] = (byte) ('0' + fraction % 10);
+    }
+
+    private void writeQuoted(String s) {
+        if (s == null) {
+            writeBytes(NULL);
+            return;
+        }
+
+        int len = s.length();
+        // Worst case is six bytes per char for escaped control characters.
+        ensureCapacity(len * 6 + 2);
+
+        byte[] b = buf;
+        int pos = count;
+        b[pos++] = '"';
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    b[pos++] = '\\';
+                    b[pos++] = (byte) c;
+                } else if (c >= 0x20) {
+                    b[pos++] = (byte) c;
+                } else {
+                    b[pos++] = '\\';
+                    switch (c) {
+                        case '\n': b[pos++] = 'n'; break;
+                        case '\r': b[pos++] = 'r'; break;
+                        case '\t': b[pos++] = 't'; break;
+                        case '\b': b[pos++] = 'b'; break;
+                        case '\f': b[pos++] = 'f'; break;
+                        default:
+                            b[pos++] = 'u';
+                            b[pos++] = '0';
+                            b[pos++] = '0';
+                            b[pos++] = HEX[c >> 4];
+                            b[pos++] = HEX[c & 0xF];
+                    }
+                }
+            } else if (c < 0x800) {
+                b[pos++] = (byte) (0xC0 | (c >> 6));
+                b[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                b[pos++] = (byte) (0xF0 | (cp >> 18));
+                b[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                b[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                b[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate. Same replacement String.getBytes() would use.
+                b[pos++] = '?';
+            } else {
+                b[pos++] = (byte) (0xE0 | (c >> 12));
+                b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        b[pos++] = '"';
+        count = pos;
+    }
+
+    private void writeAscii(String s) {
+        int len = s.length();
+        ensureCapacity(len);
+        for (int i = 0; i < len; i++) {
+            buf[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buf, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buf[count++] = (byte) c;
+    }
+
+    private void ensureCapacity(int additional) {
+        int required = count + additional;
+        if (required > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, required));
+        }
+    }
+
+}
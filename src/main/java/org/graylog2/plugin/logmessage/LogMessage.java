@@ -21,15 +21,14 @@
 package org.graylog2.plugin.logmessage;
 
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import org.graylog2.plugin.streams.Stream;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.graylog2.plugin.Tools;
 
 /**
@@ -40,7 +39,13 @@ public class LogMessage {
     public static final int STANDARD_LEVEL = 1;
     public static final String STANDARD_FACILITY = "unknown";
 
-    private String id;
+    private static volatile MessageIdGenerator idGenerator = new TimeBasedIdGenerator();
+
+    // The ID is only generated when somebody asks for it. Set once with a CAS, so
+    // threads that ask at the same time all get the same one.
+    private volatile MessageId id;
+    private static final AtomicReferenceFieldUpdater<LogMessage, MessageId> ID_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(LogMessage.class, MessageId.class, "id");
 
     // Standard fields.
     private String shortMessage;
@@ -51,10 +56,22 @@ public class LogMessage {
     private String file;
     private int line;
 
-    private Map<String, Object> additionalData ;
+    private AdditionalFields additionalData;
     private List<Stream> streams = Collections.emptyList();
 
-    private double createdAt = 0;
+    // Milliseconds since the epoch, UTC.
+    private long createdAt = 0;
+
+    // The payload as received, if the input kept it. See setRawPayload().
+    private byte[] rawPayload;
+    private int rawPayloadOffset;
+    private int rawPayloadLength;
+    private PayloadDecoder payloadDecoder;
+    private boolean decoding = false;
+    private boolean modified = false;
+
+    // The document as serialized once for all outputs. See setSerializedDocument().
+    private byte[] serializedDocument;
     
     // Used for drools to filter out messages.
     private boolean filterOut = false;
@@ -70,9 +87,159 @@ public class LogMessage {
     );
 
     public LogMessage() {
-        // the elasticsearch version is the same as the "standard" one, except the encoding is different.
-        // to avoid recomputing it when submitting the message to elasticsearch we always use its method.
-        this.id = new com.eaio.uuid.UUID().toString();
+    }
+
+    /**
+     * Replaces the generator used for the IDs of all messages. The default is
+     * {@link TimeBasedIdGenerator}.
+     */
+    public static void setIdGenerator(MessageIdGenerator generator) {
+        idGenerator = generator;
+    }
+
+    /**
+     * Puts this message back into the state of a freshly constructed one, including
+     * a new ID. The additional fields storage is cleared but kept for reuse.
+     *
+     * Only call this once nothing references the message anymore, see {@link LogMessagePool}.
+     */
+    public void reset() {
+        this.id = null;
+
+        this.shortMessage = null;
+        this.fullMessage = null;
+        this.host = null;
+        this.level = 0;
+        this.facility = null;
+        this.file = null;
+        this.line = 0;
+
+        if (this.additionalData != null) {
+            this.additionalData.clear();
+        }
+        this.streams = Collections.emptyList();
+
+        this.createdAt = 0;
+        this.filterOut = false;
+
+        this.rawPayload = null;
+        this.rawPayloadOffset = 0;
+        this.rawPayloadLength = 0;
+        this.payloadDecoder = null;
+        this.modified = false;
+        this.serializedDocument = null;
+    }
+
+    /**
+     * Keeps the payload this message was built from. The array is referenced, not
+     * copied, so the input must not reuse it.
+     *
+     * With a decoder, the input only has to set the fields needed for routing
+     * (short message, host, level, facility and created at) right away. The full
+     * message, file, line and additional fields are decoded from the payload the
+     * first time any of them is read or written, which never happens for many
+     * messages that get filtered or only routed.
+     *
+     * @param decoder Fills the remaining fields on demand. Can be null if the message is complete.
+     */
+    public void setRawPayload(byte[] payload, int offset, int length, PayloadDecoder decoder) {
+        this.rawPayload = payload;
+        this.rawPayloadOffset = offset;
+        this.rawPayloadLength = length;
+        this.payloadDecoder = decoder;
+        this.modified = false;
+    }
+
+    public boolean hasRawPayload() {
+        return this.rawPayload != null;
+    }
+
+    /**
+     * @return A read-only view of the payload as received or null if none was kept.
+     */
+    public ByteBuffer getRawPayload() {
+        if (this.rawPayload == null) {
+            return null;
+        }
+
+        return ByteBuffer.wrap(this.rawPayload, this.rawPayloadOffset, this.rawPayloadLength).slice().asReadOnlyBuffer();
+    }
+
+    public byte[] getRawPayloadArray() {
+        return this.rawPayload;
+    }
+
+    public int getRawPayloadOffset() {
+        return this.rawPayloadOffset;
+    }
+
+    public int getRawPayloadLength() {
+        return this.rawPayloadLength;
+    }
+
+    /**
+     * @return true if any field was changed after the raw payload was set. Outputs
+     *         can forward the raw payload as is only as long as this is false.
+     */
+    public boolean isModifiedSinceRawPayload() {
+        return this.modified;
+    }
+
+    /**
+     * @return false as long as lazily decoded fields are still waiting in the raw payload.
+     */
+    public boolean isDecoded() {
+        return this.payloadDecoder == null;
+    }
+
+    /**
+     * Decodes the lazily decoded fields now instead of on first access. Decoding
+     * changes the message, so do it before several threads read the same message.
+     */
+    public void decode() {
+        ensureDecoded();
+    }
+
+    private void ensureDecoded() {
+        if (this.payloadDecoder != null) {
+            PayloadDecoder decoder = this.payloadDecoder;
+            this.payloadDecoder = null;
+
+            this.decoding = true;
+            try {
+                decoder.decode(this, this.rawPayload, this.rawPayloadOffset, this.rawPayloadLength);
+            } finally {
+                this.decoding = false;
+            }
+        }
+    }
+
+    // Called by everything that changes a field.
+    private void touch() {
+        if (!this.decoding) {
+            this.modified = true;
+            this.serializedDocument = null;
+        }
+    }
+
+    /**
+     * Keeps the JSON document of this message as written by writeTo() into a
+     * {@link JsonDocumentWriter}, so that outputs can use it instead of serializing
+     * the message again. The array is referenced, not copied.
+     *
+     * Every change through the setters of this message drops the document. Changes
+     * through the map returned by getAdditionalData() are not noticed.
+     */
+    public void setSerializedDocument(byte[] json) {
+        this.serializedDocument = json;
+    }
+
+    /**
+     * @return The JSON document set by setSerializedDocument() or null if there is
+     *         none or the message was changed since. Don't modify the array.
+     */
+    public byte[] getSerializedDocument() {
+        return this.serializedDocument;
     }
 
     public boolean isComplete() {
@@ -80,51 +247,104 @@ public class LogMessage {
     }
 
     public String getId() {
-        return this.id;
+        return getMessageId().toString();
+    }
+
+    public MessageId getMessageId() {
+        MessageId current = this.id;
+        if (current == null) {
+            ID_UPDATER.compareAndSet(this, null, idGenerator.generate());
+            current = this.id;
+        }
+
+        return current;
+    }
+
+    /**
+     * @return The time part of the ID. Same layout as com.eaio.uuid.UUID.getTime().
+     */
+    public long getIdTime() {
+        return getMessageId().getTime();
+    }
+
+    /**
+     * @return The clock sequence and node part of the ID. Same layout as com.eaio.uuid.UUID.getClockSeqAndNode().
+     */
+    public long getIdClockSeqAndNode() {
+        return getMessageId().getClockSeqAndNode();
+    }
+
+    /**
+     * Sets the ID of this message, for example when it is restored from somewhere.
+     */
+    public void setId(long time, long clockSeqAndNode) {
+        this.id = new MessageId(time, clockSeqAndNode);
     }
 
     public Map<String, Object> toElasticSearchObject() {
-        Map<String, Object> obj = Maps.newHashMap();
-        obj.put("message", this.getShortMessage());
-        obj.put("full_message", this.getFullMessage());
-        obj.put("file", this.getFile());
-        obj.put("line", this.getLine());
-        obj.put("host", this.getHost());
-        obj.put("facility", this.getFacility());
-        obj.put("level", this.getLevel());
-
-        // Add additional fields. XXX PERFORMANCE
-        for(Map.Entry<String, Object> entry : this.getAdditionalData().entrySet()) {
-            obj.put(entry.getKey(), entry.getValue());
+        MapDocumentWriter writer = new MapDocumentWriter();
+        writeTo(writer);
+        return writer.getDocument();
+    }
+
+    /**
+     * Writes this message as ElasticSearch document into the given writer. Unlike
+     * toElasticSearchObject() this does not build any intermediate collections, so
+     * outputs can serialize straight into a reused buffer, see {@link JsonDocumentWriter}.
+     *
+     * @param writer The writer to emit the fields to
+     */
+    public void writeTo(DocumentWriter writer) {
+        ensureDecoded();
+
+        writer.startDocument();
+        writer.writeString("message", this.getShortMessage());
+        writer.writeString("full_message", this.getFullMessage());
+        writer.writeString("file", this.getFile());
+        writer.writeInt("line", this.getLine());
+        writer.writeString("host", this.getHost());
+        writer.writeString("facility", this.getFacility());
+        writer.writeInt("level", this.getLevel());
+
+        // Add additional fields.
+        if (this.additionalData != null) {
+            AdditionalFields fields = this.additionalData;
+            for (int i = 0; i < fields.size(); i++) {
+                switch (fields.typeAt(i)) {
+                    case AdditionalFields.TYPE_LONG:
+                        writer.writeLong(fields.keyAt(i), fields.longAt(i));
+                        break;
+                    case AdditionalFields.TYPE_DOUBLE:
+                        writer.writeDouble(fields.keyAt(i), fields.doubleAt(i));
+                        break;
+                    default:
+                        writer.writeObject(fields.keyAt(i), fields.valueAt(i));
+                }
+            }
         }
 
-        if (this.getCreatedAt() <= 0) {
-            double timestamp = Tools.getUTCTimestampWithMilliseconds();
+        long timestamp = this.createdAt;
+        if (timestamp <= 0) {
             // This should have already been set at receiving, but to make sure...
-            obj.put("created_at", timestamp);
-            obj.put("histogram_time", Tools.buildElasticSearchTimeFormat(timestamp));
-        } else {
-            obj.put("created_at", this.getCreatedAt());
-            obj.put("histogram_time", Tools.buildElasticSearchTimeFormat(this.getCreatedAt()));
+            timestamp = System.currentTimeMillis();
         }
+        writer.writeTimestamp("created_at", timestamp);
+        writer.writeString("histogram_time", Tools.format(timestamp));
 
-
-        if (getStreams().size()>0) {
-            // Manually converting stream ID to string - caused strange problems without it.
-            List<String> streamIds = Lists.newArrayList();
-            for (Stream stream : this.getStreams()) {
-                streamIds.add(stream.getId().toString());
-            }
-            obj.put("streams", streamIds);
-        } else {
-            obj.put("streams", Collections.EMPTY_LIST);
+        // Manually converting stream ID to string - caused strange problems without it.
+        writer.startArray("streams");
+        for (Stream stream : this.getStreams()) {
+            writer.writeArrayValue(stream.getId().toString());
         }
+        writer.endArray();
 
-        return obj;
+        writer.endDocument();
     }
 
     @Override
     public String toString() {
+        ensureDecoded();
+
         StringBuilder sb = new StringBuilder();
         sb.append("level: ").append(level).append(" | ");
         sb.append("host: ").append(host).append(" | ");
@@ -144,11 +364,27 @@ public class LogMessage {
         return ret;
     }
 
+    /**
+     * @return The UNIX timestamp in seconds with milliseconds. Derived from {@link #getCreatedAtMillis()}.
+     */
     public double getCreatedAt() {
-        return createdAt;
+        return createdAt / 1000.0;
     }
 
+    /**
+     * @param createdAt UNIX timestamp in seconds. Anything below milliseconds is rounded away.
+     */
     public void setCreatedAt(double createdAt) {
+        touch();
+        this.createdAt = Math.round(createdAt * 1000);
+    }
+
+    public long getCreatedAtMillis() {
+        return createdAt;
+    }
+
+    public void setCreatedAtMillis(long createdAt) {
+        touch();
         this.createdAt = createdAt;
     }
 
@@ -157,22 +393,29 @@ public class LogMessage {
     }
  
     public void setFacility(String facility) {
+        touch();
         this.facility = facility;
     }
 
     public String getFile() {
+        ensureDecoded();
         return file;
     }
 
     public void setFile(String file) {
+        ensureDecoded();
+        touch();
         this.file = file;
     }
 
     public String getFullMessage() {
+        ensureDecoded();
         return fullMessage;
     }
 
     public void setFullMessage(String fullMessage) {
+        ensureDecoded();
+        touch();
         this.fullMessage = fullMessage;
     }
 
@@ -181,6 +424,7 @@ public class LogMessage {
     }
 
     public void setHost(String host) {
+        touch();
         this.host = host;
     }
 
@@ -189,14 +433,18 @@ public class LogMessage {
     }
 
     public void setLevel(int level) {
+        touch();
         this.level = level;
     }
 
     public int getLine() {
+        ensureDecoded();
         return line;
     }
 
     public void setLine(int line) {
+        ensureDecoded();
+        touch();
         this.line = line;
     }
 
@@ -205,11 +453,17 @@ public class LogMessage {
     }
 
     public void setShortMessage(String shortMessage) {
+        touch();
         this.shortMessage = shortMessage;
     }
 
     public void addAdditionalData(String key, Object value) {
-        String pKey = prepareAdditionalDataKey(key);
+        ensureDecoded();
+        touch();
+
+        // Known keys resolve to their shared "_"-prefixed name without building a new String.
+        int id = FieldNames.idOfRawKey(key);
+        String pKey = id >= 0 ? FieldNames.name(id) : FieldNames.prepare(key);
         
         // Don't accept protected keys.
         if (PROTECTED_KEYS.contains(pKey)) {
@@ -217,17 +471,141 @@ public class LogMessage {
         }
         
         if (this.additionalData==null)
-            this.additionalData = new HashMap<String, Object>();
+            this.additionalData = new AdditionalFields();
         
-        this.additionalData.put(pKey, value);
+        this.additionalData.put(id, pKey, value);
     }      
 
+    /**
+     * Adds a numeric additional field that is stored and serialized without boxing.
+     * Same key rules as {@link #addAdditionalData(String, Object)}.
+     */
+    public void addLongField(String key, long value) {
+        ensureDecoded();
+        touch();
+
+        int id = FieldNames.idOfRawKey(key);
+        String pKey = id >= 0 ? FieldNames.name(id) : FieldNames.prepare(key);
+        if (PROTECTED_KEYS.contains(pKey)) {
+            return;
+        }
+
+        if (this.additionalData==null)
+            this.additionalData = new AdditionalFields();
+
+        this.additionalData.putLong(id, pKey, value);
+    }
+
+    /**
+     * Adds a numeric additional field that is stored and serialized without boxing.
+     * Same key rules as {@link #addAdditionalData(String, Object)}.
+     */
+    public void addDoubleField(String key, double value) {
+        ensureDecoded();
+        touch();
+
+        int id = FieldNames.idOfRawKey(key);
+        String pKey = id >= 0 ? FieldNames.name(id) : FieldNames.prepare(key);
+        if (PROTECTED_KEYS.contains(pKey)) {
+            return;
+        }
+
+        if (this.additionalData==null)
+            this.additionalData = new AdditionalFields();
+
+        this.additionalData.putDouble(id, pKey, value);
+    }
+
+    /**
+     * Reads an additional field as long. Fields that were added as Number or as
+     * numeric String are converted.
+     *
+     * @param key The key as passed to addAdditionalData(), with or without the leading underscore
+     * @return The value or defaultValue if the field does not exist or is not numeric
+     */
+    public long getLongField(String key, long defaultValue) {
+        int i = indexOfAdditionalData(key);
+        if (i < 0) {
+            return defaultValue;
+        }
+
+        switch (this.additionalData.typeAt(i)) {
+            case AdditionalFields.TYPE_LONG:
+                return this.additionalData.longAt(i);
+            case AdditionalFields.TYPE_DOUBLE:
+                return (long) this.additionalData.doubleAt(i);
+        }
+
+        Object value = this.additionalData.valueAt(i);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+
+        if (value instanceof String) {
+            try {
+                return Long.parseLong(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+
+        return defaultValue;
+    }
+
+    /**
+     * Reads an additional field as double. Fields that were added as Number or as
+     * numeric String are converted.
+     *
+     * @param key The key as passed to addAdditionalData(), with or without the leading underscore
+     * @return The value or defaultValue if the field does not exist or is not numeric
+     */
+    public double getDoubleField(String key, double defaultValue) {
+        int i = indexOfAdditionalData(key);
+        if (i < 0) {
+            return defaultValue;
+        }
+
+        switch (this.additionalData.typeAt(i)) {
+            case AdditionalFields.TYPE_LONG:
+                return this.additionalData.longAt(i);
+            case AdditionalFields.TYPE_DOUBLE:
+                return this.additionalData.doubleAt(i);
+        }
+
+        Object value = this.additionalData.valueAt(i);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+
+        return defaultValue;
+    }
+
+    private int indexOfAdditionalData(String key) {
+        ensureDecoded();
+
+        if (this.additionalData==null)
+            return -1;
+
+        int id = FieldNames.idOfRawKey(key);
+        return this.additionalData.indexOf(id, id >= 0 ? FieldNames.name(id) : FieldNames.prepare(key));
+    }
+
     public void addAdditionalData(Map<String, String> fields) {
         if (fields.size()==0)
             return;
+
+        ensureDecoded();
         
         if (this.additionalData==null)
-            this.additionalData = new HashMap<String, Object>(fields.size()*2);
+            this.additionalData = new AdditionalFields(fields.size());
 
         for (Map.Entry<String, String> field : fields.entrySet()) {
             addAdditionalData(field.getKey(), field.getValue());
@@ -235,10 +613,19 @@ public class LogMessage {
     }
     
     public void setAdditionalData(String key, Object value) {
+        ensureDecoded();
+        touch();
+
+        if (this.additionalData==null)
+            this.additionalData = new AdditionalFields();
+
         this.additionalData.put(key, value);
     }
 
     public void removeAdditionalData(String key) {
+        ensureDecoded();
+        touch();
+
         if (this.additionalData==null)
             return;
         
@@ -246,10 +633,23 @@ public class LogMessage {
     }
 
     public Map<String, Object> getAdditionalData() {
+        ensureDecoded();
         return additionalData == null ? Collections.<String, Object>emptyMap() : this.additionalData;
     }
 
+    // For LogMessageCodec, which restores typed fields directly.
+    AdditionalFields additionalFields() {
+        ensureDecoded();
+        touch();
+
+        if (this.additionalData==null)
+            this.additionalData = new AdditionalFields();
+
+        return this.additionalData;
+    }
+
     public void setStreams(List<Stream> streams) {
+        this.serializedDocument = null;
         this.streams = streams;
     }
 
@@ -264,16 +664,5 @@ public class LogMessage {
     public boolean getFilterOut() {
         return this.filterOut;
     }
-    
-    private String prepareAdditionalDataKey(final String _key) {
-        String key = _key.trim();
-        
-        // Add the required underscore if it was not set.
-        if (!key.startsWith("_")) {
-            key = "_" + key;
-        }
-
-        return key;
-    }
 
 }
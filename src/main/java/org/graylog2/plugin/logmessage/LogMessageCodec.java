@@ -0,0 +1,290 @@
+/**
+ * Copyright 2010 Lennart Koopmann <lennart@socketfeed.com>
+ * 
+ * This file is part of Graylog2.
+ *
+ * Graylog2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog2.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.graylog2.plugin.logmessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.graylog2.plugin.streams.Stream;
+
+/**
+ * Compact binary encoding of a LogMessage, for example to park messages on disk.
+ * Keeps the ID, all fields, the filter flag and the streams. Numeric additional
+ * fields keep their type. Other additional field values are stored as String
+ * unless they are Integer, Long, Double or Boolean. Streams are stored by ID and
+ * looked up again when decoding. A raw payload is decoded before encoding and
+ * not stored itself.
+ *
+ * Encodes into a growable array that is kept between messages, so use one
+ * instance per thread. Not thread safe.
+ */
+public class LogMessageCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte VERSION = 1;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_STRING = 1;
+    private static final byte VALUE_LONG = 2;
+    private static final byte VALUE_DOUBLE = 3;
+    private static final byte VALUE_BOXED_INTEGER = 4;
+    private static final byte VALUE_BOXED_LONG = 5;
+    private static final byte VALUE_BOXED_DOUBLE = 6;
+    private static final byte VALUE_BOOLEAN = 7;
+
+    private byte[] buf = new byte[1024];
+    private int count;
+
+    // For Strings that are read from buffers without accessible array.
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Encodes the message into the internal array, replacing what was there.
+     *
+     * @return Number of bytes written, see {@link #getBuffer()}
+     */
+    public int encode(LogMessage message) {
+        count = 0;
+
+        writeByte(VERSION);
+        writeLong(message.getIdTime());
+        writeLong(message.getIdClockSeqAndNode());
+        writeLong(message.getCreatedAtMillis());
+        writeInt(message.getLevel());
+        writeInt(message.getLine());
+        writeByte((byte) (message.getFilterOut() ? 1 : 0));
+
+        writeString(message.getShortMessage());
+        writeString(message.getFullMessage());
+        writeString(message.getHost());
+        writeString(message.getFacility());
+        writeString(message.getFile());
+
+        List<Stream> streams = message.getStreams();
+        writeInt(streams == null ? 0 : streams.size());
+        if (streams != null) {
+            for (Stream stream : streams) {
+                writeString(String.valueOf(stream.getId()));
+            }
+        }
+
+        Map<String, Object> fields = message.getAdditionalData();
+        writeInt(fields.size());
+        if (fields instanceof AdditionalFields) {
+            AdditionalFields af = (AdditionalFields) fields;
+            for (int i = 0; i < af.size(); i++) {
+                writeString(af.keyAt(i));
+                switch (af.typeAt(i)) {
+                    case AdditionalFields.TYPE_LONG:
+                        writeByte(VALUE_LONG);
+                        writeLong(af.longAt(i));
+                        break;
+                    case AdditionalFields.TYPE_DOUBLE:
+                        writeByte(VALUE_DOUBLE);
+                        writeLong(Double.doubleToRawLongBits(af.doubleAt(i)));
+                        break;
+                    default:
+                        writeValue(af.valueAt(i));
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return The internal array. Only the first bytes as returned by encode() are valid.
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Reads one encoded message from the current position of the buffer and
+     * advances the position past it.
+     *
+     * @param target  Message to fill. Should be new or {@link LogMessage#reset() reset}.
+     * @param streams Streams by their ID. Stream IDs that are not in the map are dropped.
+     * @return target
+     * @throws IllegalArgumentException if the data was not written by this codec
+     */
+    public LogMessage decode(ByteBuffer in, LogMessage target, Map<String, Stream> streams) {
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unknown LogMessage encoding version " + version);
+        }
+
+        target.setId(in.getLong(), in.getLong());
+        target.setCreatedAtMillis(in.getLong());
+        target.setLevel(in.getInt());
+        target.setLine(in.getInt());
+        target.setFilterOut(in.get() != 0);
+
+        target.setShortMessage(readString(in));
+        target.setFullMessage(readString(in));
+        target.setHost(readString(in));
+        target.setFacility(readString(in));
+        target.setFile(readString(in));
+
+        int streamCount = in.getInt();
+        if (streamCount > 0) {
+            List<Stream> resolved = new ArrayList<Stream>(streamCount);
+            for (int i = 0; i < streamCount; i++) {
+                Stream stream = streams == null ? null : streams.get(readString(in));
+                if (stream != null) {
+                    resolved.add(stream);
+                }
+            }
+            target.setStreams(resolved);
+        } else {
+            target.setStreams(Collections.<Stream>emptyList());
+        }
+
+        int fieldCount = in.getInt();
+        for (int i = 0; i < fieldCount; i++) {
+            String key = readString(in);
+            int id = FieldNames.intern(key);
+            if (id >= 0) {
+                key = FieldNames.name(id);
+            }
+
+            byte type = in.get();
+            switch (type) {
+                case VALUE_LONG:
+                    target.additionalFields().putLong(id, key, in.getLong());
+                    break;
+                case VALUE_DOUBLE:
+                    target.additionalFields().putDouble(id, key, Double.longBitsToDouble(in.getLong()));
+                    break;
+                default:
+                    target.additionalFields().put(id, key, readValue(type, in));
+            }
+        }
+
+        return target;
+    }
+
+    private void writeValue(Object value) {
+        if (value == null) {
+            writeByte(VALUE_NULL);
+        } else if (value instanceof Integer) {
+            writeByte(VALUE_BOXED_INTEGER);
+            writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            writeByte(VALUE_BOXED_LONG);
+            writeLong((Long) value);
+        } else if (value instanceof Double) {
+            writeByte(VALUE_BOXED_DOUBLE);
+            writeLong(Double.doubleToRawLongBits((Double) value));
+        } else if (value instanceof Boolean) {
+            writeByte(VALUE_BOOLEAN);
+            writeByte((byte) (((Boolean) value) ? 1 : 0));
+        } else {
+            writeByte(VALUE_STRING);
+            writeString(value.toString());
+        }
+    }
+
+    private Object readValue(byte type, ByteBuffer in) {
+        switch (type) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_STRING:
+                return readString(in);
+            case VALUE_BOXED_INTEGER:
+                return in.getInt();
+            case VALUE_BOXED_LONG:
+                return in.getLong();
+            case VALUE_BOXED_DOUBLE:
+                return Double.longBitsToDouble(in.getLong());
+            case VALUE_BOOLEAN:
+                return in.get() != 0;
+            default:
+                throw new IllegalArgumentException("Unknown additional field type " + type);
+        }
+    }
+
+    private void writeString(String s) {
+        if (s == null) {
+            writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = s.getBytes(UTF_8);
+        writeInt(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buf, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+
+        if (in.hasArray()) {
+            String s = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+            in.position(in.position() + length);
+            return s;
+        }
+
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        in.get(scratch, 0, length);
+        return new String(scratch, 0, length, UTF_8);
+    }
+
+    private void writeByte(byte b) {
+        ensureCapacity(1);
+        buf[count++] = b;
+    }
+
+    private void writeInt(int v) {
+        ensureCapacity(4);
+        buf[count++] = (byte) (v >>> 24);
+        buf[count++] = (byte) (v >>> 16);
+        buf[count++] = (byte) (v >>> 8);
+        buf[count++] = (byte) v;
+    }
+
+    private void writeLong(long v) {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    private void ensureCapacity(int additional) {
+        if (count + additional > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + additional));
+        }
+    }
+
+}
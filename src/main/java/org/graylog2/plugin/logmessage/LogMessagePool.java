@@ -0,0 +1,127 @@
+/**
+ * Copyright 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * This file is part of Graylog2.
+ *
+ * Graylog2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog2.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.graylog2.plugin.logmessage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free pool of LogMessage instances.
+ *
+ * Lifecycle: an input calls {@link #acquire()} instead of new LogMessage() and
+ * hands the message to the process buffer. From then on the buffers, filters and
+ * outputs only borrow it. Once the last stage is done with a message (it was
+ * filtered out or every output has written it) the server calls {@link #release(LogMessage)},
+ * which resets it and makes it available again. A message must not be touched
+ * after it was released and must never be released twice.
+ *
+ * Idle messages are kept in a bounded array queue with a sequence number per slot,
+ * so inputs and output threads can hand instances back and forth without locks or
+ * per-operation allocation. The pool is lossy on purpose: acquire() creates a new
+ * message if the pool is empty and release() leaves the instance to the garbage
+ * collector if it is full. Nothing ever blocks.
+ */
+public class LogMessagePool {
+
+    private final AtomicReferenceArray<LogMessage> slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity Maximum number of idle messages to keep. Rounded up to a power
+     *        of two, at least two: with a single slot the sequence a release leaves
+     *        behind equals the one acquire waits for in the next lap.
+     */
+    public LogMessagePool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+
+        int size = Math.max(2, Integer.highestOneBit(capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.slots = new AtomicReferenceArray<LogMessage>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return A message in the state of a freshly constructed one.
+     */
+    public LogMessage acquire() {
+        while (true) {
+            long h = head.get();
+            int index = (int) h & mask;
+            long diff = sequences.get(index) - (h + 1);
+
+            if (diff == 0) {
+                if (head.compareAndSet(h, h + 1)) {
+                    LogMessage message = slots.get(index);
+                    slots.lazySet(index, null);
+                    sequences.lazySet(index, h + mask + 1);
+                    return message;
+                }
+            } else if (diff < 0) {
+                // Empty.
+                return new LogMessage();
+            }
+        }
+    }
+
+    /**
+     * Resets the message and keeps it for reuse if there is room.
+     */
+    public void release(LogMessage message) {
+        message.reset();
+
+        while (true) {
+            long t = tail.get();
+            int index = (int) t & mask;
+            long diff = sequences.get(index) - t;
+
+            if (diff == 0) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    slots.lazySet(index, message);
+                    sequences.lazySet(index, t + 1);
+                    return;
+                }
+            } else if (diff < 0) {
+                // Full. Let the GC have it.
+                return;
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+}
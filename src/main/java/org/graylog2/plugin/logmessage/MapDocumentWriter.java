@@ -0,0 +1,99 @@
+/**
+ * Copyright 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * This file is part of Graylog2.
+ *
+ * Graylog2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog2.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.graylog2.plugin.logmessage;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects a document into a Map. This is what {@link LogMessage#toElasticSearchObject()} uses.
+ */
+public class MapDocumentWriter implements DocumentWriter {
+
+    private Map<String, Object> document;
+
+    private String arrayName;
+    private List<String> array;
+
+    public void startDocument() {
+        this.document = Maps.newHashMap();
+    }
+
+    public void endDocument() {
+    }
+
+    public void writeString(String name, String value) {
+        document.put(name, value);
+    }
+
+    public void writeInt(String name, int value) {
+        document.put(name, value);
+    }
+
+    public void writeLong(String name, long value) {
+        document.put(name, value);
+    }
+
+    public void writeDouble(String name, double value) {
+        document.put(name, value);
+    }
+
+    public void writeTimestamp(String name, long millis) {
+        document.put(name, millis / 1000.0);
+    }
+
+    public void writeObject(String name, Object value) {
+        document.put(name, value);
+    }
+
+    public void startArray(String name) {
+        this.arrayName = name;
+        this.array = null;
+    }
+
+    public void writeArrayValue(String value) {
+        if (array == null) {
+            array = Lists.newArrayList();
+        }
+
+        array.add(value);
+    }
+
+    public void endArray() {
+        if (array == null) {
+            document.put(arrayName, Collections.EMPTY_LIST);
+        } else {
+            document.put(arrayName, array);
+        }
+
+        arrayName = null;
+        array = null;
+    }
+
+    public Map<String, Object> getDocument() {
+        return document;
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * This file is part of Graylog2.
+ *
+ * Graylog2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog2.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.graylog2.plugin.logmessage;
+
+/**
+ * An immutable LogMessage ID: a time-based UUID in the layout of
+ * com.eaio.uuid.UUID, kept as two longs and only rendered to a String on
+ * {@link #toString()}.
+ */
+public final class MessageId {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long time;
+    private final long clockSeqAndNode;
+
+    // Racy single-check, Strings are safe to publish that way.
+    private String rendered;
+
+    public MessageId(long time, long clockSeqAndNode) {
+        this.time = time;
+        this.clockSeqAndNode = clockSeqAndNode;
+    }
+
+    /**
+     * @return Same layout as com.eaio.uuid.UUID.getTime().
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return Same layout as com.eaio.uuid.UUID.getClockSeqAndNode().
+     */
+    public long getClockSeqAndNode() {
+        return clockSeqAndNode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof MessageId)) {
+            return false;
+        }
+
+        MessageId other = (MessageId) o;
+        return time == other.time && clockSeqAndNode == other.clockSeqAndNode;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = time ^ clockSeqAndNode;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return Same format as com.eaio.uuid.UUID.toString(): 8-4-4-4-12 lower case hex digits.
+     */
+    @Override
+    public String toString() {
+        String s = rendered;
+        if (s == null) {
+            char[] chars = new char[36];
+            hex(chars, 0, time >>> 32, 8);
+            chars[8] = '-';
+            hex(chars, 9, time >>> 16, 4);
+            chars[13] = '-';
+            hex(chars, 14, time, 4);
+            chars[18] = '-';
+            hex(chars, 19, clockSeqAndNode >>> 48, 4);
+            chars[23] = '-';
+            hex(chars, 24, clockSeqAndNode, 12);
+            s = new String(chars);
+            rendered = s;
+        }
+
+        return s;
+    }
+
+    private static void hex(char[] chars, int offset, long value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            chars[i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * This file is part of Graylog2.
+ *
+ * Graylog2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog2.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.graylog2.plugin.logmessage;
+
+/**
+ * Decodes the lazily parsed fields of a LogMessage from its raw payload. See
+ * {@link LogMessage#setRawPayload(byte[], int, int, PayloadDecoder)}.
+ */
+public interface PayloadDecoder {
+
+    /**
+     * Set the remaining fields (full message, file, line, additional fields) on the
+     * message using its normal setters. Called at most once per message, from the
+     * thread that first needs one of those fields. Implementations should be stateless
+     * so one instance can serve all messages of an input.
+     */
+    public void decode(LogMessage message, byte[] payload, int offset, int length);
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * This file is part of Graylog2.
+ *
+ * Graylog2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Graylog2 is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Graylog2.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.graylog2.plugin.logmessage;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-based (version 1) UUIDs in the same layout com.eaio.uuid.UUID uses, but
+ * without its global lock. Every thread gets its own clock sequence and keeps its
+ * own last timestamp, so threads never coordinate: two threads can't produce the
+ * same ID because their clock sequences differ, and one thread can't because its
+ * timestamps strictly increase.
+ *
+ * There are only 16384 clock sequences and they are not returned when a thread
+ * dies. One is kept back for all threads that come after the others ran out.
+ * Those share one last timestamp and reserve their ticks with a CAS, like a
+ * single locked generator would, just without the lock.
+ *
+ * The node is random per process, with the multicast bit set as RFC 4122 asks
+ * for when no MAC address is used.
+ */
+public class TimeBasedIdGenerator implements MessageIdGenerator {
+
+    // 100ns intervals between 1582-10-15 and 1970-01-01.
+    private static final long GREGORIAN_OFFSET = 0x01B21DD213814000L;
+
+    private static final long VARIANT = 0x8000000000000000L;
+    private static final long MULTICAST = 0x0000010000000000L;
+
+    private static final int CLOCK_SEQUENCES = 0x4000;
+
+    private final long node;
+    private final int firstClockSequence;
+    private final AtomicLong threads = new AtomicLong();
+
+    // For the threads without a clock sequence of their own. Its lastTicks is not used.
+    private final State shared;
+    private final AtomicLong sharedLastTicks = new AtomicLong();
+
+    private final ThreadLocal<State> state = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            long n = threads.getAndIncrement();
+            return n < CLOCK_SEQUENCES - 1 ? new State(clockSeqAndNode((int) n)) : shared;
+        }
+    };
+
+    public TimeBasedIdGenerator() {
+        SecureRandom random = new SecureRandom();
+        this.node = (random.nextLong() & 0xFFFFFFFFFFFFL) | MULTICAST;
+        this.firstClockSequence = random.nextInt(CLOCK_SEQUENCES);
+        this.shared = new State(clockSeqAndNode(CLOCK_SEQUENCES - 1));
+    }
+
+    public MessageId generate() {
+        long now = System.currentTimeMillis() * 10000 + GREGORIAN_OFFSET;
+
+        State s = state.get();
+        if (s == shared) {
+            return new MessageId(toTime(nextSharedTicks(now)), s.clockSeqAndNode);
+        }
+
+        long ticks = now;
+        if (ticks <= s.lastTicks) {
+            // Same millisecond or the clock went back. Count up in 100ns steps.
+            ticks = s.lastTicks + 1;
+        }
+        s.lastTicks = ticks;
+
+        return new MessageId(toTime(ticks), s.clockSeqAndNode);
+    }
+
+    private long nextSharedTicks(long now) {
+        while (true) {
+            long last = sharedLastTicks.get();
+            long ticks = now > last ? now : last + 1;
+            if (sharedLastTicks.compareAndSet(last, ticks)) {
+                return ticks;
+            }
+        }
+    }
+
+    private long clockSeqAndNode(int index) {
+        long clockSequence = (firstClockSequence + index) & (CLOCK_SEQUENCES - 1);
+        return VARIANT | (clockSequence << 48) | node;
+    }
+
+    private static long toTime(long ticks) {
+        long time = ticks << 32;                        // time_low
+        time |= (ticks & 0xFFFF00000000L) >>> 16;       // time_mid
+        time |= 0x1000 | ((ticks >>> 48) & 0x0FFF);    // version 1 and time_hi
+        return time;
+    }
+
+    private static class State {
+
+        private final long clockSeqAndNode;
+        private long lastTicks;
+
+        State(long clockSeqAndNode) {
+            this.clockSeqAndNode = clockSeqAndNode;
+        }
+
+    }
+
+}
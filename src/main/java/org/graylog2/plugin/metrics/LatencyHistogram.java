@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds with power of two buckets: bucket i counts
+ * the values from 2^(i-1) to 2^i - 1. Good enough to tell microseconds from
+ * milliseconds from seconds, and cheap to record: one array index computation and
+ * one atomic add on a cache line that is striped per thread like in
+ * {@link StripedCounter}.
+ */
+public final class LatencyHistogram {
+
+    public static final int BUCKETS = 64;
+
+    /*
+     * Per stripe: BUCKETS counters and the sum of all values, padded to full cache lines.
+     */
+    private static final int SUM = BUCKETS;
+    private static final int STRIPE_SIZE = (BUCKETS + 1 + StripedCounter.PADDING - 1) / StripedCounter.PADDING * StripedCounter.PADDING;
+
+    private final AtomicLongArray cells = new AtomicLongArray((StripedCounter.STRIPES + 1) * STRIPE_SIZE);
+
+    public void record(long nanos) {
+        int base = (StripedCounter.stripe() + 1) * STRIPE_SIZE;
+        cells.getAndIncrement(base + bucketOf(nanos));
+        if (nanos > 0) {
+            cells.getAndAdd(base + SUM, nanos);
+        }
+    }
+
+    /**
+     * @return Counts per bucket, summed up over all stripes.
+     */
+    public long[] getBuckets() {
+        long[] buckets = new long[BUCKETS];
+        for (int s = 1; s <= StripedCounter.STRIPES; s++) {
+            int base = s * STRIPE_SIZE;
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] += cells.get(base + i);
+            }
+        }
+
+        return buckets;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (long bucket : getBuckets()) {
+            count += bucket;
+        }
+
+        return count;
+    }
+
+    /**
+     * @return Sum of all recorded values in nanoseconds.
+     */
+    public long getSum() {
+        long sum = 0;
+        for (int s = 1; s <= StripedCounter.STRIPES; s++) {
+            sum += cells.get(s * STRIPE_SIZE + SUM);
+        }
+
+        return sum;
+    }
+
+    /**
+     * @return Mean of all recorded values in nanoseconds, 0 if nothing was recorded.
+     */
+    public double getMean() {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+
+        return (double) getSum() / count;
+    }
+
+    /**
+     * @param quantile Between 0 and 1, e.g. 0.99
+     * @return Upper bound of the bucket that contains the quantile, in nanoseconds.
+     */
+    public long getPercentile(double quantile) {
+        long[] buckets = getBuckets();
+        long count = 0;
+        for (long bucket : buckets) {
+            count += bucket;
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank && buckets[i] > 0) {
+                return getUpperBound(i);
+            }
+        }
+
+        return getUpperBound(BUCKETS - 1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, 0);
+        }
+    }
+
+    /**
+     * @return Largest value in nanoseconds that is counted in the given bucket.
+     */
+    public static long getUpperBound(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    static int bucketOf(long nanos) {
+        return nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts events and tells their rate: the mean since creation and a one minute
+ * exponentially weighted moving average like the load average of Unix systems.
+ *
+ * Marking only adds to a {@link StripedCounter}. The moving average is brought up
+ * to date in five second ticks when someone reads it, so writers never pay for it.
+ */
+public final class Meter {
+
+    private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final double ONE_MINUTE_ALPHA = 1 - Math.exp(-5 / 60.0);
+
+    private final StripedCounter count = new StripedCounter();
+    private final long startTime;
+
+    private final ReentrantLock tickLock = new ReentrantLock();
+    private final AtomicLong lastTick;
+    private long countAtLastTick = 0;
+    private volatile boolean initialized = false;
+    private volatile double oneMinuteRate = 0;
+
+    public Meter() {
+        this(System.nanoTime());
+    }
+
+    // Times are in terms of System.nanoTime(), given by tests.
+    Meter(long startTime) {
+        this.startTime = startTime;
+        this.lastTick = new AtomicLong(startTime);
+    }
+
+    public void mark() {
+        count.add(1);
+    }
+
+    public void mark(long n) {
+        count.add(n);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return Events per second since this meter was created.
+     */
+    public double getMeanRate() {
+        long elapsed = System.nanoTime() - startTime;
+        if (elapsed <= 0) {
+            return 0;
+        }
+
+        return getCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    /**
+     * @return Events per second, averaged over about the last minute.
+     */
+    public double getOneMinuteRate() {
+        return getOneMinuteRate(System.nanoTime());
+    }
+
+    double getOneMinuteRate(long now) {
+        tickIfNecessary(now);
+        return oneMinuteRate;
+    }
+
+    private void tickIfNecessary(long now) {
+        if (now - lastTick.get() < TICK_INTERVAL || !tickLock.tryLock()) {
+            return;
+        }
+
+        try {
+            long age = now - lastTick.get();
+            if (age < TICK_INTERVAL) {
+                return;
+            }
+
+            long ticks = age / TICK_INTERVAL;
+            lastTick.set(now - age % TICK_INTERVAL);
+
+            // Nobody knows when in those ticks the events happened, so spread them evenly.
+            long current = count.sum();
+            double instantRate = (current - countAtLastTick) * (double) TimeUnit.SECONDS.toNanos(1) / (ticks * TICK_INTERVAL);
+            countAtLastTick = current;
+
+            double rate = oneMinuteRate;
+            if (initialized) {
+                // Same as applying instantRate once per tick.
+                rate = instantRate + Math.pow(1 - ONE_MINUTE_ALPHA, ticks) * (rate - instantRate);
+            } else {
+                rate = instantRate;
+                initialized = true;
+            }
+
+            oneMinuteRate = rate;
+        } finally {
+            tickLock.unlock();
+        }
+    }
+
+}
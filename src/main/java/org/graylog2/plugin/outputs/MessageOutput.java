@@ -33,6 +33,16 @@ import org.graylog2.plugin.logmessage.LogMessage;
 public interface MessageOutput {
 
     public void initialize(Map<String, String> config) throws MessageOutputConfigurationException;
+
+    /**
+     * The messages are only borrowed until write() returns and may be pooled and
+     * reset afterwards. Outputs that write asynchronously have to copy or serialize
+     * what they need before returning.
+     *
+     * Outputs that need the JSON document of a message should use
+     * LogMessage.getSerializedDocument() if it is set. The output buffer may have
+     * serialized the message once for all outputs already.
+     */
     public void write(List<LogMessage> messages, OutputStreamConfiguration streamConfiguration, GraylogServer server) throws Exception;
     public Map<String, String> getRequestedConfiguration();
     public Map<String, String> getRequestedStreamConfiguration();
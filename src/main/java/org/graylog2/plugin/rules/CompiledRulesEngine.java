@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.rules;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import org.graylog2.plugin.AbstractRulesEngine;
+import org.graylog2.plugin.RulesEngine;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * A RulesEngine that compiles the common rules of a DRL file into a
+ * {@link DecisionTree} instead of running them through a Drools session: one
+ * LogMessage pattern with literal comparisons and regular expressions, and
+ * consequences that call setFilterOut() or addAdditionalData(), see
+ * {@link RuleParser}. All other rules go to the fallback engine, usually the
+ * Drools one, through a temporary DRL file with the same package and imports.
+ * Batches go to the fallback as a batch if it extends AbstractRulesEngine.
+ *
+ * Like Drools, all conditions see the message as it was before any rule fired:
+ * compiled rules are matched first, then the fallback evaluates, then the
+ * matched compiled rules fire in the order of the files.
+ *
+ * Evaluating is thread safe and does not lock. Adding rules is not expected
+ * while messages are evaluated, but is safe.
+ */
+public class CompiledRulesEngine extends AbstractRulesEngine {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final RulesEngine fallback;
+
+    private final List<Rule> rules = new ArrayList<Rule>();
+    private final List<String> fallbackRuleNames = new ArrayList<String>();
+
+    // Replaced as a whole whenever rules are added.
+    private volatile Rule[] ruleIndex = new Rule[0];
+    private volatile DecisionTree tree = DecisionTree.build(Collections.<Rule>emptyList());
+    private volatile boolean hasFallbackRules = false;
+
+    /**
+     * Compiles rules only. Adding rules outside the compiled subset fails.
+     */
+    public CompiledRulesEngine() {
+        this(null);
+    }
+
+    /**
+     * @param fallback Gets the rules that cannot be compiled, may be null
+     */
+    public CompiledRulesEngine(RulesEngine fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the file cannot be read or parsed, or
+     *         has rules that cannot be compiled and there is no fallback
+     */
+    public synchronized void addRules(String rulesFile) {
+        String source;
+        try {
+            source = new String(Files.readAllBytes(new File(rulesFile).toPath()), UTF8);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read rules file " + rulesFile, e);
+        }
+
+        RuleParser.Result parsed = RuleParser.parse(source, rules.size());
+        if (!parsed.uncompiledNames.isEmpty()) {
+            if (fallback == null) {
+                throw new IllegalArgumentException("Rules in " + rulesFile + " cannot be compiled and there is no fallback: "
+                        + parsed.uncompiledNames);
+            }
+
+            fallback.addRules(writeTemporaryFile(parsed.getUncompiledSource()));
+            fallbackRuleNames.addAll(parsed.uncompiledNames);
+            hasFallbackRules = true;
+        }
+
+        rules.addAll(parsed.compiled);
+        // Index first: evaluating reads the tree first, so it never sees a tree with rules missing from the index.
+        ruleIndex = rules.toArray(new Rule[rules.size()]);
+        tree = DecisionTree.build(rules);
+    }
+
+    public void evaluate(LogMessage message) {
+        DecisionTree currentTree = tree;
+        Rule[] currentRules = ruleIndex;
+
+        BitSet matched = new BitSet(currentRules.length);
+        currentTree.match(message, matched);
+
+        if (hasFallbackRules) {
+            fallback.evaluate(message);
+        }
+
+        fire(message, matched, currentRules);
+    }
+
+    @Override
+    public void evaluate(List<LogMessage> messages) {
+        DecisionTree currentTree = tree;
+        Rule[] currentRules = ruleIndex;
+
+        // Remember the matches, the fallback has to see the messages unchanged.
+        BitSet[] matched = new BitSet[messages.size()];
+        BitSet scratch = new BitSet(currentRules.length);
+        for (int i = 0; i < matched.length; i++) {
+            currentTree.match(messages.get(i), scratch);
+            if (!scratch.isEmpty()) {
+                matched[i] = (BitSet) scratch.clone();
+                scratch.clear();
+            }
+        }
+
+        if (hasFallbackRules) {
+            AbstractRulesEngine.evaluate(fallback, messages);
+        }
+
+        for (int i = 0; i < matched.length; i++) {
+            if (matched[i] != null) {
+                fire(messages.get(i), matched[i], currentRules);
+            }
+        }
+    }
+
+    /**
+     * @return Number of rules that were compiled.
+     */
+    public synchronized int getCompiledRuleCount() {
+        return rules.size();
+    }
+
+    /**
+     * @return Names of the rules that were handed to the fallback engine.
+     */
+    public synchronized List<String> getFallbackRuleNames() {
+        return new ArrayList<String>(fallbackRuleNames);
+    }
+
+    private static void fire(LogMessage message, BitSet matched, Rule[] rules) {
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            rules[i].fire(message);
+        }
+    }
+
+    private static String writeTemporaryFile(String source) {
+        try {
+            File file = File.createTempFile("graylog2-rules-", ".drl");
+            file.deleteOnExit();
+
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(source.getBytes(UTF8));
+            } finally {
+                out.close();
+            }
+
+            return file.getAbsolutePath();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write rules for the fallback engine.", e);
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.rules;
+
+import java.util.regex.Pattern;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * One compiled constraint of a rule: a message field compared to a literal.
+ * A missing string satisfies neither matches nor not matches and is only
+ * unequal to a literal.
+ */
+final class Condition {
+
+    enum Operator { EQUAL, NOT_EQUAL, LESS, LESS_OR_EQUAL, GREATER, GREATER_OR_EQUAL, MATCHES, NOT_MATCHES }
+
+    private final MessageField field;
+    private final Operator operator;
+    private final Object value;
+    private final Pattern pattern;
+
+    /**
+     * @param value A String for string fields, a Long for numeric fields
+     * @throws IllegalArgumentException if the operator or value does not fit the
+     *         field, or the regular expression is invalid
+     */
+    Condition(MessageField field, Operator operator, Object value) {
+        boolean regex = operator == Operator.MATCHES || operator == Operator.NOT_MATCHES;
+        boolean ordering = !regex && operator != Operator.EQUAL && operator != Operator.NOT_EQUAL;
+        if (field.isNumeric()) {
+            if (regex) {
+                throw new IllegalArgumentException(field.getProperty() + " is numeric and cannot be matched with " + operator + ".");
+            }
+            if (!(value instanceof Long)) {
+                throw new IllegalArgumentException(field.getProperty() + " is numeric and can only be compared with a Long, not " + value + ".");
+            }
+        } else {
+            if (ordering) {
+                throw new IllegalArgumentException(field.getProperty() + " is not numeric and cannot be compared with " + operator + ".");
+            }
+            if (!(value instanceof String)) {
+                throw new IllegalArgumentException(field.getProperty() + " can only be compared with a String, not " + value + ".");
+            }
+        }
+
+        this.field = field;
+        this.operator = operator;
+        this.value = value;
+        this.pattern = regex ? Pattern.compile((String) value) : null;
+    }
+
+    MessageField getField() {
+        return field;
+    }
+
+    Operator getOperator() {
+        return operator;
+    }
+
+    Object getValue() {
+        return value;
+    }
+
+    boolean matches(LogMessage message) {
+        if (field.isNumeric()) {
+            long actual = field.getLong(message);
+            long expected = (Long) value;
+            switch (operator) {
+                case EQUAL: return actual == expected;
+                case NOT_EQUAL: return actual != expected;
+                case LESS: return actual < expected;
+                case LESS_OR_EQUAL: return actual <= expected;
+                case GREATER: return actual > expected;
+                case GREATER_OR_EQUAL: return actual >= expected;
+                default: return false;
+            }
+        }
+
+        String actual = (String) field.get(message);
+        switch (operator) {
+            case EQUAL: return value.equals(actual);
+            case NOT_EQUAL: return !value.equals(actual);
+            case MATCHES: return actual != null && pattern.matcher(actual).matches();
+            case NOT_MATCHES: return actual != null && !pattern.matcher(actual).matches();
+            default: return false;
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.rules;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * Finds the rules that match a message without testing every rule. Each node
+ * switches on the field that most of its rules test for equality, for example
+ * host == "...", with one hash lookup. Rules that do not test that field are
+ * matched in the rest of the node. Leaves test the remaining conditions rule
+ * by rule.
+ */
+final class DecisionTree {
+
+    // Only switch on a field if at least this many rules test it.
+    private static final int MIN_RULES_TO_SWITCH = 2;
+
+    private final MessageField field;
+    private final Map<Object, DecisionTree> branches;
+    private final DecisionTree rest;
+
+    private final Rule[] rules;
+    private final Condition[][] conditions;
+
+    private DecisionTree(MessageField field, Map<Object, DecisionTree> branches, DecisionTree rest) {
+        this.field = field;
+        this.branches = branches;
+        this.rest = rest;
+        this.rules = null;
+        this.conditions = null;
+    }
+
+    private DecisionTree(List<Entry> entries) {
+        this.field = null;
+        this.branches = null;
+        this.rest = null;
+        this.rules = new Rule[entries.size()];
+        this.conditions = new Condition[entries.size()][];
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = entries.get(i).rule;
+            conditions[i] = entries.get(i).conditions.toArray(new Condition[0]);
+        }
+    }
+
+    static DecisionTree build(List<Rule> rules) {
+        List<Entry> entries = new ArrayList<Entry>(rules.size());
+        for (Rule rule : rules) {
+            entries.add(new Entry(rule, new ArrayList<Condition>(rule.getConditions())));
+        }
+
+        return buildNode(entries);
+    }
+
+    /**
+     * Sets the index of every rule that matches the message.
+     */
+    void match(LogMessage message, BitSet matched) {
+        if (rules != null) {
+            for (int i = 0; i < rules.length; i++) {
+                if (allMatch(conditions[i], message)) {
+                    matched.set(rules[i].getIndex());
+                }
+            }
+            return;
+        }
+
+        DecisionTree branch = branches.get(field.get(message));
+        if (branch != null) {
+            branch.match(message, matched);
+        }
+        if (rest != null) {
+            rest.match(message, matched);
+        }
+    }
+
+    private static boolean allMatch(Condition[] conditions, LogMessage message) {
+        for (int i = 0; i < conditions.length; i++) {
+            if (!conditions[i].matches(message)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static DecisionTree buildNode(List<Entry> entries) {
+        MessageField best = null;
+        int bestCount = MIN_RULES_TO_SWITCH - 1;
+        Map<MessageField, Integer> counts = new EnumMap<MessageField, Integer>(MessageField.class);
+        for (Entry entry : entries) {
+            for (MessageField tested : entry.equalityFields()) {
+                Integer count = counts.get(tested);
+                count = count == null ? 1 : count + 1;
+                counts.put(tested, count);
+                if (count > bestCount) {
+                    best = tested;
+                    bestCount = count;
+                }
+            }
+        }
+
+        if (best == null) {
+            return new DecisionTree(entries);
+        }
+
+        Map<Object, List<Entry>> byValue = new LinkedHashMap<Object, List<Entry>>();
+        List<Entry> others = new ArrayList<Entry>();
+        for (Entry entry : entries) {
+            Condition equality = entry.removeEquality(best);
+            if (equality == null) {
+                others.add(entry);
+                continue;
+            }
+
+            List<Entry> group = byValue.get(equality.getValue());
+            if (group == null) {
+                group = new ArrayList<Entry>();
+                byValue.put(equality.getValue(), group);
+            }
+            group.add(entry);
+        }
+
+        Map<Object, DecisionTree> branches = new HashMap<Object, DecisionTree>();
+        for (Map.Entry<Object, List<Entry>> group : byValue.entrySet()) {
+            branches.put(group.getKey(), buildNode(group.getValue()));
+        }
+
+        return new DecisionTree(best, branches, others.isEmpty() ? null : buildNode(others));
+    }
+
+    // A rule and the conditions not yet decided by the nodes above.
+    private static class Entry {
+
+        final Rule rule;
+        final List<Condition> conditions;
+
+        Entry(Rule rule, List<Condition> conditions) {
+            this.rule = rule;
+            this.conditions = conditions;
+        }
+
+        List<MessageField> equalityFields() {
+            List<MessageField> fields = new ArrayList<MessageField>();
+            for (Condition condition : conditions) {
+                if (condition.getOperator() == Condition.Operator.EQUAL && !fields.contains(condition.getField())) {
+                    fields.add(condition.getField());
+                }
+            }
+
+            return fields;
+        }
+
+        Condition removeEquality(MessageField field) {
+            for (int i = 0; i < conditions.size(); i++) {
+                Condition condition = conditions.get(i);
+                if (condition.getField() == field && condition.getOperator() == Condition.Operator.EQUAL) {
+                    return conditions.remove(i);
+                }
+            }
+
+            return null;
+        }
+
+    }
+
+}
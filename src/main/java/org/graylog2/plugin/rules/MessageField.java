@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.rules;
+
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * The LogMessage properties compiled rules can test, by their bean names as
+ * used in DRL.
+ */
+enum MessageField {
+
+    HOST("host", false) {
+        Object get(LogMessage message) {
+            return message.getHost();
+        }
+    },
+    FACILITY("facility", false) {
+        Object get(LogMessage message) {
+            return message.getFacility();
+        }
+    },
+    SHORT_MESSAGE("shortMessage", false) {
+        Object get(LogMessage message) {
+            return message.getShortMessage();
+        }
+    },
+    FULL_MESSAGE("fullMessage", false) {
+        Object get(LogMessage message) {
+            return message.getFullMessage();
+        }
+    },
+    FILE("file", false) {
+        Object get(LogMessage message) {
+            return message.getFile();
+        }
+    },
+    LEVEL("level", true) {
+        Object get(LogMessage message) {
+            return Long.valueOf(message.getLevel());
+        }
+
+        @Override
+        long getLong(LogMessage message) {
+            return message.getLevel();
+        }
+    },
+    LINE("line", true) {
+        Object get(LogMessage message) {
+            return Long.valueOf(message.getLine());
+        }
+
+        @Override
+        long getLong(LogMessage message) {
+            return message.getLine();
+        }
+    };
+
+    private final String property;
+    private final boolean numeric;
+
+    private MessageField(String property, boolean numeric) {
+        this.property = property;
+        this.numeric = numeric;
+    }
+
+    /**
+     * @return The value of the field, a String or a Long for numeric fields.
+     */
+    abstract Object get(LogMessage message);
+
+    /**
+     * Only called for numeric fields, a {@link Condition} does not accept numeric
+     * operators or values for the others.
+     *
+     * @return The value of a numeric field, without boxing.
+     */
+    long getLong(LogMessage message) {
+        return (Long) get(message);
+    }
+
+    boolean isNumeric() {
+        return numeric;
+    }
+
+    String getProperty() {
+        return property;
+    }
+
+    /**
+     * @return The field with the given property name, or null if compiled rules cannot test it.
+     */
+    static MessageField forProperty(String property) {
+        for (MessageField field : values()) {
+            if (field.property.equals(property)) {
+                return field;
+            }
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.rules;
+
+import java.util.Collections;
+import java.util.List;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+/**
+ * A compiled rule: all conditions must hold, then the actions run in order.
+ */
+final class Rule {
+
+    /**
+     * A compiled consequence statement.
+     */
+    static final class Action {
+
+        private final String fieldKey;
+        private final Object value;
+
+        private Action(String fieldKey, Object value) {
+            this.fieldKey = fieldKey;
+            this.value = value;
+        }
+
+        // m.setFilterOut(filterOut);
+        static Action filterOut(boolean filterOut) {
+            return new Action(null, filterOut);
+        }
+
+        // m.addAdditionalData(key, value);
+        static Action addField(String key, Object value) {
+            return new Action(key, value);
+        }
+
+        void apply(LogMessage message) {
+            if (fieldKey == null) {
+                message.setFilterOut((Boolean) value);
+            } else {
+                message.addAdditionalData(fieldKey, value);
+            }
+        }
+
+    }
+
+    private final String name;
+    private final int index;
+    private final List<Condition> conditions;
+    private final List<Action> actions;
+
+    /**
+     * @param index Position of the rule among all rules of the engine, rules fire in this order
+     */
+    Rule(String name, int index, List<Condition> conditions, List<Action> actions) {
+        this.name = name;
+        this.index = index;
+        this.conditions = Collections.unmodifiableList(conditions);
+        this.actions = Collections.unmodifiableList(actions);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    List<Condition> getConditions() {
+        return conditions;
+    }
+
+    void fire(LogMessage message) {
+        for (int i = 0; i < actions.size(); i++) {
+            actions.get(i).apply(message);
+        }
+    }
+
+}
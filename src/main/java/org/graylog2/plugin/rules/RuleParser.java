@@ -0,0 +1,463 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.graylog2.plugin.rules.Condition.Operator;
+
+/**
+ * Reads a DRL file and compiles the rules that stay within a simple subset:
+ *
+ * <pre>
+ * rule "name"
+ *     when
+ *         m : LogMessage( host == "example.org", level &lt;= 3 &amp;&amp; shortMessage matches ".*timeout.*" )
+ *     then
+ *         m.addAdditionalData("_slow", "true");
+ *         m.setFilterOut(true);
+ * end
+ * </pre>
+ *
+ * One LogMessage pattern whose constraints compare a {@link MessageField} with a
+ * literal, joined by "," or "&amp;&amp;". The consequence only calls setFilterOut()
+ * and addAdditionalData() with literals. Rules with attributes, other patterns,
+ * "||", nested expressions or any other statement are not compiled; their text
+ * is kept for Drools, together with everything outside of rules (package,
+ * imports, globals, functions).
+ */
+final class RuleParser {
+
+    /**
+     * What came out of one DRL file.
+     */
+    static final class Result {
+
+        final List<Rule> compiled = new ArrayList<Rule>();
+        final List<String> uncompiledNames = new ArrayList<String>();
+        final StringBuilder header = new StringBuilder();
+        final StringBuilder uncompiled = new StringBuilder();
+
+        /**
+         * @return The header and all rules that were not compiled, as DRL.
+         */
+        String getUncompiledSource() {
+            return header.toString() + "\n" + uncompiled.toString();
+        }
+
+    }
+
+    private enum Type { IDENTIFIER, STRING, NUMBER, SYMBOL }
+
+    private static final class Token {
+
+        final Type type;
+        final String text;
+        final int start;
+        final int end;
+
+        Token(Type type, String text, int start, int end) {
+            this.type = type;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean is(String s) {
+            return type != Type.STRING && text.equals(s);
+        }
+
+    }
+
+    private final String source;
+    private final List<Token> tokens;
+    private int pos;
+
+    private RuleParser(String source) {
+        this.source = source;
+        this.tokens = tokenize(source);
+    }
+
+    /**
+     * @param firstIndex Index of the first compiled rule, see {@link Rule#getIndex()}
+     * @throws IllegalArgumentException if the file is not even well-formed enough to find the rules in it
+     */
+    static Result parse(String source, int firstIndex) {
+        return new RuleParser(source).parse(firstIndex);
+    }
+
+    private Result parse(int firstIndex) {
+        Result result = new Result();
+        int copied = 0;
+        while (pos < tokens.size()) {
+            Token token = tokens.get(pos);
+            if (isKeyword(pos, "rule")) {
+                result.header.append(source, copied, token.start);
+                int start = pos;
+                int end = findEnd(start);
+                Rule rule = compileRule(start + 1, end, firstIndex + result.compiled.size());
+                if (rule != null) {
+                    result.compiled.add(rule);
+                } else {
+                    result.uncompiled.append(source, token.start, tokens.get(end).end).append('\n');
+                    result.uncompiledNames.add(tokens.get(start + 1).text);
+                }
+                copied = tokens.get(end).end;
+                pos = end + 1;
+            } else if (isKeyword(pos, "query") || isKeyword(pos, "declare") || isKeyword(pos, "template")) {
+                pos = findEnd(pos) + 1;
+            } else if (isKeyword(pos, "function")) {
+                pos = skipBlock(pos);
+            } else {
+                pos++;
+            }
+        }
+        result.header.append(source, copied, source.length());
+
+        return result;
+    }
+
+    private int findEnd(int from) {
+        for (int i = from + 1; i < tokens.size(); i++) {
+            if (isKeyword(i, "end")) {
+                return i;
+            }
+        }
+
+        throw new IllegalArgumentException("Missing end of " + tokens.get(from).text + " at offset " + tokens.get(from).start);
+    }
+
+    // Keywords are not reserved in names, like in import com.example.rule.Helper.
+    private boolean isKeyword(int index, String keyword) {
+        return tokens.get(index).is(keyword)
+                && (index == 0 || !tokens.get(index - 1).is("."))
+                && (index + 1 == tokens.size() || !tokens.get(index + 1).is("."));
+    }
+
+    // Skips past the first balanced {} block.
+    private int skipBlock(int from) {
+        int depth = 0;
+        for (int i = from; i < tokens.size(); i++) {
+            if (tokens.get(i).is("{")) {
+                depth++;
+            } else if (tokens.get(i).is("}") && --depth == 0) {
+                return i + 1;
+            }
+        }
+
+        throw new IllegalArgumentException("Unbalanced function at offset " + tokens.get(from).start);
+    }
+
+    /**
+     * @param from Index of the token after "rule"
+     * @param end Index of the "end" token
+     * @return The rule, or null if it is outside of the compiled subset
+     */
+    private Rule compileRule(int from, int end, int index) {
+        Cursor c = new Cursor(from, end);
+
+        Token name = c.next();
+        if (name == null || (name.type != Type.STRING && name.type != Type.IDENTIFIER) || !c.accept("when")) {
+            return null;
+        }
+
+        // Optional binding, then the LogMessage pattern.
+        String binding = null;
+        if (c.peekAhead(1) != null && c.peekAhead(1).is(":")) {
+            binding = c.next().text;
+            c.next();
+        }
+        if (!acceptLogMessageType(c) || !c.accept("(")) {
+            return null;
+        }
+
+        List<Condition> conditions = new ArrayList<Condition>();
+        if (!c.accept(")")) {
+            do {
+                Condition condition = compileCondition(c);
+                if (condition == null) {
+                    return null;
+                }
+                conditions.add(condition);
+            } while (c.accept(",") || c.accept("&&"));
+
+            if (!c.accept(")")) {
+                return null;
+            }
+        }
+
+        if (!c.accept("then")) {
+            return null;
+        }
+
+        List<Rule.Action> actions = new ArrayList<Rule.Action>();
+        while (!c.atEnd()) {
+            Rule.Action action = compileAction(c, binding);
+            if (action == null) {
+                return null;
+            }
+            actions.add(action);
+        }
+
+        return new Rule(name.text, index, conditions, actions);
+    }
+
+    private static boolean acceptLogMessageType(Cursor c) {
+        Token type = c.next();
+        while (type != null && type.type == Type.IDENTIFIER && c.accept(".")) {
+            type = c.next();
+        }
+
+        return type != null && type.is("LogMessage");
+    }
+
+    private static Condition compileCondition(Cursor c) {
+        Token property = c.next();
+        if (property == null || property.type != Type.IDENTIFIER) {
+            return null;
+        }
+        MessageField field = MessageField.forProperty(property.text);
+        if (field == null) {
+            return null;
+        }
+
+        Operator operator;
+        if (c.accept("==")) {
+            operator = Operator.EQUAL;
+        } else if (c.accept("!=")) {
+            operator = Operator.NOT_EQUAL;
+        } else if (c.accept("<=")) {
+            operator = Operator.LESS_OR_EQUAL;
+        } else if (c.accept(">=")) {
+            operator = Operator.GREATER_OR_EQUAL;
+        } else if (c.accept("<")) {
+            operator = Operator.LESS;
+        } else if (c.accept(">")) {
+            operator = Operator.GREATER;
+        } else if (c.accept("matches")) {
+            operator = Operator.MATCHES;
+        } else if (c.accept("not") && c.accept("matches")) {
+            operator = Operator.NOT_MATCHES;
+        } else {
+            return null;
+        }
+
+        Object value;
+        if (field.isNumeric()) {
+            Long number = integerLiteral(c);
+            if (number == null || operator == Operator.MATCHES || operator == Operator.NOT_MATCHES) {
+                return null;
+            }
+            value = number;
+        } else {
+            Token literal = c.next();
+            boolean ordering = operator != Operator.EQUAL && operator != Operator.NOT_EQUAL
+                    && operator != Operator.MATCHES && operator != Operator.NOT_MATCHES;
+            if (literal == null || literal.type != Type.STRING || ordering) {
+                return null;
+            }
+            value = literal.text;
+        }
+
+        try {
+            return new Condition(field, operator, value);
+        } catch (IllegalArgumentException e) {
+            // Regular expression Java does not understand, let Drools report it.
+            return null;
+        }
+    }
+
+    private static Rule.Action compileAction(Cursor c, String binding) {
+        Token target = c.next();
+        if (binding == null || target == null || !target.is(binding) || !c.accept(".")) {
+            return null;
+        }
+
+        Token method = c.next();
+        if (method == null || !c.accept("(")) {
+            return null;
+        }
+
+        Rule.Action action;
+        if (method.is("setFilterOut")) {
+            Token flag = c.next();
+            if (flag == null || !(flag.is("true") || flag.is("false"))) {
+                return null;
+            }
+            action = Rule.Action.filterOut(flag.is("true"));
+        } else if (method.is("addAdditionalData")) {
+            Token key = c.next();
+            if (key == null || key.type != Type.STRING || !c.accept(",")) {
+                return null;
+            }
+            Object value = literal(c);
+            if (value == null) {
+                return null;
+            }
+            action = Rule.Action.addField(key.text, value);
+        } else {
+            return null;
+        }
+
+        return c.accept(")") && c.accept(";") ? action : null;
+    }
+
+    // A string, integer or decimal literal as the Java compiler would box it.
+    private static Object literal(Cursor c) {
+        Token token = c.peekAhead(0);
+        if (token != null && token.type == Type.STRING) {
+            return c.next().text;
+        }
+
+        boolean negative = c.accept("-");
+        Token number = c.next();
+        if (number == null || number.type != Type.NUMBER) {
+            return null;
+        }
+
+        String text = negative ? "-" + number.text : number.text;
+        try {
+            if (text.indexOf('.') >= 0) {
+                return Double.valueOf(text);
+            }
+            return Integer.valueOf(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Long integerLiteral(Cursor c) {
+        boolean negative = c.accept("-");
+        Token number = c.next();
+        if (number == null || number.type != Type.NUMBER) {
+            return null;
+        }
+
+        try {
+            return Long.valueOf(negative ? "-" + number.text : number.text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Walks the tokens of one rule.
+    private final class Cursor {
+
+        private int index;
+        private final int end;
+
+        Cursor(int from, int end) {
+            this.index = from;
+            this.end = end;
+        }
+
+        boolean atEnd() {
+            return index >= end;
+        }
+
+        Token next() {
+            return index < end ? tokens.get(index++) : null;
+        }
+
+        Token peekAhead(int n) {
+            return index + n < end ? tokens.get(index + n) : null;
+        }
+
+        boolean accept(String text) {
+            if (index < end && tokens.get(index).is(text)) {
+                index++;
+                return true;
+            }
+
+            return false;
+        }
+
+    }
+
+    private static List<Token> tokenize(String s) {
+        List<Token> tokens = new ArrayList<Token>();
+        int i = 0;
+        int length = s.length();
+        while (i < length) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '#' || (c == '/' && i + 1 < length && s.charAt(i + 1) == '/')) {
+                while (i < length && s.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < length && s.charAt(i + 1) == '*') {
+                int close = s.indexOf("*/", i + 2);
+                i = close < 0 ? length : close + 2;
+            } else if (c == '"' || c == '\'') {
+                int start = i;
+                StringBuilder text = new StringBuilder();
+                i++;
+                while (i < length && s.charAt(i) != c) {
+                    char ch = s.charAt(i++);
+                    if (ch == '\\' && i < length) {
+                        ch = s.charAt(i++);
+                        switch (ch) {
+                            case 'n': ch = '\n'; break;
+                            case 'r': ch = '\r'; break;
+                            case 't': ch = '\t'; break;
+                            case 'b': ch = '\b'; break;
+                            case 'f': ch = '\f'; break;
+                            default: break;
+                        }
+                    }
+                    text.append(ch);
+                }
+                if (i >= length) {
+                    throw new IllegalArgumentException("Unterminated string at offset " + start);
+                }
+                i++;
+                tokens.add(new Token(Type.STRING, text.toString(), start, i));
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                while (i < length && Character.isJavaIdentifierPart(s.charAt(i))) {
+                    i++;
+                }
+                tokens.add(new Token(Type.IDENTIFIER, s.substring(start, i), start, i));
+            } else if (Character.isDigit(c)) {
+                int start = i;
+                while (i < length && (Character.isDigit(s.charAt(i)) || s.charAt(i) == '.')) {
+                    i++;
+                }
+                tokens.add(new Token(Type.NUMBER, s.substring(start, i), start, i));
+            } else {
+                int start = i;
+                String two = i + 1 < length ? s.substring(i, i + 2) : "";
+                if (two.equals("==") || two.equals("!=") || two.equals("<=") || two.equals(">=")
+                        || two.equals("&&") || two.equals("||")) {
+                    i += 2;
+                } else {
+                    i++;
+                }
+                tokens.add(new Token(Type.SYMBOL, s.substring(start, i), start, i));
+            }
+        }
+
+        return tokens;
+    }
+
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+public class AbstractRulesEngineTest extends TestCase {
+
+    public void testBatchDefaultsToSingleMessages() {
+        final List<LogMessage> seen = new ArrayList<LogMessage>();
+        AbstractRulesEngine engine = new AbstractRulesEngine() {
+            public void addRules(String rulesFile) {
+            }
+
+            public void evaluate(LogMessage message) {
+                seen.add(message);
+            }
+        };
+        List<LogMessage> batch = Arrays.asList(new LogMessage(), new LogMessage());
+
+        engine.evaluate(batch);
+
+        assertEquals(batch, seen);
+    }
+
+    public void testHelperTakesTheBatchPathIfThereIsOne() {
+        final List<String> calls = new ArrayList<String>();
+        RulesEngine batching = new AbstractRulesEngine() {
+            public void addRules(String rulesFile) {
+            }
+
+            public void evaluate(LogMessage message) {
+                calls.add("single");
+            }
+
+            @Override
+            public void evaluate(List<LogMessage> messages) {
+                calls.add("batch of " + messages.size());
+            }
+        };
+        RulesEngine plain = new RulesEngine() {
+            public void addRules(String rulesFile) {
+            }
+
+            public void evaluate(LogMessage message) {
+                calls.add("plain");
+            }
+        };
+        List<LogMessage> batch = Arrays.asList(new LogMessage(), new LogMessage());
+
+        AbstractRulesEngine.evaluate(batching, batch);
+        AbstractRulesEngine.evaluate(plain, batch);
+
+        assertEquals(Arrays.asList("batch of 2", "plain", "plain"), calls);
+    }
+
+}
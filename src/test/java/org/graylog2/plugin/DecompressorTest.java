@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import junit.framework.TestCase;
+
+public class DecompressorTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public void testGzipSingleMember() throws IOException {
+        byte[] data = gzip("hello world");
+        assertEquals("hello world", Tools.decompressGzip(data, 0, data.length));
+    }
+
+    public void testGzipConcatenatedMembers() throws IOException {
+        byte[] data = concat(gzip("first "), gzip(""), gzip("second "), gzip(repeat("third", 5000)));
+        String expected = "first second " + repeat("third", 5000);
+
+        assertEquals(expected, Tools.decompressGzip(data, 0, data.length));
+
+        StringBuilder sb = new StringBuilder();
+        assertEquals(expected.length(), Tools.decompressGzip(data, 0, data.length, sb));
+        assertEquals(expected, sb.toString());
+
+        ByteBuffer heap = ByteBuffer.allocate(expected.length() + 10);
+        assertEquals(expected.length(), Tools.decompressGzip(data, 0, data.length, heap));
+        assertEquals(expected, new String(heap.array(), 0, heap.position(), UTF_8));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(expected.length());
+        assertEquals(expected.length(), Tools.decompressGzip(data, 0, data.length, direct));
+    }
+
+    public void testGzipWithOffsetAndTrailingGarbage() throws IOException {
+        byte[] members = concat(gzip("a"), gzip("b"));
+        byte[] data = concat(new byte[] { 9, 9, 9 }, members, new byte[] { 0, 0, 0, 0 });
+
+        assertEquals("ab", Tools.decompressGzip(data, 3, members.length + 4));
+    }
+
+    public void testGzipTruncatedSecondMember() throws IOException {
+        byte[] second = gzip("second");
+        byte[] data = concat(gzip("first"), second);
+
+        try {
+            Tools.decompressGzip(data, 0, data.length - 4);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testGzipCorruptTrailer() throws IOException {
+        byte[] data = gzip("payload");
+        data[data.length - 5] ^= 1;
+
+        try {
+            Tools.decompressGzip(data, 0, data.length);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testZlib() throws IOException {
+        byte[] input = repeat("zlib", 3000).getBytes(UTF_8);
+        Deflater deflater = new Deflater();
+        deflater.setInput(input);
+        deflater.finish();
+        byte[] buf = new byte[input.length];
+        int n = deflater.deflate(buf);
+        deflater.end();
+
+        assertEquals(repeat("zlib", 3000), Tools.decompressZlib(buf, 0, n));
+    }
+
+    private static byte[] gzip(String s) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(s.getBytes(UTF_8));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import junit.framework.TestCase;
+
+public class TimestampFormatterTest extends TestCase {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private TimeZone defaultZone;
+
+    @Override
+    protected void setUp() {
+        defaultZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() {
+        TimeZone.setDefault(defaultZone);
+    }
+
+    public void testHistogramFormatMatchesCalendarFormatting() {
+        for (String zone : new String[] { "UTC", "Europe/Moscow", "America/New_York", "Asia/Kolkata", "Australia/Lord_Howe" }) {
+            TimeZone.setDefault(TimeZone.getTimeZone(zone));
+            TimestampFormatter formatter = new TimestampFormatter();
+
+            for (long millis : timestamps()) {
+                assertEquals(zone + " " + millis, calendarFormat(millis),
+                        format(formatter, millis, TimestampFormat.ELASTICSEARCH_HISTOGRAM));
+            }
+        }
+    }
+
+    public void testIso8601MatchesSimpleDateFormat() {
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        TimestampFormatter formatter = new TimestampFormatter();
+
+        SimpleDateFormat reference = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        reference.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        for (long millis : timestamps()) {
+            assertEquals(String.valueOf(millis), reference.format(new Date(millis)),
+                    format(formatter, millis, TimestampFormat.ISO_8601));
+        }
+    }
+
+    public void testLengthMatchesFormat() {
+        TimestampFormatter formatter = new TimestampFormatter();
+        for (TimestampFormat format : TimestampFormat.values()) {
+            assertEquals(format.name(), format.getLength(), format(formatter, 1350000000123L, format).length());
+        }
+    }
+
+    public void testWritesAtOffset() {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        TimestampFormatter formatter = new TimestampFormatter();
+
+        byte[] dst = new byte[40];
+        int length = formatter.format(0, TimestampFormat.ISO_8601, dst, 5);
+
+        assertEquals(0, dst[4]);
+        assertEquals("1970-01-01T00:00:00.000Z", new String(dst, 5, length, US_ASCII));
+        assertEquals(0, dst[5 + length]);
+    }
+
+    public void testToolsCachesPerSecondButNotAcrossSeconds() {
+        long second = 1350000000000L;
+        assertEquals(Tools.format(second), Tools.format(second + 999));
+        assertFalse(Tools.format(second).equals(Tools.format(second + 1000)));
+        assertFalse(Tools.format(second, TimestampFormat.ISO_8601).equals(Tools.format(second + 1, TimestampFormat.ISO_8601)));
+    }
+
+    private static long[] timestamps() {
+        long[] result = new long[20000];
+        int i = 0;
+
+        // Around the epoch, leap days and the DST changes of the zones above.
+        long[] edges = {
+                0L, 951782400000L, 951868800000L, 1079827200000L, 1206831600000L,
+                1288486800000L, 1301184000000L, 1351385999999L, 1351386000000L, 4102444799999L
+        };
+        for (long edge : edges) {
+            for (long delta = -3 * 3600000L; delta <= 3 * 3600000L && i < 10000; delta += 1800000L - 1) {
+                result[i++] = edge + delta;
+            }
+        }
+
+        // 1971 to 2099.
+        Random random = new Random(42);
+        while (i < result.length) {
+            result[i++] = 31536000000L + (long) (random.nextDouble() * 4070000000000L);
+        }
+
+        return result;
+    }
+
+    private static String format(TimestampFormatter formatter, long millis, TimestampFormat format) {
+        byte[] dst = new byte[32];
+        return new String(dst, 0, formatter.format(millis, format, dst, 0), US_ASCII);
+    }
+
+    // What Tools.format() did before TimestampFormatter.
+    private static String calendarFormat(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+
+        return String.format("%d-%02d-%02d %02d-%02d-%02d",
+                calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH) + 1,
+                calendar.get(Calendar.DAY_OF_MONTH),
+                calendar.get(Calendar.HOUR_OF_DAY),
+                calendar.get(Calendar.MINUTE),
+                calendar.get(Calendar.SECOND));
+    }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+public class AbstractBufferTest extends TestCase {
+
+    private final QueueBuffer buffer = new QueueBuffer(2);
+    private final List<String> events = new ArrayList<String>();
+
+    @Override
+    protected void setUp() {
+        buffer.addCapacityListener(new CapacityListener() {
+            public void capacityExhausted(Buffer b) {
+                events.add("exhausted");
+            }
+
+            public void capacityRestored(Buffer b) {
+                events.add("restored");
+            }
+        });
+    }
+
+    public void testFallbackSignalsExhaustedAndRestored() {
+        assertEquals(InsertStatus.ACCEPTED, buffer.tryInsert(new LogMessage()));
+        assertEquals(InsertStatus.ACCEPTED, buffer.tryInsert(new LogMessage()));
+        assertTrue(events.isEmpty());
+
+        assertEquals(InsertStatus.FULL, buffer.tryInsert(new LogMessage()));
+        assertEquals(InsertStatus.FULL, buffer.tryInsert(new LogMessage()));
+        assertEquals(Arrays.asList("exhausted"), events);
+
+        buffer.queue.poll();
+        assertEquals(InsertStatus.ACCEPTED, buffer.tryInsert(new LogMessage()));
+        assertEquals(Arrays.asList("exhausted", "restored"), events);
+        assertFalse(buffer.isCapacityExhausted());
+    }
+
+    public void testInsertAllStopsAtFirstRejected() {
+        List<LogMessage> batch = Arrays.asList(new LogMessage(), new LogMessage(), new LogMessage());
+
+        assertEquals(2, buffer.insertAll(batch));
+        assertSame(batch.get(0), buffer.queue.peek());
+        assertEquals(Arrays.asList("exhausted"), events);
+    }
+
+    public void testTimedInsertGivesUp() throws InterruptedException {
+        buffer.insertAll(Arrays.asList(new LogMessage(), new LogMessage()));
+
+        long start = System.nanoTime();
+        assertFalse(buffer.insert(new LogMessage(), 20, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    public void testMetricsCountFallbackInserts() {
+        buffer.insertAll(Arrays.asList(new LogMessage(), new LogMessage(), new LogMessage()));
+
+        assertEquals(2, buffer.getMetrics().getEnqueuedCount());
+        assertEquals(1, buffer.getMetrics().getRejectedCount());
+    }
+
+    // Only implements what the Buffer interface asks for.
+    private static class QueueBuffer extends AbstractBuffer {
+
+        final Queue<LogMessage> queue = new LinkedList<LogMessage>();
+        private final int capacity;
+
+        QueueBuffer(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public void insert(LogMessage message) throws BufferOutOfCapacityException {
+            if (!hasCapacity()) {
+                throw new BufferOutOfCapacityException();
+            }
+            queue.add(message);
+        }
+
+        public boolean hasCapacity() {
+            return queue.size() < capacity;
+        }
+
+    }
+
+}
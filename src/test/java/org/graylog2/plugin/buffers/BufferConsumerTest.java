@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+public class BufferConsumerTest extends TestCase {
+
+    private final RingBuffer buffer = new RingBuffer(1024);
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private final ThreadFactory factory = new ThreadFactory() {
+        private final ThreadFactory platform = Executors.defaultThreadFactory();
+
+        public synchronized Thread newThread(Runnable r) {
+            Thread thread = platform.newThread(r);
+            thread.setDaemon(true);
+            threads.add(thread);
+            return thread;
+        }
+    };
+
+    public void testEveryMessageIsHandledOnce() throws Exception {
+        final int total = 10000;
+        final AtomicInteger[] handled = new AtomicInteger[total];
+        for (int i = 0; i < total; i++) {
+            handled[i] = new AtomicInteger();
+        }
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+
+        BufferConsumer consumer = new BufferConsumer(buffer, new MessageHandler() {
+            public void handle(List<LogMessage> messages) {
+                if (messages.isEmpty() || messages.size() > 16) {
+                    failure.set("Batch of " + messages.size());
+                }
+                for (LogMessage message : messages) {
+                    handled[Integer.parseInt(message.getShortMessage())].incrementAndGet();
+                    count.incrementAndGet();
+                }
+            }
+        }, 4, 16, factory);
+        consumer.start();
+        try {
+            for (int i = 0; i < total; i++) {
+                assertTrue(buffer.insert(message(i), 10, TimeUnit.SECONDS));
+            }
+            waitFor(count, total);
+        } finally {
+            consumer.stop();
+        }
+
+        assertNull(failure.get(), failure.get());
+        for (int i = 0; i < total; i++) {
+            assertEquals("Message " + i, 1, handled[i].get());
+        }
+    }
+
+    public void testStartsWorkersFromTheFactoryAndStopsThem() throws Exception {
+        BufferConsumer consumer = new BufferConsumer(buffer, new MessageHandler() {
+            public void handle(List<LogMessage> messages) {
+            }
+        }, 3, 8, factory);
+        consumer.start();
+        assertEquals(3, threads.size());
+        for (Thread thread : threads) {
+            assertTrue(thread.isAlive());
+        }
+
+        consumer.stop();
+        for (Thread thread : threads) {
+            assertFalse(thread.isAlive());
+        }
+    }
+
+    public void testHandlerErrorsDropTheBatchOnly() throws Exception {
+        final AtomicInteger handled = new AtomicInteger();
+        BufferConsumer consumer = new BufferConsumer(buffer, new MessageHandler() {
+            public void handle(List<LogMessage> messages) {
+                for (LogMessage message : messages) {
+                    if (message.getShortMessage().equals("fail")) {
+                        throw new IllegalStateException("Handler failed");
+                    }
+                    handled.incrementAndGet();
+                }
+            }
+        }, 1, 1, factory);
+        consumer.start();
+        try {
+            buffer.insert(message("fail"));
+            buffer.insert(message("fail"));
+            buffer.insert(message("ok"));
+            waitFor(handled, 1);
+        } finally {
+            consumer.stop();
+        }
+
+        assertEquals(2, consumer.getHandlerErrorCount());
+        assertEquals(0, buffer.size());
+    }
+
+    public void testDefaultThreadFactory() throws Exception {
+        Thread thread = BufferConsumer.defaultThreadFactory().newThread(new Runnable() {
+            public void run() {
+            }
+        });
+
+        // Virtual threads are always daemon threads.
+        assertTrue(thread.isDaemon());
+    }
+
+    private static void waitFor(AtomicInteger count, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (count.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, count.get());
+    }
+
+    private static LogMessage message(Object shortMessage) {
+        LogMessage message = new LogMessage();
+        message.setShortMessage(String.valueOf(shortMessage));
+        return message;
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class BufferStatisticsTest extends TestCase {
+
+    private final BufferStatistics statistics = new BufferStatistics() {
+        public int getSize() {
+            return 3;
+        }
+
+        public int getCapacity() {
+            return 16;
+        }
+    };
+
+    public void testCountsAreKeptApart() {
+        statistics.recordEnqueued(5);
+        statistics.recordDequeued(2);
+        statistics.recordRejected(1);
+        statistics.recordQueueTime(1000);
+
+        assertEquals(5, statistics.getEnqueuedCount());
+        assertEquals(2, statistics.getDequeuedCount());
+        assertEquals(1, statistics.getRejectedCount());
+        assertEquals(1, statistics.getQueueTime().getCount());
+        assertEquals(1000, statistics.getQueueTime().getSum());
+    }
+
+    public void testRatesStartAtZero() {
+        statistics.recordEnqueued(5);
+
+        // The moving averages only move on their first tick.
+        assertEquals(0.0, statistics.getEnqueueRate());
+        assertEquals(0.0, statistics.getDequeueRate());
+        assertEquals(0.0, statistics.getRejectionRate());
+    }
+
+    public void testToString() {
+        statistics.recordEnqueued(5);
+        statistics.recordDequeued(2);
+        statistics.recordQueueTime(1000);
+
+        assertEquals("size=3/16 enqueued=5 dequeued=2 rejected=0 queueTimeP99=1023ns", statistics.toString());
+    }
+
+    public void testConcurrentRecordsAreAllCounted() throws Exception {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        statistics.recordEnqueued(2);
+                        statistics.recordDequeued(1);
+                        statistics.recordQueueTime(i);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(320000, statistics.getEnqueuedCount());
+        assertEquals(160000, statistics.getDequeuedCount());
+        assertEquals(160000, statistics.getQueueTime().getCount());
+    }
+
+}
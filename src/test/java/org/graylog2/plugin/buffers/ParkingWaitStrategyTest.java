@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+
+public class ParkingWaitStrategyTest extends TestCase {
+
+    private final ParkingWaitStrategy strategy = new ParkingWaitStrategy(1, TimeUnit.MILLISECONDS);
+
+    public void testSatisfiedConditionReturnsAtOnce() throws Exception {
+        assertTrue(strategy.await(condition(new AtomicBoolean(true)), System.nanoTime() - 1));
+    }
+
+    public void testReturnsFalseAtTheDeadline() throws Exception {
+        long start = System.nanoTime();
+        assertFalse(strategy.await(condition(new AtomicBoolean(false)), start + TimeUnit.MILLISECONDS.toNanos(20)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    public void testNoticesTheConditionWithoutASignal() throws Exception {
+        final AtomicBoolean satisfied = new AtomicBoolean(false);
+        Thread setter = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                satisfied.set(true);
+            }
+        });
+        setter.start();
+
+        long start = System.nanoTime();
+        assertTrue(strategy.await(condition(satisfied), start + TimeUnit.SECONDS.toNanos(10)));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        setter.join();
+    }
+
+    public void testInterruptStopsWaiting() throws Exception {
+        final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    strategy.await(condition(new AtomicBoolean(false)), System.nanoTime() + TimeUnit.SECONDS.toNanos(30));
+                } catch (Throwable t) {
+                    thrown.set(t);
+                }
+            }
+        });
+        waiter.start();
+
+        Thread.sleep(20);
+        waiter.interrupt();
+        waiter.join(5000);
+
+        assertFalse(waiter.isAlive());
+        assertTrue(thrown.get() instanceof InterruptedException);
+    }
+
+    private static WaitCondition condition(final AtomicBoolean satisfied) {
+        return new WaitCondition() {
+            public boolean isSatisfied() {
+                return satisfied.get();
+            }
+        };
+    }
+
+}
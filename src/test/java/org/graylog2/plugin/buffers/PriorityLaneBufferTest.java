@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+public class PriorityLaneBufferTest extends TestCase {
+
+    private final PriorityLaneBuffer buffer = new PriorityLaneBuffer(2);
+    private final List<String> events = new ArrayList<String>();
+
+    @Override
+    protected void setUp() {
+        buffer.addCapacityListener(new CapacityListener() {
+            public void capacityExhausted(Buffer b) {
+                events.add("exhausted");
+            }
+
+            public void capacityRestored(Buffer b) {
+                events.add("restored");
+            }
+        });
+    }
+
+    public void testFullLowPriorityLaneDoesNotSignal() {
+        for (int i = 0; i < 5; i++) {
+            buffer.tryInsert(message(7));
+        }
+        assertEquals(InsertStatus.FULL, buffer.tryInsert(message(6)));
+        // Refused for good, not left with the caller.
+        assertEquals(2, buffer.insertAll(Arrays.asList(message(7), message(7))));
+
+        assertTrue(events.isEmpty());
+        assertEquals(InsertStatus.ACCEPTED, buffer.tryInsert(message(2)));
+    }
+
+    public void testFullLowPriorityLaneDoesNotHoldBackABatch() {
+        buffer.tryInsert(message(7));
+        buffer.tryInsert(message(7));
+
+        List<LogMessage> batch = Arrays.asList(message(7), message(2), message(6), message(7), message(5));
+        assertEquals(5, buffer.insertAll(batch));
+
+        assertEquals(1, buffer.getLane(LevelLaneClassifier.LANE_CRITICAL).size());
+        assertEquals(1, buffer.getLane(LevelLaneClassifier.LANE_WARNING).size());
+        assertEquals(2, buffer.getLane(LevelLaneClassifier.LANE_OTHER).size());
+        assertEquals(4, buffer.getStatistics().getEnqueuedCount());
+        assertEquals(3, buffer.getStatistics().getRejectedCount());
+        assertTrue(events.isEmpty());
+    }
+
+    public void testFullCriticalLaneStopsABatch() {
+        buffer.tryInsert(message(0));
+        buffer.tryInsert(message(0));
+
+        assertEquals(1, buffer.insertAll(Arrays.asList(message(5), message(1), message(5))));
+        assertEquals(1, buffer.getLane(LevelLaneClassifier.LANE_WARNING).size());
+        assertEquals(2, buffer.getStatistics().getRejectedCount());
+        assertEquals(Arrays.asList("exhausted"), events);
+    }
+
+    public void testFullCriticalLaneSignals() {
+        assertEquals(2, buffer.insertAll(Arrays.asList(message(0), message(3), message(1))));
+        assertEquals(Arrays.asList("exhausted"), events);
+
+        // Room in other lanes is not enough.
+        buffer.tryInsert(message(7));
+        buffer.getLane(LevelLaneClassifier.LANE_OTHER).poll();
+        assertEquals(Arrays.asList("exhausted"), events);
+
+        assertNotNull(buffer.getLane(LevelLaneClassifier.LANE_CRITICAL).poll());
+        assertNotNull(buffer.poll());
+        assertEquals(Arrays.asList("exhausted", "restored"), events);
+    }
+
+    public void testLanesSignalOnTheirOwn() {
+        final List<String> laneEvents = new ArrayList<String>();
+        buffer.getLane(LevelLaneClassifier.LANE_OTHER).addCapacityListener(new CapacityListener() {
+            public void capacityExhausted(Buffer b) {
+                laneEvents.add("exhausted");
+            }
+
+            public void capacityRestored(Buffer b) {
+                laneEvents.add("restored");
+            }
+        });
+
+        for (int i = 0; i < 3; i++) {
+            buffer.tryInsert(message(7));
+        }
+
+        assertEquals(Arrays.asList("exhausted"), laneEvents);
+        assertTrue(events.isEmpty());
+    }
+
+    private static LogMessage message(int level) {
+        LogMessage message = new LogMessage();
+        message.setLevel(level);
+        return message;
+    }
+
+}
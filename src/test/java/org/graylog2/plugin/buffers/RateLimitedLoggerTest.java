@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import junit.framework.TestCase;
+
+public class RateLimitedLoggerTest extends TestCase {
+
+    private final List<LogRecord> records = new ArrayList<LogRecord>();
+    private Logger logger;
+
+    @Override
+    protected void setUp() {
+        logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        });
+    }
+
+    public void testFirstFailureIsLoggedRightAway() {
+        RuntimeException failure = new RuntimeException("boom");
+        new RateLimitedLogger(logger, TimeUnit.HOURS.toNanos(1)).warn("failed", failure);
+
+        assertEquals(1, records.size());
+        assertEquals("failed", records.get(0).getMessage());
+        assertSame(failure, records.get(0).getThrown());
+    }
+
+    public void testFollowingFailuresAreSuppressedAndCounted() throws InterruptedException {
+        RateLimitedLogger log = new RateLimitedLogger(logger, TimeUnit.MILLISECONDS.toNanos(50));
+        for (int i = 0; i < 10; i++) {
+            log.warn("failed", new RuntimeException());
+        }
+        assertEquals(1, records.size());
+
+        TimeUnit.MILLISECONDS.sleep(60);
+        log.warn("failed", new RuntimeException());
+
+        assertEquals(2, records.size());
+        assertEquals("failed (9 more since the last one were not logged)", records.get(1).getMessage());
+    }
+
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+public class RingBufferTest extends TestCase {
+
+    public void testCapacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(2, new RingBuffer(1).getCapacity());
+        assertEquals(2, new RingBuffer(2).getCapacity());
+        assertEquals(8, new RingBuffer(5).getCapacity());
+        assertEquals(1024, new RingBuffer(1024).getCapacity());
+    }
+
+    public void testRejectsInvalidCapacity() {
+        try {
+            new RingBuffer(0);
+            fail("Accepted capacity 0");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testSingleThreadedFifoOrder() throws Exception {
+        RingBuffer buffer = new RingBuffer(4, ProducerType.SINGLE, new BlockingWaitStrategy());
+        // Several laps around the ring.
+        int next = 0;
+        for (int lap = 0; lap < 10; lap++) {
+            for (int i = 0; i < 3; i++) {
+                buffer.insert(message(lap * 3 + i));
+            }
+            for (int i = 0; i < 3; i++) {
+                assertEquals(String.valueOf(next++), buffer.poll().getShortMessage());
+            }
+        }
+        assertNull(buffer.poll());
+    }
+
+    public void testBatchesKeepFifoOrder() {
+        RingBuffer buffer = new RingBuffer(8);
+        assertEquals(3, buffer.insertAll(Arrays.asList(message(0), message(1), message(2))));
+        assertEquals(2, buffer.insertAll(Arrays.asList(message(3), message(4))));
+
+        List<LogMessage> drained = new ArrayList<LogMessage>();
+        assertEquals(4, buffer.drainTo(drained, 4));
+        assertEquals(1, buffer.drainTo(drained, 4));
+        for (int i = 0; i < drained.size(); i++) {
+            assertEquals(String.valueOf(i), drained.get(i).getShortMessage());
+        }
+    }
+
+    public void testFullBuffer() throws Exception {
+        RingBuffer buffer = new RingBuffer(2);
+        buffer.insert(message(0));
+        assertEquals(InsertStatus.ACCEPTED, buffer.tryInsert(message(1)));
+
+        assertFalse(buffer.hasCapacity());
+        assertEquals(2, buffer.size());
+        assertEquals(InsertStatus.FULL, buffer.tryInsert(message(2)));
+        assertEquals(0, buffer.insertAll(Arrays.asList(message(3))));
+        try {
+            buffer.insert(message(4));
+            fail("Inserted into a full buffer");
+        } catch (BufferOutOfCapacityException expected) {
+        }
+        assertEquals(3, buffer.getStatistics().getRejectedCount());
+        assertFalse(buffer.insert(message(5), 10, TimeUnit.MILLISECONDS));
+
+        // Nothing was overwritten.
+        assertEquals("0", buffer.poll().getShortMessage());
+        assertEquals("1", buffer.poll().getShortMessage());
+        assertTrue(buffer.hasCapacity());
+    }
+
+    public void testInsertAllAcceptsAPrefix() {
+        RingBuffer buffer = new RingBuffer(4);
+        buffer.tryInsert(message(0));
+
+        assertEquals(3, buffer.insertAll(Arrays.asList(message(1), message(2), message(3), message(4), message(5))));
+        assertEquals(2, buffer.getStatistics().getRejectedCount());
+        assertEquals(4, buffer.getStatistics().getEnqueuedCount());
+    }
+
+    public void testEmptyBuffer() throws Exception {
+        RingBuffer buffer = new RingBuffer(4);
+
+        assertNull(buffer.poll());
+        assertNull(buffer.poll(10, TimeUnit.MILLISECONDS));
+        assertEquals(0, buffer.drainTo(new ArrayList<LogMessage>(), 10));
+        assertEquals(0, buffer.drainTo(new ArrayList<LogMessage>(), 10, 10, TimeUnit.MILLISECONDS));
+        assertEquals(0, buffer.size());
+        assertTrue(buffer.hasCapacity());
+    }
+
+    public void testTakeWaitsForAMessage() throws Exception {
+        final RingBuffer buffer = new RingBuffer(4, ProducerType.MULTI, new BlockingWaitStrategy());
+        final AtomicReference<LogMessage> taken = new AtomicReference<LogMessage>();
+        Thread consumer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    taken.set(buffer.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        consumer.start();
+
+        Thread.sleep(20);
+        buffer.insert(message(7));
+        consumer.join(5000);
+
+        assertFalse(consumer.isAlive());
+        assertEquals("7", taken.get().getShortMessage());
+    }
+
+    public void testSmallestRingDoesNotLoseMessages() throws Exception {
+        stress(new RingBuffer(1, ProducerType.MULTI, new YieldingWaitStrategy()), 2, 2, 20000);
+    }
+
+    public void testMultipleProducersAndConsumers() throws Exception {
+        stress(new RingBuffer(64, ProducerType.MULTI, new BlockingWaitStrategy()), 4, 4, 50000);
+    }
+
+    public void testMultipleProducersAndConsumersWithParking() throws Exception {
+        stress(new RingBuffer(16, ProducerType.MULTI, new ParkingWaitStrategy()), 3, 2, 20000);
+    }
+
+    // Every message must arrive exactly once.
+    private static void stress(final RingBuffer buffer, int producers, int consumers, final int perProducer) throws Exception {
+        final int total = producers * perProducer;
+        final AtomicInteger[] received = new AtomicInteger[total];
+        for (int i = 0; i < total; i++) {
+            received[i] = new AtomicInteger();
+        }
+        final AtomicInteger remaining = new AtomicInteger(total);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perProducer; i++) {
+                            LogMessage message = message(producer * perProducer + i);
+                            if (i % 3 == 0) {
+                                while (buffer.insertAll(Arrays.asList(message)) == 0) {
+                                    Thread.yield();
+                                }
+                            } else if (!buffer.insert(message, 10, TimeUnit.SECONDS)) {
+                                failure.set("Producer timed out");
+                                return;
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failure.set("Producer interrupted");
+                    }
+                }
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            final boolean batches = c % 2 == 0;
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    List<LogMessage> batch = new ArrayList<LogMessage>();
+                    try {
+                        start.await();
+                        while (remaining.get() > 0) {
+                            batch.clear();
+                            if (batches) {
+                                buffer.drainTo(batch, 8, 10, TimeUnit.MILLISECONDS);
+                            } else {
+                                LogMessage message = buffer.poll(10, TimeUnit.MILLISECONDS);
+                                if (message != null) {
+                                    batch.add(message);
+                                }
+                            }
+                            for (LogMessage message : batch) {
+                                if (message == null) {
+                                    failure.set("Got null");
+                                    continue;
+                                }
+                                int id = Integer.parseInt(message.getShortMessage());
+                                if (received[id].incrementAndGet() != 1) {
+                                    failure.set("Got message " + id + " twice");
+                                }
+                                remaining.decrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failure.set("Consumer interrupted");
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(30000);
+            assertFalse("Thread did not finish", thread.isAlive());
+        }
+
+        assertNull(failure.get(), failure.get());
+        assertEquals(0, remaining.get());
+        for (int i = 0; i < total; i++) {
+            assertEquals("Message " + i, 1, received[i].get());
+        }
+        assertEquals(0, buffer.size());
+        assertEquals(total, buffer.getStatistics().getDequeuedCount());
+    }
+
+    private static LogMessage message(int id) {
+        LogMessage message = new LogMessage();
+        message.setShortMessage(String.valueOf(id));
+        return message;
+    }
+
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.graylog2.plugin.logmessage.LogMessage;
+import org.graylog2.plugin.streams.Stream;
+
+public class SegmentJournalTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("journal-test-", "");
+        directory.delete();
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public void testNextReadsInOrderAcrossSegments() throws IOException {
+        SegmentJournal journal = new SegmentJournal(directory, 64, Long.MAX_VALUE);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(journal.append(record(i), 0, record(i).length));
+        }
+        assertEquals(20, journal.getRecordCount());
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("record " + i, string(journal.next()));
+        }
+        assertNull(journal.next());
+        assertTrue(journal.isEmpty());
+
+        // Only the segment that is appended to is left.
+        assertEquals(1, segmentFiles());
+        journal.close();
+    }
+
+    public void testUncommittedRecordsAreReadAgainAfterReopening() throws IOException {
+        SegmentJournal journal = new SegmentJournal(directory, 64, Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) {
+            journal.append(record(i), 0, record(i).length);
+        }
+
+        for (int i = 0; i < 6; i++) {
+            assertEquals("record " + i, string(journal.read()));
+        }
+        assertEquals(4, journal.getRecordCount());
+        journal.commit(3);
+        journal.close();
+
+        journal = new SegmentJournal(directory, 64, Long.MAX_VALUE);
+        assertEquals(7, journal.getRecordCount());
+        for (int i = 3; i < 10; i++) {
+            assertEquals("record " + i, string(journal.next()));
+        }
+        assertNull(journal.next());
+        journal.close();
+    }
+
+    public void testCommitMoreThanReadFails() throws IOException {
+        SegmentJournal journal = new SegmentJournal(directory, 64, Long.MAX_VALUE);
+        journal.append(record(0), 0, record(0).length);
+        journal.read();
+
+        try {
+            journal.commit(2);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        journal.close();
+    }
+
+    public void testDeletedSegmentsFreeTheSizeLimit() throws IOException {
+        SegmentJournal journal = new SegmentJournal(directory, 64, 128);
+        int appended = 0;
+        while (journal.append(record(appended), 0, record(appended).length)) {
+            appended++;
+        }
+        assertFalse(journal.hasCapacity());
+
+        for (int i = 0; i < appended; i++) {
+            assertNotNull(journal.next());
+        }
+        assertTrue(journal.append(record(0), 0, record(0).length));
+        journal.close();
+    }
+
+    public void testStoppingSpillingBufferKeepsUnreplayedMessages() throws Exception {
+        RingBuffer ring = new RingBuffer(4);
+        SpillingBuffer buffer = new SpillingBuffer(ring, new SegmentJournal(directory, 4096, Long.MAX_VALUE),
+                Collections.<String, Stream>emptyMap(), 16);
+
+        for (int i = 0; i < 50; i++) {
+            LogMessage message = new LogMessage();
+            message.setShortMessage("message " + i);
+            assertEquals(InsertStatus.ACCEPTED, buffer.tryInsert(message));
+        }
+
+        // Nobody consumes, so the replayer gets stuck on a full ring in the middle of a batch.
+        buffer.start();
+        TimeUnit.MILLISECONDS.sleep(300);
+        buffer.stop();
+
+        int inRing = ring.size();
+        assertEquals(4, inRing);
+        for (int i = 0; i < inRing; i++) {
+            assertEquals("message " + i, ring.poll().getShortMessage());
+        }
+
+        SegmentJournal journal = new SegmentJournal(directory, 4096, Long.MAX_VALUE);
+        RingBuffer replayed = new RingBuffer(64);
+        SpillingBuffer next = new SpillingBuffer(replayed, journal, Collections.<String, Stream>emptyMap(), 16);
+        assertEquals(50 - inRing, journal.getRecordCount());
+
+        next.start();
+        for (int i = inRing; i < 50; i++) {
+            LogMessage message = next.poll(5, TimeUnit.SECONDS);
+            assertNotNull(message);
+            assertEquals("message " + i, message.getShortMessage());
+        }
+        next.stop();
+    }
+
+    private int segmentFiles() {
+        return directory.listFiles().length;
+    }
+
+    private static byte[] record(int i) {
+        return ("record " + i).getBytes(UTF_8);
+    }
+
+    private static String string(ByteBuffer record) {
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.graylog2.plugin.logmessage.DocumentWriter;
+import org.graylog2.plugin.logmessage.JsonDocumentWriter;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+public class SerializingBufferTest extends TestCase {
+
+    private final RingBuffer ring = new RingBuffer(16);
+    private final SerializingBuffer buffer = new SerializingBuffer(ring);
+
+    public void testEveryInsertSerializesOnce() throws Exception {
+        CountingMessage a = message("a");
+        CountingMessage b = message("b");
+        CountingMessage c = message("c");
+        CountingMessage d = message("d");
+        CountingMessage e = message("e");
+
+        buffer.insert(a);
+        assertEquals(InsertStatus.ACCEPTED, buffer.tryInsert(b));
+        assertTrue(buffer.insert(c, 10, TimeUnit.MILLISECONDS));
+        assertEquals(2, buffer.insertAll(Arrays.<LogMessage>asList(d, e)));
+
+        for (CountingMessage message : Arrays.asList(a, b, c, d, e)) {
+            assertEquals(message.getShortMessage(), 1, message.writes);
+        }
+    }
+
+    public void testOutputsGetTheSerializedDocument() throws Exception {
+        buffer.insert(message("a"));
+        buffer.insertAll(Arrays.<LogMessage>asList(message("b"), message("c")));
+
+        List<LogMessage> drained = new ArrayList<LogMessage>();
+        ring.drainTo(drained, 10);
+        assertEquals(3, drained.size());
+        for (LogMessage message : drained) {
+            byte[] document = message.getSerializedDocument();
+            assertNotNull(document);
+            assertEquals(1, ((CountingMessage) message).writes);
+            assertEquals(new String(serialize(message), "UTF-8"), new String(document, "UTF-8"));
+        }
+    }
+
+    public void testSerializedMessagesAreNotSerializedAgain() throws Exception {
+        CountingMessage message = message("a");
+        buffer.insert(message);
+        byte[] document = message.getSerializedDocument();
+
+        // For example a message that passes two serializing buffers.
+        new SerializingBuffer(new RingBuffer(4)).insert(message);
+        assertEquals(1, message.writes);
+        assertSame(document, message.getSerializedDocument());
+    }
+
+    public void testChangedMessagesAreSerializedAgain() throws Exception {
+        CountingMessage message = message("a");
+        buffer.insert(message);
+        message.setHost("changed.example.org");
+        assertNull(message.getSerializedDocument());
+
+        buffer.insert(message);
+        assertEquals(2, message.writes);
+        assertTrue(new String(message.getSerializedDocument(), "UTF-8").contains("changed.example.org"));
+    }
+
+    public void testRejectedMessagesAreSerializedOnce() {
+        SerializingBuffer small = new SerializingBuffer(new RingBuffer(2));
+        small.tryInsert(message("a"));
+        small.tryInsert(message("b"));
+
+        CountingMessage rejected = message("c");
+        assertEquals(InsertStatus.FULL, small.tryInsert(rejected));
+        assertEquals(0, small.insertAll(Arrays.<LogMessage>asList(rejected)));
+        assertEquals(1, rejected.writes);
+    }
+
+    public void testWrapsPlainBuffers() throws Exception {
+        final List<LogMessage> inserted = new ArrayList<LogMessage>();
+        SerializingBuffer plain = new SerializingBuffer(new Buffer() {
+            public void insert(LogMessage message) {
+                inserted.add(message);
+            }
+
+            public boolean hasCapacity() {
+                return true;
+            }
+        });
+
+        CountingMessage a = message("a");
+        CountingMessage b = message("b");
+        assertEquals(InsertStatus.ACCEPTED, plain.tryInsert(a));
+        assertEquals(1, plain.insertAll(Arrays.<LogMessage>asList(b)));
+
+        assertEquals(Arrays.<LogMessage>asList(a, b), inserted);
+        assertEquals(1, a.writes);
+        assertEquals(1, b.writes);
+        assertNotNull(b.getSerializedDocument());
+    }
+
+    private static byte[] serialize(LogMessage message) {
+        JsonDocumentWriter writer = new JsonDocumentWriter();
+        message.writeTo(writer);
+        return writer.toByteArray();
+    }
+
+    private static CountingMessage message(String shortMessage) {
+        CountingMessage message = new CountingMessage();
+        message.setHost("example.org");
+        message.setShortMessage(shortMessage);
+        message.setCreatedAt(1.5);
+        message.addAdditionalData("_key", shortMessage);
+        return message;
+    }
+
+    // Counts how often the message is serialized.
+    private static class CountingMessage extends LogMessage {
+
+        int writes = 0;
+
+        @Override
+        public void writeTo(DocumentWriter writer) {
+            writes++;
+            super.writeTo(writer);
+        }
+
+    }
+
+}
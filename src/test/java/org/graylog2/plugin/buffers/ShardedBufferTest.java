@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+public class ShardedBufferTest extends TestCase {
+
+    private final List<String> events = new ArrayList<String>();
+    private final CountDownLatch handled = new CountDownLatch(1);
+
+    private final ShardedBuffer buffer = new ShardedBuffer(2, 2, new ShardHandler() {
+        public void handle(int shard, List<LogMessage> messages) {
+            handled.countDown();
+        }
+    });
+
+    @Override
+    protected void setUp() {
+        buffer.addCapacityListener(new CapacityListener() {
+            public void capacityExhausted(Buffer b) {
+                events.add("exhausted");
+            }
+
+            public void capacityRestored(Buffer b) {
+                events.add("restored");
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws InterruptedException {
+        buffer.stop();
+    }
+
+    public void testOneFullShardDoesNotSignal() {
+        String host = hostOf(0);
+        assertEquals(2, buffer.insertAll(Arrays.asList(message(host), message(host), message(host))));
+        assertEquals(InsertStatus.FULL, buffer.tryInsert(message(host)));
+
+        assertTrue(events.isEmpty());
+        assertTrue(buffer.hasCapacity());
+        assertEquals(InsertStatus.ACCEPTED, buffer.tryInsert(message(hostOf(1))));
+    }
+
+    public void testAllShardsFullSignalsUntilAWorkerMakesRoom() throws InterruptedException {
+        for (int shard = 0; shard < 2; shard++) {
+            String host = hostOf(shard);
+            for (int i = 0; i < 3; i++) {
+                buffer.tryInsert(message(host));
+            }
+        }
+        assertEquals(Arrays.asList("exhausted"), events);
+
+        buffer.start();
+        assertTrue(handled.await(5, TimeUnit.SECONDS));
+        buffer.stop();
+
+        // The worker signals before it calls the handler.
+        assertEquals(Arrays.asList("exhausted", "restored"), events);
+    }
+
+    private String hostOf(int shard) {
+        for (int i = 0; ; i++) {
+            if (buffer.shardOf("host-" + i) == shard) {
+                return "host-" + i;
+            }
+        }
+    }
+
+    private static LogMessage message(String host) {
+        LogMessage message = new LogMessage();
+        message.setHost(host);
+        return message;
+    }
+
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.buffers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.graylog2.plugin.logmessage.LogMessage;
+import org.graylog2.plugin.logmessage.LogMessageCodec;
+import org.graylog2.plugin.streams.Stream;
+
+public class SpillingBufferTest extends TestCase {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("spilling-test-", "");
+        directory.delete();
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public void testSpillsWhenTheRingIsFullAndReplaysInOrder() throws Exception {
+        RingBuffer ring = new RingBuffer(2);
+        SpillingBuffer buffer = new SpillingBuffer(ring, new SegmentJournal(directory), streams());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(InsertStatus.ACCEPTED, buffer.tryInsert(message(i)));
+        }
+        assertTrue(buffer.isSpilling());
+        assertEquals(5, buffer.size());
+
+        buffer.start();
+        try {
+            assertEquals(Arrays.asList("0", "1", "2", "3", "4"), take(buffer, 5));
+            waitUntilNotSpilling(buffer);
+        } finally {
+            buffer.stop();
+        }
+    }
+
+    public void testSkipsAndCommitsRecordsThatCannotBeDecoded() throws Exception {
+        SegmentJournal journal = new SegmentJournal(directory);
+        byte[] valid = encode(message(1));
+        // Unknown version first, so it is skipped with nothing read before it.
+        append(journal, new byte[] { 99, 0, 0, 0 });
+        append(journal, encode(message(0)));
+        // Cut short right after a message that is still in the batch.
+        append(journal, Arrays.copyOf(valid, valid.length / 2));
+        append(journal, valid);
+        journal.close();
+
+        SpillingBuffer buffer = new SpillingBuffer(new RingBuffer(16), new SegmentJournal(directory), streams());
+        buffer.start();
+        try {
+            assertEquals(Arrays.asList("0", "1"), take(buffer, 2));
+            waitUntilNotSpilling(buffer);
+            assertEquals(2, buffer.getCorruptRecordCount());
+        } finally {
+            buffer.stop();
+        }
+
+        // Nothing is replayed again by the next run.
+        assertNothingLeft();
+    }
+
+    public void testReadFailureNeitherLosesNorDuplicatesRecords() throws Exception {
+        fill(3);
+
+        // Fails reading the second record once.
+        SegmentJournal journal = new SegmentJournal(directory) {
+            private int reads = 0;
+
+            @Override
+            public ByteBuffer read() throws IOException {
+                if (++reads == 2) {
+                    throw new IOException("Read failed");
+                }
+                return super.read();
+            }
+        };
+        SpillingBuffer buffer = new SpillingBuffer(new RingBuffer(16), journal, streams());
+        buffer.start();
+        try {
+            assertEquals(Arrays.asList("0", "1", "2"), take(buffer, 3));
+            waitUntilNotSpilling(buffer);
+            assertEquals("Read failed", buffer.getLastError().getMessage());
+            assertNull(buffer.poll());
+        } finally {
+            buffer.stop();
+        }
+
+        assertNothingLeft();
+    }
+
+    public void testFailedCommitIsTriedAgain() throws Exception {
+        fill(3);
+
+        SegmentJournal journal = new SegmentJournal(directory) {
+            private boolean failed = false;
+
+            @Override
+            public void commit(int count) throws IOException {
+                if (!failed) {
+                    failed = true;
+                    throw new IOException("Commit failed");
+                }
+                super.commit(count);
+            }
+        };
+        SpillingBuffer buffer = new SpillingBuffer(new RingBuffer(16), journal, streams(), 2);
+        buffer.start();
+        try {
+            assertEquals(Arrays.asList("0", "1", "2"), take(buffer, 3));
+            waitUntilNotSpilling(buffer);
+            assertEquals("Commit failed", buffer.getLastError().getMessage());
+            assertNull(buffer.poll());
+        } finally {
+            buffer.stop();
+        }
+
+        assertNothingLeft();
+    }
+
+    private void fill(int messages) throws IOException {
+        SegmentJournal journal = new SegmentJournal(directory);
+        for (int i = 0; i < messages; i++) {
+            append(journal, encode(message(i)));
+        }
+        journal.close();
+    }
+
+    private void assertNothingLeft() throws IOException {
+        SegmentJournal reopened = new SegmentJournal(directory);
+        try {
+            assertEquals(0, reopened.getRecordCount());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private static List<String> take(SpillingBuffer buffer, int count) throws InterruptedException {
+        List<String> messages = new ArrayList<String>();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (messages.size() < count && System.currentTimeMillis() < deadline) {
+            LogMessage message = buffer.poll(100, TimeUnit.MILLISECONDS);
+            if (message != null) {
+                messages.add(message.getShortMessage());
+            }
+        }
+
+        return messages;
+    }
+
+    private static void waitUntilNotSpilling(SpillingBuffer buffer) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (buffer.isSpilling() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertFalse("Still spilling", buffer.isSpilling());
+    }
+
+    private static void append(SegmentJournal journal, byte[] record) throws IOException {
+        assertTrue(journal.append(record, 0, record.length));
+    }
+
+    private static byte[] encode(LogMessage message) {
+        LogMessageCodec codec = new LogMessageCodec();
+        int length = codec.encode(message);
+        return Arrays.copyOf(codec.getBuffer(), length);
+    }
+
+    private static LogMessage message(int i) {
+        LogMessage message = new LogMessage();
+        message.setHost("example.org");
+        message.setShortMessage(String.valueOf(i));
+        message.addAdditionalData("_index", i);
+        return message;
+    }
+
+    private static Map<String, Stream> streams() {
+        return Collections.<String, Stream>emptyMap();
+    }
+
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.filters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import junit.framework.TestCase;
+import org.graylog2.plugin.GraylogServer;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+public class AdaptiveFilterChainTest extends TestCase {
+
+    private final ConcurrentMap<String, FilterMetrics> registry = new ConcurrentHashMap<String, FilterMetrics>();
+
+    public void testStartsInChainOrder() {
+        AdaptiveFilterChain chain = chain(new TestFilter("a").reads("host"), new TestFilter("b").reads("level"));
+
+        assertEquals(Arrays.asList("a", "b"), names(chain.getOrder()));
+        assertEquals(Arrays.asList("a", "b"), names(chain.getFilters()));
+    }
+
+    public void testOrdersByCostPerDrop() {
+        AdaptiveFilterChain chain = chain(
+                new TestFilter("expensive").reads("host"),
+                new TestFilter("cheap").reads("level"),
+                new TestFilter("keeps").reads("file"));
+
+        // 1000 / 0.5 = 2000, 100 / 0.1 = 1000, and nothing dropped.
+        measure("expensive", 1000, 10, 5);
+        measure("cheap", 100, 10, 1);
+        measure("keeps", 1, 10, 0);
+        chain.reorder();
+
+        assertEquals(Arrays.asList("cheap", "expensive", "keeps"), names(chain.getOrder()));
+        // The chain order itself does not change.
+        assertEquals(Arrays.asList("expensive", "cheap", "keeps"), names(chain.getFilters()));
+    }
+
+    public void testOnlyTheLastWindowCounts() {
+        AdaptiveFilterChain chain = chain(new TestFilter("a").reads("host"), new TestFilter("b").reads("level"));
+
+        measure("a", 1000, 100, 10);
+        measure("b", 10, 100, 50);
+        chain.reorder();
+        assertEquals(Arrays.asList("b", "a"), names(chain.getOrder()));
+
+        measure("a", 10, 10, 5);
+        measure("b", 1000, 10, 1);
+        chain.reorder();
+        assertEquals(Arrays.asList("a", "b"), names(chain.getOrder()));
+    }
+
+    public void testFiltersWithoutNewMeasurementsKeepTheirRank() {
+        AdaptiveFilterChain chain = chain(new TestFilter("a").reads("host"), new TestFilter("b").reads("level"));
+
+        measure("a", 1000, 10, 1);
+        measure("b", 10, 10, 5);
+        chain.reorder();
+
+        // Only a is measured again, still worse than what b had.
+        measure("a", 500, 10, 1);
+        chain.reorder();
+        assertEquals(Arrays.asList("b", "a"), names(chain.getOrder()));
+    }
+
+    public void testConflictingFiltersKeepTheirOrder() {
+        AdaptiveFilterChain chain = chain(
+                new TestFilter("writer").writes("_x"),
+                new TestFilter("reader").reads("_x"),
+                new TestFilter("free").reads("host"));
+
+        measure("writer", 1000, 10, 0);
+        measure("reader", 1, 10, 9);
+        measure("free", 10, 10, 9);
+        chain.reorder();
+
+        // The reader cannot pass the writer, the free filter passes both.
+        assertEquals(Arrays.asList("free", "writer", "reader"), names(chain.getOrder()));
+    }
+
+    public void testFiltersThatDeclareNothingStayInPlace() {
+        AdaptiveFilterChain chain = chain(
+                new TestFilter("a").reads("host"),
+                new PlainFilter("plain"),
+                new TestFilter("b").reads("level"));
+
+        measure("a", 1000, 10, 0);
+        measure("plain", 1000, 10, 0);
+        measure("b", 1, 10, 10);
+        chain.reorder();
+
+        assertEquals(Arrays.asList("a", "plain", "b"), names(chain.getOrder()));
+    }
+
+    public void testOrderingConstraintsAreKept() {
+        AdaptiveFilterChain chain = chain(
+                new TestFilter("a").reads("host"),
+                new TestFilter("b").reads("level").runAfter("a"),
+                new TestFilter("c").reads("file").runBefore("a"));
+
+        // Before any measurement, c already has to move in front of a.
+        assertEquals(Arrays.asList("c", "a", "b"), names(chain.getOrder()));
+
+        measure("a", 1000, 10, 0);
+        measure("b", 1, 10, 10);
+        measure("c", 1000, 10, 0);
+        chain.reorder();
+        assertEquals(Arrays.asList("c", "a", "b"), names(chain.getOrder()));
+    }
+
+    public void testCycleIsRejected() {
+        try {
+            chain(new TestFilter("a").runAfter("b"), new TestFilter("b").runAfter("a"));
+            fail("Accepted a cycle");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testReordersAfterTheIntervalWhileFiltering() {
+        AdaptiveFilterChain chain = new AdaptiveFilterChain("test", Arrays.asList(
+                new TestFilter("keeps").reads("host"),
+                new TestFilter("drops").reads("level").dropping()), registry, 256);
+
+        List<LogMessage> messages = new ArrayList<LogMessage>();
+        for (int i = 0; i < 8; i++) {
+            messages.add(new LogMessage());
+        }
+        for (int i = 0; i < 255; i++) {
+            BitSet dropped = new BitSet();
+            chain.filter(messages, dropped, null);
+            assertEquals(8, dropped.cardinality());
+        }
+        assertEquals(Arrays.asList("keeps", "drops"), names(chain.getOrder()));
+
+        // One in eight batches is timed, so both filters have a cost by now.
+        chain.filter(messages, new BitSet(), null);
+        assertEquals(Arrays.asList("drops", "keeps"), names(chain.getOrder()));
+
+        // With everything dropped up front, the second filter is not called anymore.
+        long invocations = registry.get("keeps").getInvocationCount();
+        chain.filter(messages, new BitSet(), null);
+        assertTrue(chain.filter(new LogMessage(), null));
+        assertEquals(invocations, registry.get("keeps").getInvocationCount());
+    }
+
+    private AdaptiveFilterChain chain(MessageFilter... filters) {
+        // Reorders only when asked to.
+        return new AdaptiveFilterChain("test", Arrays.asList(filters), registry, Integer.MAX_VALUE);
+    }
+
+    // Records messages with the given cost each, as if all of them were timed.
+    private void measure(String filter, long nanosPerMessage, int messages, int drops) {
+        FilterMetrics metrics = registry.get(filter);
+        metrics.recordBatchLatency(nanosPerMessage * messages, messages);
+        metrics.recordInvocations(messages, drops);
+    }
+
+    private static List<String> names(List<? extends MessageFilter> filters) {
+        List<String> names = new ArrayList<String>();
+        for (MessageFilter filter : filters) {
+            names.add(filter.getName());
+        }
+        return names;
+    }
+
+    private static class PlainFilter implements MessageFilter {
+
+        private final String name;
+
+        PlainFilter(String name) {
+            this.name = name;
+        }
+
+        public boolean filter(LogMessage msg, GraylogServer server) {
+            return false;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+    }
+
+    private static class TestFilter extends PlainFilter implements FieldAwareFilter, OrderedMessageFilter {
+
+        private final Set<String> reads = new HashSet<String>();
+        private final Set<String> writes = new HashSet<String>();
+        private Set<String> runAfter = Collections.emptySet();
+        private Set<String> runBefore = Collections.emptySet();
+        private boolean drops = false;
+
+        TestFilter(String name) {
+            super(name);
+        }
+
+        TestFilter reads(String field) {
+            reads.add(field);
+            return this;
+        }
+
+        TestFilter writes(String field) {
+            writes.add(field);
+            return this;
+        }
+
+        TestFilter runAfter(String name) {
+            runAfter = Collections.singleton(name);
+            return this;
+        }
+
+        TestFilter runBefore(String name) {
+            runBefore = Collections.singleton(name);
+            return this;
+        }
+
+        TestFilter dropping() {
+            drops = true;
+            return this;
+        }
+
+        @Override
+        public boolean filter(LogMessage msg, GraylogServer server) {
+            return drops;
+        }
+
+        public Set<String> getReadFields() {
+            return reads;
+        }
+
+        public Set<String> getWriteFields() {
+            return writes;
+        }
+
+        public Set<String> getRunAfter() {
+            return runAfter;
+        }
+
+        public Set<String> getRunBefore() {
+            return runBefore;
+        }
+
+    }
+
+}
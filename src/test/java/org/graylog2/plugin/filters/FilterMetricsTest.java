@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.filters;
+
+import junit.framework.TestCase;
+
+public class FilterMetricsTest extends TestCase {
+
+    public void testSingleAndBatchLatenciesAreKeptApart() {
+        FilterMetrics metrics = new FilterMetrics("test");
+        metrics.recordLatency(100);
+        metrics.recordLatency(300);
+        metrics.recordBatchLatency(10000, 100);
+
+        assertEquals(2, metrics.getLatency().getCount());
+        assertEquals(400, metrics.getLatency().getSum());
+        assertEquals(1, metrics.getBatchLatency().getCount());
+        assertEquals(10000, metrics.getBatchLatency().getSum());
+    }
+
+    public void testTimedCostWeighsBatchesByTheirMessages() {
+        FilterMetrics metrics = new FilterMetrics("test");
+        metrics.recordLatency(1000);
+        metrics.recordBatchLatency(9900, 99);
+
+        // 100 messages in 10900 nanoseconds, not the mean of 1000 and 100.
+        assertEquals(10900, metrics.getTimedNanos());
+        assertEquals(100, metrics.getTimedMessageCount());
+    }
+
+    public void testDropRatio() {
+        FilterMetrics metrics = new FilterMetrics("test");
+        assertEquals(0.0, metrics.getDropRatio());
+
+        metrics.recordInvocations(10, 3);
+        metrics.recordInvocations(10, 0);
+        assertEquals(20, metrics.getInvocationCount());
+        assertEquals(0.15, metrics.getDropRatio(), 1e-9);
+    }
+
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.filters;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import junit.framework.TestCase;
+import org.graylog2.plugin.GraylogServer;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+public class InstrumentedMessageFilterTest extends TestCase {
+
+    private final FilterMetrics metrics = new FilterMetrics("odd");
+    private final InstrumentedMessageFilter filter = new InstrumentedMessageFilter(new OddLineFilter(), metrics);
+
+    public void testCountsMessagesAndDrops() {
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i % 2 == 1, filter.filter(message(i), null));
+        }
+
+        assertEquals(10, metrics.getInvocationCount());
+        assertEquals(5, metrics.getDropCount());
+        assertEquals(0.5, metrics.getDropRatio(), 1e-9);
+    }
+
+    public void testBatchesCountOnlyWhatWasNotDroppedBefore() {
+        List<LogMessage> messages = messages(10);
+        BitSet dropped = new BitSet();
+        // Dropped by an earlier filter: two odd and one even line.
+        dropped.set(1);
+        dropped.set(3);
+        dropped.set(4);
+
+        filter.filter(messages, dropped, null);
+
+        assertEquals(7, metrics.getInvocationCount());
+        assertEquals(3, metrics.getDropCount());
+        assertEquals(6, dropped.cardinality());
+    }
+
+    public void testBatchesWithNothingLeftAreSkipped() {
+        List<LogMessage> messages = messages(4);
+        BitSet dropped = new BitSet();
+        dropped.set(0, 4);
+
+        filter.filter(messages, dropped, null);
+
+        assertEquals(0, metrics.getInvocationCount());
+        assertEquals(0, metrics.getBatchLatency().getCount());
+    }
+
+    public void testSamplesOneInSixtyFourMessages() {
+        LogMessage message = message(0);
+        for (int i = 0; i < 64000; i++) {
+            filter.filter(message, null);
+        }
+
+        // 1000 expected, the standard deviation is about 31.
+        long timed = metrics.getLatency().getCount();
+        assertTrue("Timed " + timed, timed > 800 && timed < 1200);
+        assertEquals(timed, metrics.getTimedMessageCount());
+        assertEquals(0, metrics.getBatchLatency().getCount());
+    }
+
+    public void testSamplesOneInEightBatches() {
+        List<LogMessage> messages = messages(4);
+        for (int i = 0; i < 8000; i++) {
+            filter.filter(messages, new BitSet(), null);
+        }
+
+        // 1000 expected, the standard deviation is about 30.
+        long timed = metrics.getBatchLatency().getCount();
+        assertTrue("Timed " + timed, timed > 800 && timed < 1200);
+        // Timed batches count all their messages.
+        assertEquals(timed * 4, metrics.getTimedMessageCount());
+        assertEquals(0, metrics.getLatency().getCount());
+        assertEquals(32000, metrics.getInvocationCount());
+        assertEquals(16000, metrics.getDropCount());
+    }
+
+    public void testWrapSharesMetricsByName() {
+        ConcurrentMap<String, FilterMetrics> registry = new ConcurrentHashMap<String, FilterMetrics>();
+        InstrumentedMessageFilter first = InstrumentedMessageFilter.wrap(new OddLineFilter(), registry);
+        InstrumentedMessageFilter second = InstrumentedMessageFilter.wrap(new OddLineFilter(), registry);
+
+        assertSame(first.getMetrics(), second.getMetrics());
+        assertSame(first.getMetrics(), registry.get("odd"));
+        assertEquals("odd", first.getName());
+
+        first.filter(message(1), null);
+        second.filter(message(2), null);
+        assertEquals(2, registry.get("odd").getInvocationCount());
+        assertEquals(1, registry.get("odd").getDropCount());
+    }
+
+    private static List<LogMessage> messages(int count) {
+        List<LogMessage> messages = new ArrayList<LogMessage>();
+        for (int i = 0; i < count; i++) {
+            messages.add(message(i));
+        }
+        return messages;
+    }
+
+    private static LogMessage message(int line) {
+        LogMessage message = new LogMessage();
+        message.setLine(line);
+        return message;
+    }
+
+    private static class OddLineFilter implements MessageFilter {
+
+        public boolean filter(LogMessage msg, GraylogServer server) {
+            return msg.getLine() % 2 == 1;
+        }
+
+        public String getName() {
+            return "odd";
+        }
+
+    }
+
+}
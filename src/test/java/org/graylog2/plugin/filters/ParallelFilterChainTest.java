@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.filters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import junit.framework.TestCase;
+import org.graylog2.plugin.GraylogServer;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+public class ParallelFilterChainTest extends TestCase {
+
+    public void testIndependentFiltersShareAStage() {
+        ParallelFilterChain chain = chain(
+                new TestFilter("a").reads("host"),
+                new TestFilter("b").reads("level"),
+                new TestFilter("c").reads("host").writes("_c"));
+
+        assertEquals(Arrays.asList(Arrays.asList("a", "b", "c")), stageNames(chain));
+    }
+
+    public void testConflictingFiltersGetSeparateStages() {
+        ParallelFilterChain chain = chain(
+                new TestFilter("a").writes("_a"),
+                new TestFilter("b").reads("_b"),
+                new TestFilter("c").reads("host"));
+
+        assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b", "c")), stageNames(chain));
+    }
+
+    public void testFiltersThatDeclareNothingRunAlone() {
+        ParallelFilterChain chain = chain(
+                new TestFilter("a").reads("host"),
+                new PlainFilter("b"),
+                new TestFilter("c").reads("host"));
+
+        assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b"), Arrays.asList("c")), stageNames(chain));
+    }
+
+    public void testRunAfterSplitsTheStage() {
+        ParallelFilterChain chain = chain(
+                new TestFilter("a").reads("host"),
+                new TestFilter("b").reads("level").runAfter("a"),
+                new TestFilter("c").reads("file"));
+
+        assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b", "c")), stageNames(chain));
+    }
+
+    public void testRunBeforeAgainstChainOrderMovesTheFilter() {
+        ParallelFilterChain chain = chain(
+                new TestFilter("a").reads("host"),
+                new TestFilter("b").reads("level"),
+                new TestFilter("c").reads("file").runBefore("a"));
+
+        // a waits for c, b keeps its place in front.
+        assertEquals(Arrays.asList(Arrays.asList("b", "c"), Arrays.asList("a")), stageNames(chain));
+        assertEquals("a", chain.getFilters().get(2).getName());
+    }
+
+    public void testCycleIsRejected() {
+        try {
+            chain(new TestFilter("a").runAfter("b"), new TestFilter("b").runAfter("a"));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testParallelStageMergesDrops() {
+        ParallelFilterChain chain = new ParallelFilterChain("test", Arrays.asList(
+                new TestFilter("odd").reads("line").dropping(1),
+                new TestFilter("three").reads("line").dropping(3)), new ForkJoinPool(2), 1);
+
+        List<LogMessage> messages = new ArrayList<LogMessage>();
+        for (int i = 0; i < 12; i++) {
+            LogMessage message = new LogMessage();
+            message.setLine(i);
+            messages.add(message);
+        }
+
+        BitSet dropped = new BitSet();
+        chain.filter(messages, dropped, null);
+
+        for (int i = 0; i < 12; i++) {
+            assertEquals(String.valueOf(i), i % 2 == 1 || i % 3 == 0, dropped.get(i));
+        }
+    }
+
+    private static ParallelFilterChain chain(MessageFilter... filters) {
+        return new ParallelFilterChain("test", Arrays.asList(filters), new ForkJoinPool(2), 1);
+    }
+
+    private static List<List<String>> stageNames(ParallelFilterChain chain) {
+        List<List<String>> result = new ArrayList<List<String>>();
+        for (List<BatchMessageFilter> stage : chain.getStages()) {
+            List<String> names = new ArrayList<String>();
+            for (BatchMessageFilter filter : stage) {
+                names.add(filter.getName());
+            }
+            result.add(names);
+        }
+        return result;
+    }
+
+    private static class PlainFilter implements MessageFilter {
+
+        private final String name;
+
+        PlainFilter(String name) {
+            this.name = name;
+        }
+
+        public boolean filter(LogMessage msg, GraylogServer server) {
+            return false;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+    }
+
+    private static class TestFilter extends PlainFilter implements FieldAwareFilter, OrderedMessageFilter {
+
+        private final Set<String> reads = new HashSet<String>();
+        private final Set<String> writes = new HashSet<String>();
+        private Set<String> runAfter = Collections.emptySet();
+        private Set<String> runBefore = Collections.emptySet();
+        private int dropModulus = 0;
+
+        TestFilter(String name) {
+            super(name);
+        }
+
+        TestFilter reads(String field) {
+            reads.add(field);
+            return this;
+        }
+
+        TestFilter writes(String field) {
+            writes.add(field);
+            return this;
+        }
+
+        TestFilter runAfter(String name) {
+            runAfter = Collections.singleton(name);
+            return this;
+        }
+
+        TestFilter runBefore(String name) {
+            runBefore = Collections.singleton(name);
+            return this;
+        }
+
+        // Drops messages whose line is a multiple of n, or odd lines for 1.
+        TestFilter dropping(int n) {
+            dropModulus = n;
+            return this;
+        }
+
+        @Override
+        public boolean filter(LogMessage msg, GraylogServer server) {
+            if (dropModulus == 1) {
+                return msg.getLine() % 2 == 1;
+            }
+            return dropModulus > 0 && msg.getLine() % dropModulus == 0;
+        }
+
+        public Set<String> getReadFields() {
+            return reads;
+        }
+
+        public Set<String> getWriteFields() {
+            return writes;
+        }
+
+        public Set<String> getRunAfter() {
+            return runAfter;
+        }
+
+        public Set<String> getRunBefore() {
+            return runBefore;
+        }
+
+    }
+
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.inputs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import junit.framework.TestCase;
+
+public class NioEventLoopGroupTest extends TestCase {
+
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private NioEventLoopGroup group;
+
+    @Override
+    protected void setUp() throws IOException {
+        group = new NioEventLoopGroup(2, new ThreadFactory() {
+            private final ThreadFactory platform = Executors.defaultThreadFactory();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = platform.newThread(r);
+                thread.setDaemon(true);
+                threads.add(thread);
+                return thread;
+            }
+        }, new PooledByteBufferAllocator(256, 4));
+    }
+
+    @Override
+    protected void tearDown() throws InterruptedException {
+        group.shutdown();
+    }
+
+    public void testRejectsZeroThreads() throws IOException {
+        try {
+            new NioEventLoopGroup(0, Executors.defaultThreadFactory(), new PooledByteBufferAllocator());
+            fail("Accepted zero threads");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testSpreadsChannelsOverAllLoops() {
+        assertEquals(2, group.size());
+        assertEquals(2, threads.size());
+
+        Set<InputEventLoop> loops = new HashSet<InputEventLoop>();
+        for (int i = 0; i < 4; i++) {
+            loops.add(group.next());
+        }
+        assertEquals(2, loops.size());
+    }
+
+    public void testTasksRunOnTheLoopThread() throws Exception {
+        final InputEventLoop loop = group.next();
+        final AtomicBoolean inLoop = new AtomicBoolean(false);
+        final CountDownLatch ran = new CountDownLatch(1);
+
+        assertFalse(loop.inEventLoop());
+        loop.execute(new Runnable() {
+            public void run() {
+                inLoop.set(loop.inEventLoop());
+                ran.countDown();
+            }
+        });
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(inLoop.get());
+    }
+
+    public void testRegisteredChannelsGetReadEvents() throws Exception {
+        Pipe pipe = Pipe.open();
+        RecordingHandler handler = new RecordingHandler(group.getAllocator());
+        group.next().register(pipe.source(), SelectionKey.OP_READ, handler);
+
+        assertFalse(pipe.source().isBlocking());
+        pipe.sink().write(ByteBuffer.wrap("hello".getBytes("UTF-8")));
+        assertEquals("hello", handler.read.poll(5, TimeUnit.SECONDS));
+
+        pipe.sink().close();
+    }
+
+    public void testFailingHandlersCloseTheirChannelOnly() throws Exception {
+        Pipe failing = Pipe.open();
+        Pipe working = Pipe.open();
+        InputEventLoop loop = group.next();
+
+        RecordingHandler failingHandler = new RecordingHandler(group.getAllocator()) {
+            @Override
+            public void ready(SelectionKey key) {
+                throw new IllegalStateException("Handler failed");
+            }
+        };
+        RecordingHandler workingHandler = new RecordingHandler(group.getAllocator());
+        loop.register(failing.source(), SelectionKey.OP_READ, failingHandler);
+        loop.register(working.source(), SelectionKey.OP_READ, workingHandler);
+
+        failing.sink().write(ByteBuffer.wrap(new byte[] { 1 }));
+        Throwable cause = failingHandler.closed.poll(5, TimeUnit.SECONDS);
+        assertTrue(cause instanceof IOException);
+        assertTrue(cause.getCause() instanceof IllegalStateException);
+        assertFalse(failing.source().isOpen());
+
+        working.sink().write(ByteBuffer.wrap("still".getBytes("UTF-8")));
+        assertEquals("still", workingHandler.read.poll(5, TimeUnit.SECONDS));
+    }
+
+    public void testShutdownClosesChannelsAndStopsThreads() throws Exception {
+        Pipe pipe = Pipe.open();
+        RecordingHandler handler = new RecordingHandler(group.getAllocator());
+        InputEventLoop loop = group.next();
+        loop.register(pipe.source(), SelectionKey.OP_READ, handler);
+
+        group.shutdown();
+
+        for (Thread thread : threads) {
+            assertFalse(thread.isAlive());
+        }
+        assertFalse(pipe.source().isOpen());
+        assertEquals(RecordingHandler.SHUTDOWN, handler.closed.poll(5, TimeUnit.SECONDS));
+
+        try {
+            loop.register(Pipe.open().source(), SelectionKey.OP_READ, handler);
+            fail("Registered with a loop that was shut down");
+        } catch (ClosedChannelException expected) {
+        }
+    }
+
+    // Reads what arrives as UTF-8 and keeps the cause it was closed with.
+    private static class RecordingHandler implements ChannelHandler {
+
+        static final Throwable SHUTDOWN = new Throwable("Shut down");
+
+        final BlockingQueue<String> read = new LinkedBlockingQueue<String>();
+        final BlockingQueue<Throwable> closed = new LinkedBlockingQueue<Throwable>();
+        private final ByteBufferAllocator allocator;
+
+        RecordingHandler(ByteBufferAllocator allocator) {
+            this.allocator = allocator;
+        }
+
+        public void ready(SelectionKey key) throws IOException {
+            ByteBuffer buffer = allocator.allocate(256);
+            try {
+                int length = ((Pipe.SourceChannel) key.channel()).read(buffer);
+                if (length < 0) {
+                    throw new IOException("End of stream");
+                }
+                buffer.flip();
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                read.add(new String(bytes, "UTF-8"));
+            } finally {
+                allocator.release(buffer);
+            }
+        }
+
+        public void closed(SelectableChannel channel, IOException cause) {
+            closed.add(cause == null ? SHUTDOWN : cause);
+        }
+
+    }
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.inputs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import junit.framework.TestCase;
+
+public class PooledByteBufferAllocatorTest extends TestCase {
+
+    private final PooledByteBufferAllocator allocator = new PooledByteBufferAllocator(1024, 2);
+
+    public void testAllocatesDirectBuffersOfTheFixedSize() {
+        ByteBuffer buffer = allocator.allocate(100);
+
+        assertTrue(buffer.isDirect());
+        assertEquals(1024, buffer.capacity());
+        assertEquals(0, buffer.position());
+        assertEquals(100, buffer.limit());
+    }
+
+    public void testReleasedBuffersAreReusedAndReset() {
+        ByteBuffer buffer = allocator.allocate(1024);
+        buffer.put(new byte[10]);
+        allocator.release(buffer);
+
+        ByteBuffer reused = allocator.allocate(512);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(512, reused.limit());
+    }
+
+    public void testLargerRequestsAreNotPooled() {
+        ByteBuffer large = allocator.allocate(2048);
+        assertFalse(large.isDirect());
+        assertEquals(2048, large.limit());
+
+        allocator.release(large);
+        allocator.release(ByteBuffer.allocateDirect(512));
+        assertNotSame(large, allocator.allocate(1024));
+    }
+
+    public void testPoolIsBounded() {
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 4; i++) {
+            buffers.add(allocator.allocate(1024));
+        }
+        for (ByteBuffer buffer : buffers) {
+            allocator.release(buffer);
+        }
+
+        // Only the first two were kept.
+        Set<ByteBuffer> reused = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+        for (int i = 0; i < 4; i++) {
+            reused.add(allocator.allocate(1024));
+        }
+        int kept = 0;
+        for (ByteBuffer buffer : buffers) {
+            if (reused.contains(buffer)) {
+                kept++;
+            }
+        }
+        assertEquals(2, kept);
+    }
+
+    public void testConcurrentUseNeverHandsOutABufferTwice() throws Exception {
+        final Set<ByteBuffer> held = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>()));
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        final PooledByteBufferAllocator shared = new PooledByteBufferAllocator(64, 4);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        ByteBuffer buffer = shared.allocate(64);
+                        if (!held.add(buffer)) {
+                            failures.add("Buffer handed out twice");
+                        }
+                        held.remove(buffer);
+                        shared.release(buffer);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+        }
+
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+
+}
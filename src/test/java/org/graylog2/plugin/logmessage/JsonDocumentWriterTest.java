@@ -0,0 +1,333 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.logmessage;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+public class JsonDocumentWriterTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public void testMessageMatchesMapDocumentWriter() {
+        LogMessage message = new LogMessage();
+        message.setShortMessage("short \"quoted\" \\ back\tslash\n");
+        message.setFullMessage("full \u00e9\u4e2d\ud83d\ude00 \u0001");
+        message.setHost("example.org");
+        message.setFacility("kern");
+        message.setFile("/var/log/x.log");
+        message.setLine(42);
+        message.setLevel(3);
+        message.setCreatedAtMillis(1350000000123L);
+        message.addAdditionalData("_string", "value");
+        message.addAdditionalData("_integer", 17);
+        message.addAdditionalData("_boxed_double", 1.5);
+        message.addAdditionalData("_whole_double", 2.0);
+        message.addAdditionalData("_boolean", true);
+        message.addAdditionalData("_null", null);
+        message.addLongField("_long", -9876543210L);
+        message.addDoubleField("_double", 0.1);
+
+        assertEquals(normalize(mapDocument(message)), normalize(parse(json(message))));
+    }
+
+    public void testDoublesAreWrittenLikeDoubleToString() {
+        assertEquals("{\"a\":2.0,\"b\":1.5,\"c\":1.0E20,\"d\":-0.001,\"e\":1.0E-4}", write(new Fields() {
+            public void write(DocumentWriter w) {
+                w.writeDouble("a", 2.0);
+                w.writeDouble("b", 1.5);
+                w.writeDouble("c", 1e20);
+                w.writeDouble("d", -0.001);
+                w.writeDouble("e", 0.0001);
+            }
+        }));
+    }
+
+    public void testBoxedDoublesAreWrittenLikeDoubleToString() {
+        assertEquals("{\"a\":2.0,\"b\":0.25,\"c\":3.0}", write(new Fields() {
+            public void write(DocumentWriter w) {
+                w.writeObject("a", 2.0);
+                w.writeObject("b", 0.25);
+                w.writeObject("c", 3.0f);
+            }
+        }));
+    }
+
+    public void testFloatsKeepTheirOwnText() {
+        assertEquals("{\"a\":0.1,\"b\":1.0E-5,\"c\":null}", write(new Fields() {
+            public void write(DocumentWriter w) {
+                w.writeObject("a", 0.1f);
+                w.writeObject("b", 1e-5f);
+                w.writeObject("c", Float.NaN);
+            }
+        }));
+    }
+
+    public void testNonFiniteDoublesAreNull() {
+        assertEquals("{\"a\":null,\"b\":null}", write(new Fields() {
+            public void write(DocumentWriter w) {
+                w.writeDouble("a", Double.NaN);
+                w.writeDouble("b", Double.POSITIVE_INFINITY);
+            }
+        }));
+    }
+
+    public void testTimestampsAreSecondsWithMillis() {
+        assertEquals("{\"a\":1350000000.123,\"b\":1.000,\"c\":0.005}", write(new Fields() {
+            public void write(DocumentWriter w) {
+                w.writeTimestamp("a", 1350000000123L);
+                w.writeTimestamp("b", 1000);
+                w.writeTimestamp("c", 5);
+            }
+        }));
+    }
+
+    public void testIntegersAndLongs() {
+        assertEquals("{\"a\":0,\"b\":-1,\"c\":" + Long.MIN_VALUE + ",\"d\":" + Long.MAX_VALUE + "}", write(new Fields() {
+            public void write(DocumentWriter w) {
+                w.writeInt("a", 0);
+                w.writeInt("b", -1);
+                w.writeLong("c", Long.MIN_VALUE);
+                w.writeLong("d", Long.MAX_VALUE);
+            }
+        }));
+    }
+
+    public void testStringsRoundTrip() {
+        final String s = "\"\\/\b\f\n\r\t\u0000\u001f \u007f\u0080\u07ff\u0800\uffff\ud83d\ude00";
+        Map<String, Object> parsed = parse(write(new Fields() {
+            public void write(DocumentWriter w) {
+                w.writeString("s", s);
+            }
+        }));
+
+        assertEquals(s, parsed.get("s"));
+    }
+
+    public void testUnpairedSurrogateIsReplaced() {
+        assertEquals("{\"s\":\"a?b\"}", write(new Fields() {
+            public void write(DocumentWriter w) {
+                w.writeString("s", "a\ud800b");
+            }
+        }));
+    }
+
+    public void testArrays() {
+        assertEquals("{\"empty\":[],\"one\":[\"a\"],\"two\":[\"a\",\"b\"]}", write(new Fields() {
+            public void write(DocumentWriter w) {
+                w.startArray("empty");
+                w.endArray();
+                w.startArray("one");
+                w.writeArrayValue("a");
+                w.endArray();
+                w.startArray("two");
+                w.writeArrayValue("a");
+                w.writeArrayValue("b");
+                w.endArray();
+            }
+        }));
+    }
+
+    public void testResetKeepsNothingOfThePreviousDocument() {
+        JsonDocumentWriter writer = new JsonDocumentWriter(4);
+        writer.startDocument();
+        writer.writeString("first", "a long enough value to grow the array");
+        writer.endDocument();
+
+        writer.reset();
+        writer.startDocument();
+        writer.writeInt("second", 2);
+        writer.endDocument();
+
+        assertEquals("{\"second\":2}", new String(writer.toByteArray(), UTF_8));
+        assertEquals(writer.size(), writer.toByteArray().length);
+    }
+
+    private interface Fields {
+        void write(DocumentWriter writer);
+    }
+
+    private static String write(Fields fields) {
+        JsonDocumentWriter writer = new JsonDocumentWriter();
+        writer.startDocument();
+        fields.write(writer);
+        writer.endDocument();
+        return new String(writer.getBuffer(), 0, writer.size(), UTF_8);
+    }
+
+    private static String json(LogMessage message) {
+        JsonDocumentWriter writer = new JsonDocumentWriter();
+        message.writeTo(writer);
+        return new String(writer.toByteArray(), UTF_8);
+    }
+
+    private static Map<String, Object> mapDocument(LogMessage message) {
+        MapDocumentWriter writer = new MapDocumentWriter();
+        message.writeTo(writer);
+        return writer.getDocument();
+    }
+
+    // Numbers compare by value, whatever type the writer used.
+    @SuppressWarnings("unchecked")
+    private static Object normalize(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Map) {
+            Map<String, Object> result = new HashMap<String, Object>();
+            for (Map.Entry<String, Object> e : ((Map<String, Object>) value).entrySet()) {
+                result.put(e.getKey(), normalize(e.getValue()));
+            }
+            return result;
+        } else if (value instanceof List) {
+            List<Object> result = new ArrayList<Object>();
+            for (Object o : (List<Object>) value) {
+                result.add(normalize(o));
+            }
+            return result;
+        }
+
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parse(String json) {
+        JsonParser parser = new JsonParser(json);
+        Object value = parser.value();
+        parser.skipWhitespace();
+        assertEquals("trailing characters in " + json, json.length(), parser.pos);
+        return (Map<String, Object>) value;
+    }
+
+    // Just enough JSON to read back what the writer produces.
+    private static class JsonParser {
+
+        private final String s;
+        int pos;
+
+        JsonParser(String s) {
+            this.s = s;
+        }
+
+        Object value() {
+            skipWhitespace();
+            char c = s.charAt(pos);
+            if (c == '{') {
+                Map<String, Object> map = new HashMap<String, Object>();
+                pos++;
+                skipWhitespace();
+                if (s.charAt(pos) == '}') {
+                    pos++;
+                    return map;
+                }
+                while (true) {
+                    skipWhitespace();
+                    String key = string();
+                    skipWhitespace();
+                    expect(':');
+                    map.put(key, value());
+                    skipWhitespace();
+                    if (s.charAt(pos++) == '}') {
+                        return map;
+                    }
+                }
+            } else if (c == '[') {
+                List<Object> list = new ArrayList<Object>();
+                pos++;
+                skipWhitespace();
+                if (s.charAt(pos) == ']') {
+                    pos++;
+                    return list;
+                }
+                while (true) {
+                    list.add(value());
+                    skipWhitespace();
+                    if (s.charAt(pos++) == ']') {
+                        return list;
+                    }
+                }
+            } else if (c == '"') {
+                return string();
+            } else if (s.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            } else if (s.startsWith("true", pos)) {
+                pos += 4;
+                return Boolean.TRUE;
+            } else if (s.startsWith("false", pos)) {
+                pos += 5;
+                return Boolean.FALSE;
+            }
+
+            int start = pos;
+            while (pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) {
+                pos++;
+            }
+            return Double.valueOf(s.substring(start, pos));
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = s.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                } else if (c < 0x20) {
+                    fail("unescaped control character in " + s);
+                } else if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+
+                char e = s.charAt(pos++);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(e);
+                }
+            }
+        }
+
+        void expect(char c) {
+            assertEquals("at " + pos + " of " + s, c, s.charAt(pos++));
+        }
+
+        void skipWhitespace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+
+    }
+
+}
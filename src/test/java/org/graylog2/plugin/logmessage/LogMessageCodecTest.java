@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.logmessage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import junit.framework.TestCase;
+import org.bson.types.ObjectId;
+import org.graylog2.plugin.GraylogServer;
+import org.graylog2.plugin.alarms.AlarmReceiver;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRule;
+
+public class LogMessageCodecTest extends TestCase {
+
+    private final LogMessageCodec codec = new LogMessageCodec();
+
+    public void testRoundTrip() {
+        TestStream first = new TestStream();
+        TestStream second = new TestStream();
+
+        LogMessage message = new LogMessage();
+        message.setShortMessage("short \u00e9\u4e2d\ud83d\ude00");
+        message.setFullMessage("full\nmessage");
+        message.setHost("example.org");
+        message.setFacility("kern");
+        message.setFile("/var/log/x.log");
+        message.setLine(42);
+        message.setLevel(3);
+        message.setCreatedAtMillis(1350000000123L);
+        message.setFilterOut(true);
+        message.setStreams(Arrays.<Stream>asList(first, second));
+        message.addAdditionalData("_string", "value");
+        message.addAdditionalData("_integer", 17);
+        message.addAdditionalData("_boxed_long", 17L);
+        message.addAdditionalData("_boxed_double", 1.5);
+        message.addAdditionalData("_boolean", true);
+        message.addLongField("_long", -9876543210L);
+        message.addDoubleField("_double", 0.1);
+
+        LogMessage decoded = roundTrip(message, streams(first, second));
+
+        assertEquals(message.getId(), decoded.getId());
+        assertEquals(message.getIdTime(), decoded.getIdTime());
+        assertEquals(message.getIdClockSeqAndNode(), decoded.getIdClockSeqAndNode());
+        assertEquals(message.getCreatedAtMillis(), decoded.getCreatedAtMillis());
+        assertEquals(message.getShortMessage(), decoded.getShortMessage());
+        assertEquals(message.getFullMessage(), decoded.getFullMessage());
+        assertEquals(message.getHost(), decoded.getHost());
+        assertEquals(message.getFacility(), decoded.getFacility());
+        assertEquals(message.getFile(), decoded.getFile());
+        assertEquals(message.getLine(), decoded.getLine());
+        assertEquals(message.getLevel(), decoded.getLevel());
+        assertTrue(decoded.getFilterOut());
+        assertEquals(message.getStreams(), decoded.getStreams());
+        assertEquals(new HashMap<String, Object>(message.getAdditionalData()),
+                new HashMap<String, Object>(decoded.getAdditionalData()));
+
+        assertEquals(-9876543210L, decoded.getLongField("_long", 0));
+        assertEquals(0.1, decoded.getDoubleField("_double", 0), 0);
+        assertEquals(Integer.valueOf(17), decoded.getAdditionalData().get("_integer"));
+        assertEquals(Long.valueOf(17), decoded.getAdditionalData().get("_boxed_long"));
+    }
+
+    public void testNullStringsStayNull() {
+        LogMessage message = new LogMessage();
+        message.setShortMessage("only this");
+
+        LogMessage decoded = roundTrip(message, null);
+
+        assertEquals("only this", decoded.getShortMessage());
+        assertNull(decoded.getFullMessage());
+        assertNull(decoded.getFile());
+        assertEquals(message.getHost(), decoded.getHost());
+        assertTrue(decoded.getAdditionalData().isEmpty());
+        assertTrue(decoded.getStreams().isEmpty());
+    }
+
+    public void testUnknownStreamsAreDropped() {
+        TestStream known = new TestStream();
+        TestStream unknown = new TestStream();
+
+        LogMessage message = new LogMessage();
+        message.setStreams(Arrays.<Stream>asList(unknown, known));
+
+        LogMessage decoded = roundTrip(message, streams(known));
+
+        assertEquals(Arrays.<Stream>asList(known), decoded.getStreams());
+    }
+
+    public void testDecodesSeveralMessagesFromOneBuffer() {
+        ByteBuffer in = ByteBuffer.allocate(4096);
+        for (int i = 0; i < 3; i++) {
+            LogMessage message = new LogMessage();
+            message.setShortMessage("message " + i);
+            codec.encode(message);
+            in.put(codec.getBuffer(), 0, codec.size());
+        }
+        in.flip();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("message " + i, codec.decode(in, new LogMessage(), null).getShortMessage());
+        }
+        assertFalse(in.hasRemaining());
+    }
+
+    public void testUnknownVersionIsRejected() {
+        LogMessage message = new LogMessage();
+        int size = codec.encode(message);
+        byte[] data = Arrays.copyOf(codec.getBuffer(), size);
+        data[0] = 99;
+
+        try {
+            codec.decode(ByteBuffer.wrap(data), new LogMessage(), null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("99"));
+        }
+    }
+
+    private LogMessage roundTrip(LogMessage message, Map<String, Stream> streams) {
+        int size = codec.encode(message);
+        byte[] data = Arrays.copyOf(codec.getBuffer(), size);
+
+        ByteBuffer in = ByteBuffer.wrap(data);
+        LogMessage decoded = new LogMessageCodec().decode(in, new LogMessage(), streams);
+        assertFalse(in.hasRemaining());
+        return decoded;
+    }
+
+    private static Map<String, Stream> streams(Stream... streams) {
+        Map<String, Stream> result = new HashMap<String, Stream>();
+        for (Stream stream : streams) {
+            result.put(stream.getId().toString(), stream);
+        }
+        return result;
+    }
+
+    private static class TestStream implements Stream {
+
+        private final ObjectId id = new ObjectId();
+
+        public List<StreamRule> getStreamRules() {
+            return new ArrayList<StreamRule>();
+        }
+
+        public ObjectId getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return "stream " + id;
+        }
+
+        public int getAlarmTimespan() {
+            return 0;
+        }
+
+        public int getAlarmMessageLimit() {
+            return 0;
+        }
+
+        public int getAlarmPeriod() {
+            return 0;
+        }
+
+        public Set<AlarmReceiver> getAlarmReceivers(GraylogServer server) {
+            return null;
+        }
+
+    }
+
+}
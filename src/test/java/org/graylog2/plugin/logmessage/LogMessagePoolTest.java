@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.logmessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+
+public class LogMessagePoolTest extends TestCase {
+
+    public void testCapacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(2, new LogMessagePool(1).getCapacity());
+        assertEquals(2, new LogMessagePool(2).getCapacity());
+        assertEquals(4, new LogMessagePool(3).getCapacity());
+        assertEquals(1024, new LogMessagePool(1000).getCapacity());
+    }
+
+    public void testRejectsNonPositiveCapacity() {
+        try {
+            new LogMessagePool(0);
+            fail("Accepted capacity 0");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testEmptyPoolCreatesMessages() {
+        LogMessagePool pool = new LogMessagePool(4);
+        LogMessage a = pool.acquire();
+        LogMessage b = pool.acquire();
+
+        assertNotNull(a);
+        assertNotNull(b);
+        assertTrue(a != b);
+    }
+
+    public void testReleasedMessagesAreResetAndReused() {
+        LogMessagePool pool = new LogMessagePool(4);
+        LogMessage message = pool.acquire();
+        message.setHost("example.org");
+        message.setShortMessage("hello");
+        message.addAdditionalData("_key", "value");
+
+        pool.release(message);
+        LogMessage reused = pool.acquire();
+
+        assertSame(message, reused);
+        assertNull(reused.getHost());
+        assertNull(reused.getShortMessage());
+        assertTrue(reused.getAdditionalData().isEmpty());
+    }
+
+    public void testFullPoolDropsReleasedMessages() {
+        LogMessagePool pool = new LogMessagePool(2);
+        LogMessage a = new LogMessage();
+        LogMessage b = new LogMessage();
+        LogMessage c = new LogMessage();
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+
+        assertSame(a, pool.acquire());
+        assertSame(b, pool.acquire());
+        LogMessage created = pool.acquire();
+        assertTrue(created != a && created != b && created != c);
+    }
+
+    public void testSmallestPoolDoesNotHang() throws Exception {
+        final LogMessagePool pool = new LogMessagePool(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 1000; i++) {
+                        pool.release(new LogMessage());
+                        pool.release(new LogMessage());
+                        pool.release(new LogMessage());
+                        pool.acquire();
+                        pool.acquire();
+                        pool.acquire();
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        thread.join(2000);
+
+        assertFalse("acquire() or release() did not return", thread.isAlive());
+        assertNull(failure.get());
+    }
+
+    public void testConcurrentUseNeverHandsOutAMessageTwice() throws Exception {
+        final LogMessagePool pool = new LogMessagePool(8);
+        final int threads = 4;
+        final int rounds = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        // Messages currently held by some thread.
+        final Map<LogMessage, Boolean> held = Collections.synchronizedMap(new IdentityHashMap<LogMessage, Boolean>());
+        final AtomicReference<String> failure = new AtomicReference<String>();
+
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < rounds; j++) {
+                        LogMessage message = pool.acquire();
+                        if (held.put(message, Boolean.TRUE) != null) {
+                            failure.set("Message handed out twice");
+                        }
+                        held.remove(message);
+                        pool.release(message);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(10000);
+            assertFalse(worker.isAlive());
+        }
+        assertNull(failure.get());
+    }
+
+}
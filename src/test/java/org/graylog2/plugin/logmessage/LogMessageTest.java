@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.logmessage;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import junit.framework.TestCase;
+
+public class LogMessageTest extends TestCase {
+
+    private static final byte[] PAYLOAD = "..full|app.rb|42|7..".getBytes();
+
+    private final CountingDecoder decoder = new CountingDecoder();
+    private LogMessage message;
+
+    @Override
+    protected void setUp() {
+        message = new LogMessage();
+        message.setHost("example.org");
+        message.setShortMessage("short");
+        message.setLevel(3);
+        message.setFacility("app");
+        message.setRawPayload(PAYLOAD, 2, PAYLOAD.length - 4, decoder);
+    }
+
+    public void testRoutingFieldsDoNotDecode() {
+        assertEquals("example.org", message.getHost());
+        assertEquals("short", message.getShortMessage());
+        assertEquals(3, message.getLevel());
+        assertEquals("app", message.getFacility());
+        message.getCreatedAt();
+        message.getFilterOut();
+
+        assertEquals(0, decoder.calls);
+        assertFalse(message.isDecoded());
+        assertFalse(message.isModifiedSinceRawPayload());
+    }
+
+    public void testGettersReturnDecodedValuesAndDecodeOnce() {
+        assertEquals("full", message.getFullMessage());
+        assertEquals("app.rb", message.getFile());
+        assertEquals(42, message.getLine());
+        assertEquals(7L, message.getLongField("_retries", 0));
+        assertEquals(Long.valueOf(7), message.getAdditionalData().get("_retries"));
+
+        assertEquals(1, decoder.calls);
+        assertTrue(message.isDecoded());
+    }
+
+    public void testEveryLazyFieldDecodes() {
+        assertEquals(42, copy().getLine());
+        assertEquals("app.rb", copy().getFile());
+        assertEquals(7.0, copy().getDoubleField("retries", 0));
+        assertTrue(copy().toString().contains("add.: 1"));
+
+        LogMessage serialized = copy();
+        JsonDocumentWriter writer = new JsonDocumentWriter();
+        serialized.writeTo(writer);
+        assertTrue(new String(writer.toByteArray()).contains("\"full_message\":\"full\""));
+
+        LogMessage explicit = copy();
+        explicit.decode();
+        assertTrue(explicit.isDecoded());
+
+        assertEquals(6, decoder.calls);
+    }
+
+    public void testDecoderSeesThePayloadSlice() {
+        message.decode();
+
+        assertSame(PAYLOAD, decoder.payload);
+        assertEquals(2, decoder.offset);
+        assertEquals(PAYLOAD.length - 4, decoder.length);
+    }
+
+    public void testDecodingIsNotAModification() {
+        message.getFullMessage();
+        assertFalse(message.isModifiedSinceRawPayload());
+
+        message.setHost("other.example.org");
+        assertTrue(message.isModifiedSinceRawPayload());
+    }
+
+    public void testSettersDecodeFirst() {
+        message.setFile("other.rb");
+        message.addAdditionalData("_retries", 8);
+
+        // The decoded values must not overwrite what was set.
+        assertEquals("other.rb", message.getFile());
+        assertEquals("full", message.getFullMessage());
+        assertEquals(8, message.getAdditionalData().get("_retries"));
+        assertEquals(1, decoder.calls);
+        assertTrue(message.isModifiedSinceRawPayload());
+    }
+
+    public void testRawPayloadIsAReadOnlyView() {
+        ByteBuffer raw = message.getRawPayload();
+
+        assertTrue(message.hasRawPayload());
+        assertEquals(PAYLOAD.length - 4, raw.remaining());
+        assertEquals('f', raw.get(0));
+        try {
+            raw.put(0, (byte) 'x');
+            fail("Raw payload is writable");
+        } catch (ReadOnlyBufferException expected) {
+        }
+    }
+
+    public void testWithoutDecoderTheMessageIsComplete() {
+        LogMessage complete = new LogMessage();
+        complete.setRawPayload(PAYLOAD, 0, PAYLOAD.length, null);
+
+        assertTrue(complete.hasRawPayload());
+        assertTrue(complete.isDecoded());
+        assertNull(complete.getFullMessage());
+    }
+
+    public void testResetDropsThePayloadAndTheDecoder() {
+        message.reset();
+
+        assertFalse(message.hasRawPayload());
+        assertNull(message.getRawPayload());
+        assertTrue(message.isDecoded());
+        assertNull(message.getFullMessage());
+        assertEquals(0, decoder.calls);
+    }
+
+    private LogMessage copy() {
+        LogMessage copy = new LogMessage();
+        copy.setRawPayload(PAYLOAD, 2, PAYLOAD.length - 4, decoder);
+        return copy;
+    }
+
+    // Decodes "full message|file|line|retries" and counts the calls.
+    private static class CountingDecoder implements PayloadDecoder {
+
+        int calls = 0;
+        byte[] payload;
+        int offset;
+        int length;
+
+        public void decode(LogMessage message, byte[] payload, int offset, int length) {
+            calls++;
+            this.payload = payload;
+            this.offset = offset;
+            this.length = length;
+
+            String[] parts = new String(payload, offset, length).split("\\|");
+            message.setFullMessage(parts[0]);
+            message.setFile(parts[1]);
+            message.setLine(Integer.parseInt(parts[2]));
+            message.addLongField("_retries", Long.parseLong(parts[3]));
+        }
+
+    }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.logmessage;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+
+public class TimeBasedIdGeneratorTest extends TestCase {
+
+    public void testIdsOfOneThreadAreUnique() {
+        TimeBasedIdGenerator generator = new TimeBasedIdGenerator();
+        Set<MessageId> ids = newSet();
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(ids.add(generator.generate()));
+        }
+    }
+
+    public void testIdsStayUniqueWithMoreThreadsThanClockSequences() throws InterruptedException {
+        final TimeBasedIdGenerator generator = new TimeBasedIdGenerator();
+        final Set<MessageId> ids = newSet();
+        final int threads = 17000;
+        final int perThread = 4;
+
+        // A few threads at a time, the count is what matters.
+        for (int started = 0; started < threads; started += 100) {
+            Thread[] batch = new Thread[100];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < perThread; j++) {
+                            ids.add(generator.generate());
+                        }
+                    }
+                };
+                batch[i].start();
+            }
+            for (Thread t : batch) {
+                t.join();
+            }
+        }
+
+        assertEquals(threads * perThread, ids.size());
+    }
+
+    public void testRenderedLikeEaioUuid() {
+        MessageId id = new MessageId(0x0123456789abcdefL, 0xfedcba9876543210L);
+        assertEquals("01234567-89ab-cdef-fedc-ba9876543210", id.toString());
+    }
+
+    public void testConcurrentReadersSeeTheSameLazyId() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            final LogMessage message = new LogMessage();
+            final CountDownLatch start = new CountDownLatch(1);
+            final AtomicReference<String> first = new AtomicReference<String>();
+            final AtomicReference<String> mismatch = new AtomicReference<String>();
+
+            Thread[] readers = new Thread[4];
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+
+                        String id = message.getId();
+                        if (!first.compareAndSet(null, id) && !first.get().equals(id)) {
+                            mismatch.set(id);
+                        }
+                        if (message.getIdTime() != message.getMessageId().getTime()) {
+                            mismatch.set(id);
+                        }
+                    }
+                };
+                readers[i].start();
+            }
+            start.countDown();
+            for (Thread t : readers) {
+                t.join();
+            }
+
+            assertNull(mismatch.get());
+            assertEquals(first.get(), message.getId());
+        }
+    }
+
+    public void testResetGivesANewId() {
+        LogMessage message = new LogMessage();
+        String id = message.getId();
+        message.reset();
+        assertFalse(id.equals(message.getId()));
+    }
+
+    private static Set<MessageId> newSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<MessageId, Boolean>());
+    }
+
+}
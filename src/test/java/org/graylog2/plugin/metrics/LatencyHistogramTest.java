@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+    public void testBucketBoundaries() {
+        assertEquals(0, LatencyHistogram.bucketOf(-5));
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(1, LatencyHistogram.bucketOf(1));
+        assertEquals(2, LatencyHistogram.bucketOf(2));
+        assertEquals(2, LatencyHistogram.bucketOf(3));
+        assertEquals(3, LatencyHistogram.bucketOf(4));
+        assertEquals(10, LatencyHistogram.bucketOf(1023));
+        assertEquals(11, LatencyHistogram.bucketOf(1024));
+        assertEquals(63, LatencyHistogram.bucketOf(1L << 62));
+        assertEquals(63, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    public void testUpperBoundsMatchTheBuckets() {
+        assertEquals(0, LatencyHistogram.getUpperBound(0));
+        assertEquals(1, LatencyHistogram.getUpperBound(1));
+        assertEquals(1023, LatencyHistogram.getUpperBound(10));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getUpperBound(LatencyHistogram.BUCKETS - 1));
+
+        for (int i = 1; i < LatencyHistogram.BUCKETS - 1; i++) {
+            long upper = LatencyHistogram.getUpperBound(i);
+            assertEquals(i, LatencyHistogram.bucketOf(upper));
+            assertEquals(i + 1, LatencyHistogram.bucketOf(upper + 1));
+        }
+    }
+
+    public void testCountSumAndMean() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0.0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(0.99));
+
+        histogram.record(100);
+        histogram.record(300);
+        histogram.record(-1);
+
+        assertEquals(3, histogram.getCount());
+        // Negative values count, but add nothing to the sum.
+        assertEquals(400, histogram.getSum());
+        assertEquals(400 / 3.0, histogram.getMean(), 1e-9);
+        assertEquals(1, histogram.getBuckets()[0]);
+        assertEquals(1, histogram.getBuckets()[7]);
+        assertEquals(1, histogram.getBuckets()[9]);
+    }
+
+    public void testPercentilesAreBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1000000);
+
+        assertEquals(1023, histogram.getPercentile(0.5));
+        assertEquals(1023, histogram.getPercentile(0.99));
+        assertEquals((1L << 20) - 1, histogram.getPercentile(0.999));
+        assertEquals((1L << 20) - 1, histogram.getPercentile(1.0));
+    }
+
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+    }
+
+    public void testConcurrentRecordsAreAllCounted() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 50000; i++) {
+                        histogram.record(i % 2 == 0 ? 10 : 1000);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(400000, histogram.getCount());
+        assertEquals(200000L * 10 + 200000L * 1000, histogram.getSum());
+        assertEquals(200000, histogram.getBuckets()[LatencyHistogram.bucketOf(10)]);
+        assertEquals(200000, histogram.getBuckets()[LatencyHistogram.bucketOf(1000)]);
+    }
+
+}
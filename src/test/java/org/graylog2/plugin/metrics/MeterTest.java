@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+public class MeterTest extends TestCase {
+
+    private static final long START = 1000000000L;
+
+    public void testCountsMarks() {
+        Meter meter = new Meter();
+        meter.mark();
+        meter.mark(41);
+
+        assertEquals(42, meter.getCount());
+        assertTrue(meter.getMeanRate() > 0);
+    }
+
+    public void testConcurrentMarksAreAllCounted() throws Exception {
+        final Meter meter = new Meter();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 50000; i++) {
+                        meter.mark();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(400000, meter.getCount());
+    }
+
+    public void testRateOnlyChangesOnTicks() {
+        Meter meter = new Meter(START);
+        meter.mark(50);
+
+        // Marking does not touch the rate, and nothing is averaged before the first tick.
+        assertEquals(0.0, meter.getOneMinuteRate(START + seconds(4)));
+
+        // The first tick takes the rate as it is: 50 in 5 seconds.
+        assertEquals(10.0, meter.getOneMinuteRate(START + seconds(5)), 1e-9);
+
+        // Later marks only count at the next tick.
+        meter.mark(100);
+        assertEquals(10.0, meter.getOneMinuteRate(START + seconds(9)), 1e-9);
+    }
+
+    public void testMissedTicksAreCaughtUp() {
+        Meter meter = new Meter(START);
+        meter.mark(50);
+        meter.getOneMinuteRate(START + seconds(5));
+
+        // Twelve idle ticks, one minute, decay the rate by e.
+        assertEquals(10.0 / Math.E, meter.getOneMinuteRate(START + seconds(65)), 1e-9);
+    }
+
+    public void testCatchingUpIsLikeTickingEveryTime() {
+        Meter ticking = new Meter(START);
+        Meter lazy = new Meter(START);
+        ticking.mark(50);
+        lazy.mark(50);
+        ticking.getOneMinuteRate(START + seconds(5));
+        lazy.getOneMinuteRate(START + seconds(5));
+
+        for (int i = 2; i <= 10; i++) {
+            ticking.getOneMinuteRate(START + seconds(5 * i));
+        }
+        assertEquals(ticking.getOneMinuteRate(START + seconds(50)), lazy.getOneMinuteRate(START + seconds(50)), 1e-9);
+    }
+
+    public void testTicksStayOnTheirGrid() {
+        Meter meter = new Meter(START);
+        meter.mark(50);
+        // Read late: the tick still ends at 5 seconds, the next one at 10.
+        assertEquals(10.0, meter.getOneMinuteRate(START + seconds(7)), 1e-9);
+
+        meter.mark(100);
+        assertEquals(10.0, meter.getOneMinuteRate(START + seconds(9)), 1e-9);
+        double alpha = 1 - Math.exp(-5 / 60.0);
+        assertEquals(10.0 + alpha * (20.0 - 10.0), meter.getOneMinuteRate(START + seconds(10)), 1e-9);
+    }
+
+    private static long seconds(long seconds) {
+        return TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+}
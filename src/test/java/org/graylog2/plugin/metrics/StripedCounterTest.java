@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import junit.framework.TestCase;
+
+public class StripedCounterTest extends TestCase {
+
+    public void testAddsUp() {
+        StripedCounter counter = new StripedCounter();
+        counter.increment();
+        counter.add(10);
+        counter.add(-3);
+
+        assertEquals(8, counter.sum());
+        assertEquals("8", counter.toString());
+    }
+
+    public void testReset() {
+        StripedCounter counter = new StripedCounter();
+        counter.add(5);
+        counter.reset();
+
+        assertEquals(0, counter.sum());
+    }
+
+    public void testStripesArePowersOfTwo() {
+        assertTrue(StripedCounter.STRIPES >= 2);
+        assertEquals(0, StripedCounter.STRIPES & (StripedCounter.STRIPES - 1));
+        assertTrue(StripedCounter.stripe() >= 0 && StripedCounter.stripe() < StripedCounter.STRIPES);
+    }
+
+    public void testConcurrentIncrementsAreAllCounted() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        final int threads = 16;
+        final int increments = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < increments; i++) {
+                        counter.increment();
+                    }
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals((long) threads * increments, counter.sum());
+    }
+
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.rules;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+import org.graylog2.plugin.RulesEngine;
+import org.graylog2.plugin.logmessage.LogMessage;
+
+public class CompiledRulesEngineTest extends TestCase {
+
+    private static final String HEADER = "package org.graylog2.rules\n"
+            + "import org.graylog2.plugin.logmessage.LogMessage\n";
+
+    private final List<File> files = new ArrayList<File>();
+
+    @Override
+    protected void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    public void testCompiledAndFallbackRulesTogether() throws Exception {
+        RecordingEngine fallback = new RecordingEngine();
+        CompiledRulesEngine engine = new CompiledRulesEngine(fallback);
+        engine.addRules(write(HEADER
+                + "rule \"compiled\" when m : LogMessage( host == \"a\" ) then m.addAdditionalData(\"_host\", \"b\"); end\n"
+                + "rule \"complex\" when LogMessage( host == \"a\" || host == \"b\" ) then end\n"));
+
+        assertEquals(1, engine.getCompiledRuleCount());
+        assertEquals(Arrays.asList("complex"), engine.getFallbackRuleNames());
+        assertEquals(1, fallback.sources.size());
+        String fallbackSource = fallback.sources.get(0);
+        assertTrue(fallbackSource.startsWith(HEADER));
+        assertTrue(fallbackSource.contains("\"complex\""));
+        assertFalse(fallbackSource.contains("\"compiled\""));
+
+        LogMessage message = message("a");
+        engine.evaluate(message);
+
+        // The fallback saw the message before the compiled rule fired.
+        assertEquals(Arrays.asList("a:null"), fallback.seen);
+        assertEquals("b", message.getAdditionalData().get("_host"));
+    }
+
+    public void testFallbackIsNotCalledWithoutFallbackRules() throws Exception {
+        RecordingEngine fallback = new RecordingEngine();
+        CompiledRulesEngine engine = new CompiledRulesEngine(fallback);
+        engine.addRules(write(HEADER + "rule \"a\" when m : LogMessage() then m.setFilterOut(true); end\n"));
+
+        LogMessage message = message("a");
+        engine.evaluate(message);
+
+        assertTrue(fallback.sources.isEmpty());
+        assertTrue(fallback.seen.isEmpty());
+        assertTrue(message.getFilterOut());
+    }
+
+    public void testUncompilableRulesWithoutFallbackAreRejected() throws Exception {
+        CompiledRulesEngine engine = new CompiledRulesEngine();
+        try {
+            engine.addRules(write(HEADER + "rule \"complex\" when LogMessage( host < \"m\" ) then end\n"));
+            fail("Accepted a rule that cannot be compiled");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, engine.getCompiledRuleCount());
+    }
+
+    public void testActionsApplyInFileOrder() throws Exception {
+        CompiledRulesEngine engine = new CompiledRulesEngine();
+        engine.addRules(write(HEADER
+                + "rule \"first\" when m : LogMessage() then m.addAdditionalData(\"_order\", 1); m.setFilterOut(true); end\n"
+                + "rule \"second\" when m : LogMessage( host == \"a\" ) then m.addAdditionalData(\"_order\", 2); end\n"));
+        engine.addRules(write(HEADER
+                + "rule \"third\" when m : LogMessage( host == \"a\" ) then "
+                + "m.addAdditionalData(\"_order\", 3); m.setFilterOut(false); end\n"));
+
+        LogMessage a = message("a");
+        engine.evaluate(a);
+        assertEquals(Integer.valueOf(3), a.getAdditionalData().get("_order"));
+        assertFalse(a.getFilterOut());
+
+        LogMessage b = message("b");
+        engine.evaluate(b);
+        assertEquals(Integer.valueOf(1), b.getAdditionalData().get("_order"));
+        assertTrue(b.getFilterOut());
+    }
+
+    public void testBatchesEvaluateLikeSingleMessages() throws Exception {
+        RecordingEngine fallback = new RecordingEngine();
+        CompiledRulesEngine engine = new CompiledRulesEngine(fallback);
+        engine.addRules(write(HEADER
+                + "rule \"a\" when m : LogMessage( host == \"a\" ) then m.addAdditionalData(\"_host\", \"x\"); end\n"
+                + "rule \"any\" when m : LogMessage() then m.setFilterOut(true); end\n"
+                + "rule \"complex\" when LogMessage( host < \"m\" ) then end\n"));
+
+        List<LogMessage> batch = Arrays.asList(message("a"), message("b"), message("a"));
+        engine.evaluate(batch);
+
+        assertEquals(Arrays.asList("a:null", "b:null", "a:null"), fallback.seen);
+        for (LogMessage message : batch) {
+            LogMessage single = message(message.getHost());
+            engine.evaluate(single);
+            assertEquals(single.getAdditionalData(), message.getAdditionalData());
+            assertEquals(single.getFilterOut(), message.getFilterOut());
+        }
+    }
+
+    public void testAddingRulesWhileEvaluating() throws Exception {
+        final CompiledRulesEngine engine = new CompiledRulesEngine();
+        final int files = 50;
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+
+        List<Thread> evaluators = new ArrayList<Thread>();
+        for (int t = 0; t < 3; t++) {
+            evaluators.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        boolean batch = false;
+                        while (!done.get()) {
+                            LogMessage message = message("a");
+                            batch = !batch;
+                            if (batch) {
+                                engine.evaluate(message);
+                            } else {
+                                engine.evaluate(Arrays.asList(message));
+                            }
+                            // Rules are added as a whole, in order: the fields set form a prefix.
+                            int fields = message.getAdditionalData().size();
+                            for (int i = 0; i < fields; i++) {
+                                if (!message.getAdditionalData().containsKey("_rule" + i)) {
+                                    failure.set("Rule " + i + " did not fire, but rule " + (fields - 1) + " did");
+                                }
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        failure.set(e.toString());
+                    }
+                }
+            }));
+        }
+        for (Thread evaluator : evaluators) {
+            evaluator.setDaemon(true);
+            evaluator.start();
+        }
+
+        try {
+            for (int i = 0; i < files; i++) {
+                engine.addRules(write(HEADER
+                        + "rule \"r" + i + "\" when m : LogMessage( host == \"a\" ) then m.addAdditionalData(\"_rule" + i + "\", 1); end\n"));
+            }
+        } finally {
+            done.set(true);
+        }
+        for (Thread evaluator : evaluators) {
+            evaluator.join(10000);
+            assertFalse(evaluator.isAlive());
+        }
+
+        assertNull(failure.get(), failure.get());
+        LogMessage message = message("a");
+        engine.evaluate(message);
+        assertEquals(files, message.getAdditionalData().size());
+    }
+
+    private String write(String source) throws IOException {
+        File file = File.createTempFile("compiled-rules-test-", ".drl");
+        files.add(file);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(source.getBytes(Charset.forName("UTF-8")));
+        } finally {
+            out.close();
+        }
+
+        return file.getAbsolutePath();
+    }
+
+    private static LogMessage message(String host) {
+        LogMessage message = new LogMessage();
+        message.setHost(host);
+        return message;
+    }
+
+    // Keeps the rules it gets and the messages it sees, as host:_host.
+    private static class RecordingEngine implements RulesEngine {
+
+        final List<String> sources = new ArrayList<String>();
+        final List<String> seen = new ArrayList<String>();
+
+        public void addRules(String rulesFile) {
+            try {
+                sources.add(new String(Files.readAllBytes(new File(rulesFile).toPath()), Charset.forName("UTF-8")));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        public void evaluate(LogMessage message) {
+            seen.add(message.getHost() + ":" + message.getAdditionalData().get("_host"));
+        }
+
+    }
+
+}
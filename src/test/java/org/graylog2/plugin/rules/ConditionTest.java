@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.rules;
+
+import junit.framework.TestCase;
+import org.graylog2.plugin.logmessage.LogMessage;
+import org.graylog2.plugin.rules.Condition.Operator;
+
+public class ConditionTest extends TestCase {
+
+    public void testNumericComparison() {
+        LogMessage message = new LogMessage();
+        message.setLevel(3);
+
+        assertTrue(new Condition(MessageField.LEVEL, Operator.LESS_OR_EQUAL, 3L).matches(message));
+        assertFalse(new Condition(MessageField.LEVEL, Operator.LESS, 3L).matches(message));
+        assertTrue(new Condition(MessageField.LEVEL, Operator.NOT_EQUAL, 4L).matches(message));
+    }
+
+    public void testMissingStringOnlyMatchesNotEqual() {
+        LogMessage message = new LogMessage();
+
+        assertTrue(new Condition(MessageField.HOST, Operator.NOT_EQUAL, "a").matches(message));
+        assertFalse(new Condition(MessageField.HOST, Operator.EQUAL, "a").matches(message));
+        assertFalse(new Condition(MessageField.HOST, Operator.MATCHES, ".*").matches(message));
+        assertFalse(new Condition(MessageField.HOST, Operator.NOT_MATCHES, "a").matches(message));
+    }
+
+    public void testRejectsOrderingOfStringFields() {
+        assertRejected(MessageField.HOST, Operator.LESS, "m", "host is not numeric and cannot be compared with LESS.");
+        assertRejected(MessageField.SHORT_MESSAGE, Operator.GREATER_OR_EQUAL, "m",
+                "shortMessage is not numeric and cannot be compared with GREATER_OR_EQUAL.");
+    }
+
+    public void testRejectsRegularExpressionsOnNumericFields() {
+        assertRejected(MessageField.LEVEL, Operator.MATCHES, "1.*", "level is numeric and cannot be matched with MATCHES.");
+    }
+
+    public void testRejectsValuesOfTheWrongType() {
+        assertRejected(MessageField.LINE, Operator.EQUAL, "1", "line is numeric and can only be compared with a Long, not 1.");
+        assertRejected(MessageField.LEVEL, Operator.EQUAL, Integer.valueOf(1),
+                "level is numeric and can only be compared with a Long, not 1.");
+        assertRejected(MessageField.HOST, Operator.EQUAL, 1L, "host can only be compared with a String, not 1.");
+        assertRejected(MessageField.HOST, Operator.EQUAL, null, "host can only be compared with a String, not null.");
+    }
+
+    private static void assertRejected(MessageField field, Operator operator, Object value, String message) {
+        try {
+            new Condition(field, operator, value);
+            fail("Accepted " + field + " " + operator + " " + value);
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+}
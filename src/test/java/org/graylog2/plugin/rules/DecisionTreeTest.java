@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.rules;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.graylog2.plugin.logmessage.LogMessage;
+import org.graylog2.plugin.rules.Condition.Operator;
+
+public class DecisionTreeTest extends TestCase {
+
+    // Few values, so that rules share equality tests and the tree switches on them.
+    private static final String[] HOSTS = { "a.example.org", "b.example.org", "c.example.org" };
+    private static final String[] FACILITIES = { "kernel", "mail", "cron", null };
+    private static final String[] MESSAGES = { "timeout", "connection timeout", "ok", "", null };
+    private static final String[] PATTERNS = { ".*timeout.*", "ok", "c.*", ".*" };
+
+    public void testEmptyTreeMatchesNothing() {
+        BitSet matched = new BitSet();
+        DecisionTree.build(Collections.<Rule>emptyList()).match(message("a.example.org", "mail", "ok", 3, 1), matched);
+
+        assertTrue(matched.isEmpty());
+    }
+
+    public void testSwitchesOnSharedEqualityAndKeepsTheOtherRules() {
+        List<Rule> rules = new ArrayList<Rule>();
+        rules.add(rule(0, new Condition(MessageField.HOST, Operator.EQUAL, "a.example.org")));
+        rules.add(rule(1, new Condition(MessageField.HOST, Operator.EQUAL, "a.example.org"),
+                new Condition(MessageField.LEVEL, Operator.LESS_OR_EQUAL, 3L)));
+        rules.add(rule(2, new Condition(MessageField.HOST, Operator.EQUAL, "b.example.org")));
+        rules.add(rule(3, new Condition(MessageField.SHORT_MESSAGE, Operator.MATCHES, ".*timeout.*")));
+        rules.add(rule(4));
+        DecisionTree tree = DecisionTree.build(rules);
+
+        assertEquals(bits(0, 1, 3, 4), match(tree, message("a.example.org", "mail", "timeout", 3, 1)));
+        assertEquals(bits(0, 4), match(tree, message("a.example.org", "mail", "ok", 6, 1)));
+        assertEquals(bits(2, 4), match(tree, message("b.example.org", "mail", "ok", 1, 1)));
+        assertEquals(bits(3, 4), match(tree, message(null, null, "timeout", 1, 1)));
+    }
+
+    public void testMatchesLikeEvaluatingEveryRule() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            List<Rule> rules = new ArrayList<Rule>();
+            int ruleCount = 1 + random.nextInt(40);
+            for (int i = 0; i < ruleCount; i++) {
+                rules.add(randomRule(random, i));
+            }
+            DecisionTree tree = DecisionTree.build(rules);
+
+            for (int i = 0; i < 200; i++) {
+                LogMessage message = randomMessage(random);
+                assertEquals("Round " + round + ", message " + message, naive(rules, message), match(tree, message));
+            }
+        }
+    }
+
+    private static Rule randomRule(Random random, int index) {
+        int conditionCount = random.nextInt(4);
+        Condition[] conditions = new Condition[conditionCount];
+        for (int i = 0; i < conditionCount; i++) {
+            conditions[i] = randomCondition(random);
+        }
+
+        return rule(index, conditions);
+    }
+
+    private static Condition randomCondition(Random random) {
+        switch (random.nextInt(6)) {
+            case 0:
+            case 1:
+                return new Condition(MessageField.HOST, random.nextBoolean() ? Operator.EQUAL : Operator.NOT_EQUAL,
+                        pick(random, HOSTS));
+            case 2:
+                return new Condition(MessageField.FACILITY, Operator.EQUAL, pick(random, new String[] { "kernel", "mail", "cron" }));
+            case 3:
+                return new Condition(MessageField.SHORT_MESSAGE, random.nextBoolean() ? Operator.MATCHES : Operator.NOT_MATCHES,
+                        pick(random, PATTERNS));
+            case 4:
+                Operator[] numeric = { Operator.EQUAL, Operator.NOT_EQUAL, Operator.LESS, Operator.LESS_OR_EQUAL,
+                        Operator.GREATER, Operator.GREATER_OR_EQUAL };
+                return new Condition(MessageField.LEVEL, numeric[random.nextInt(numeric.length)], Long.valueOf(random.nextInt(8)));
+            default:
+                return new Condition(MessageField.LINE, Operator.EQUAL, Long.valueOf(random.nextInt(3)));
+        }
+    }
+
+    private static LogMessage randomMessage(Random random) {
+        return message(random.nextInt(10) == 0 ? null : pick(random, HOSTS), pick(random, FACILITIES),
+                pick(random, MESSAGES), random.nextInt(8), random.nextInt(3));
+    }
+
+    private static BitSet naive(List<Rule> rules, LogMessage message) {
+        BitSet matched = new BitSet();
+        for (Rule rule : rules) {
+            boolean all = true;
+            for (Condition condition : rule.getConditions()) {
+                all &= condition.matches(message);
+            }
+            if (all) {
+                matched.set(rule.getIndex());
+            }
+        }
+
+        return matched;
+    }
+
+    private static BitSet match(DecisionTree tree, LogMessage message) {
+        BitSet matched = new BitSet();
+        tree.match(message, matched);
+        return matched;
+    }
+
+    private static Rule rule(int index, Condition... conditions) {
+        List<Condition> list = new ArrayList<Condition>();
+        Collections.addAll(list, conditions);
+        return new Rule("rule" + index, index, list, new ArrayList<Rule.Action>());
+    }
+
+    private static LogMessage message(String host, String facility, String shortMessage, int level, int line) {
+        LogMessage message = new LogMessage();
+        message.setHost(host);
+        message.setFacility(facility);
+        message.setShortMessage(shortMessage);
+        message.setLevel(level);
+        message.setLine(line);
+        return message;
+    }
+
+    private static BitSet bits(int... indexes) {
+        BitSet bits = new BitSet();
+        for (int index : indexes) {
+            bits.set(index);
+        }
+
+        return bits;
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+}
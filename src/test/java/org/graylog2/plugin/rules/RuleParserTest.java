@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) 2012 Lennart Koopmann <lennart@socketfeed.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software. 
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+package org.graylog2.plugin.rules;
+
+import java.util.List;
+import junit.framework.TestCase;
+import org.graylog2.plugin.logmessage.LogMessage;
+import org.graylog2.plugin.rules.Condition.Operator;
+
+public class RuleParserTest extends TestCase {
+
+    private static final String HEADER = "package org.graylog2.rules\n"
+            + "import org.graylog2.plugin.logmessage.LogMessage\n";
+
+    public void testCompilesRuleWithConditionsAndActions() {
+        RuleParser.Result result = RuleParser.parse(HEADER
+                + "rule \"slow\"\n"
+                + "    when\n"
+                + "        m : LogMessage( host == \"example.org\", level <= 3 && shortMessage matches \".*timeout.*\" )\n"
+                + "    then\n"
+                + "        m.addAdditionalData(\"_slow\", \"true\");\n"
+                + "        m.setFilterOut(true);\n"
+                + "end\n", 0);
+
+        assertTrue(result.uncompiledNames.isEmpty());
+        assertEquals(1, result.compiled.size());
+        Rule rule = result.compiled.get(0);
+        assertEquals("slow", rule.getName());
+        assertEquals(0, rule.getIndex());
+
+        List<Condition> conditions = rule.getConditions();
+        assertEquals(3, conditions.size());
+        assertCondition(conditions.get(0), MessageField.HOST, Operator.EQUAL, "example.org");
+        assertCondition(conditions.get(1), MessageField.LEVEL, Operator.LESS_OR_EQUAL, 3L);
+        assertCondition(conditions.get(2), MessageField.SHORT_MESSAGE, Operator.MATCHES, ".*timeout.*");
+
+        LogMessage message = new LogMessage();
+        rule.fire(message);
+        assertTrue(message.getFilterOut());
+        assertEquals("true", message.getAdditionalData().get("_slow"));
+
+        // The header is kept for the fallback engine.
+        assertTrue(result.getUncompiledSource().contains("import org.graylog2.plugin.logmessage.LogMessage"));
+    }
+
+    public void testIndexesContinueFromFirstIndex() {
+        RuleParser.Result result = RuleParser.parse(HEADER
+                + "rule \"a\" when LogMessage( host == \"a\" ) then end\n"
+                + "rule \"b\" when LogMessage( host == \"b\" ) then end\n", 5);
+
+        assertEquals(2, result.compiled.size());
+        assertEquals(5, result.compiled.get(0).getIndex());
+        assertEquals(6, result.compiled.get(1).getIndex());
+    }
+
+    public void testQualifiedTypeAndEmptyPattern() {
+        RuleParser.Result result = RuleParser.parse(
+                "rule \"all\" when m : org.graylog2.plugin.logmessage.LogMessage() then m.setFilterOut(false); end", 0);
+
+        assertEquals(1, result.compiled.size());
+        assertTrue(result.compiled.get(0).getConditions().isEmpty());
+    }
+
+    public void testQuotingAndEscapes() {
+        RuleParser.Result result = RuleParser.parse(
+                "rule \"escapes\" when LogMessage( facility == \"say \\\"hi\\\"\\n\", "
+                + "file == 'a\\\\b', fullMessage == \"tab\\there\", host == \"it's\" ) then end", 0);
+
+        assertEquals(1, result.compiled.size());
+        List<Condition> conditions = result.compiled.get(0).getConditions();
+        assertEquals("say \"hi\"\n", conditions.get(0).getValue());
+        assertEquals("a\\b", conditions.get(1).getValue());
+        assertEquals("tab\there", conditions.get(2).getValue());
+        assertEquals("it's", conditions.get(3).getValue());
+    }
+
+    public void testKeywordsInsideStringsAndComments() {
+        RuleParser.Result result = RuleParser.parse(HEADER
+                + "// rule \"commented\" when LogMessage() then end\n"
+                + "/* rule \"block\" when\n LogMessage() then end */\n"
+                + "# end\n"
+                + "rule \"keywords\" when LogMessage( shortMessage == \"rule end then when\" ) then end\n", 0);
+
+        assertEquals(1, result.compiled.size());
+        assertEquals("keywords", result.compiled.get(0).getName());
+        assertEquals("rule end then when", result.compiled.get(0).getConditions().get(0).getValue());
+    }
+
+    public void testNumericOperators() {
+        RuleParser.Result result = RuleParser.parse(
+                "rule \"numbers\" when LogMessage( level == 1, level != 2, level < 3, level <= 4, "
+                + "line > -5, line >= 6 ) then end", 0);
+
+        assertEquals(1, result.compiled.size());
+        List<Condition> conditions = result.compiled.get(0).getConditions();
+        assertCondition(conditions.get(0), MessageField.LEVEL, Operator.EQUAL, 1L);
+        assertCondition(conditions.get(1), MessageField.LEVEL, Operator.NOT_EQUAL, 2L);
+        assertCondition(conditions.get(2), MessageField.LEVEL, Operator.LESS, 3L);
+        assertCondition(conditions.get(3), MessageField.LEVEL, Operator.LESS_OR_EQUAL, 4L);
+        assertCondition(conditions.get(4), MessageField.LINE, Operator.GREATER, -5L);
+        assertCondition(conditions.get(5), MessageField.LINE, Operator.GREATER_OR_EQUAL, 6L);
+    }
+
+    public void testStringOperators() {
+        RuleParser.Result result = RuleParser.parse(
+                "rule \"strings\" when LogMessage( host == \"a\", host != \"b\", "
+                + "shortMessage matches \"x.*\", shortMessage not matches \"y.*\" ) then end", 0);
+
+        assertEquals(1, result.compiled.size());
+        List<Condition> conditions = result.compiled.get(0).getConditions();
+        assertCondition(conditions.get(0), MessageField.HOST, Operator.EQUAL, "a");
+        assertCondition(conditions.get(1), MessageField.HOST, Operator.NOT_EQUAL, "b");
+        assertCondition(conditions.get(2), MessageField.SHORT_MESSAGE, Operator.MATCHES, "x.*");
+        assertCondition(conditions.get(3), MessageField.SHORT_MESSAGE, Operator.NOT_MATCHES, "y.*");
+    }
+
+    public void testActionLiterals() {
+        RuleParser.Result result = RuleParser.parse(
+                "rule \"literals\" when m : LogMessage() then\n"
+                + "    m.addAdditionalData(\"_int\", -3);\n"
+                + "    m.addAdditionalData(\"_double\", 1.5);\n"
+                + "    m.addAdditionalData(\"_string\", 'x');\n"
+                + "end", 0);
+
+        assertEquals(1, result.compiled.size());
+        LogMessage message = new LogMessage();
+        result.compiled.get(0).fire(message);
+        assertEquals(Integer.valueOf(-3), message.getAdditionalData().get("_int"));
+        assertEquals(Double.valueOf(1.5), message.getAdditionalData().get("_double"));
+        assertEquals("x", message.getAdditionalData().get("_string"));
+    }
+
+    public void testRulesOutsideTheSubsetGoToTheFallback() {
+        String[] rules = {
+            // Ordering a string field.
+            "rule \"r0\" when LogMessage( host < \"m\" ) then end",
+            // Regular expression on a numeric field.
+            "rule \"r1\" when LogMessage( level matches \"1.*\" ) then end",
+            // String compared with a numeric field, number with a string field.
+            "rule \"r2\" when LogMessage( level == \"1\" ) then end",
+            "rule \"r3\" when LogMessage( host == 1 ) then end",
+            // Decimal for a numeric field.
+            "rule \"r4\" when LogMessage( level == 1.5 ) then end",
+            // Disjunction.
+            "rule \"r5\" when LogMessage( host == \"a\" || host == \"b\" ) then end",
+            // Unknown field, not a literal, unknown type.
+            "rule \"r6\" when LogMessage( version == \"1\" ) then end",
+            "rule \"r7\" when LogMessage( host == facility ) then end",
+            "rule \"r8\" when Other( host == \"a\" ) then end",
+            // Attributes and a second pattern.
+            "rule \"r9\" salience 10 when LogMessage() then end",
+            "rule \"r10\" when LogMessage() LogMessage() then end",
+            // Regular expression Java rejects.
+            "rule \"r11\" when LogMessage( host matches \"(\" ) then end",
+            // Consequence with other statements, or without a binding.
+            "rule \"r12\" when m : LogMessage() then System.out.println(m); end",
+            "rule \"r13\" when LogMessage() then m.setFilterOut(true); end",
+            "rule \"r14\" when m : LogMessage() then m.setFilterOut(true) end",
+            // Missing when or then.
+            "rule \"r15\" LogMessage() then end",
+            "rule \"r16\" when LogMessage() end",
+        };
+
+        StringBuilder source = new StringBuilder(HEADER);
+        for (String rule : rules) {
+            source.append(rule).append('\n');
+        }
+        source.append("rule \"ok\" when LogMessage( host == \"a\" ) then end\n");
+
+        RuleParser.Result result = RuleParser.parse(source.toString(), 0);
+
+        assertEquals(1, result.compiled.size());
+        assertEquals("ok", result.compiled.get(0).getName());
+        assertEquals(0, result.compiled.get(0).getIndex());
+        assertEquals(rules.length, result.uncompiledNames.size());
+        for (int i = 0; i < rules.length; i++) {
+            assertEquals("r" + i, result.uncompiledNames.get(i));
+            assertTrue(rules[i], result.getUncompiledSource().contains(rules[i]));
+        }
+        assertFalse(result.getUncompiledSource().contains("\"ok\""));
+    }
+
+    public void testKeywordsInQualifiedNamesDoNotStartRules() {
+        String header = "package org.acme.rule;\n"
+                + "import com.example.rule.Helper;\n"
+                + "import rule.end.Other;\n"
+                + "import org.acme.function.query.Util;\n";
+        RuleParser.Result result = RuleParser.parse(header
+                + "rule \"a\" when LogMessage( host == \"a\" ) then end\n", 0);
+
+        assertEquals(1, result.compiled.size());
+        assertEquals("a", result.compiled.get(0).getName());
+        assertTrue(result.uncompiledNames.isEmpty());
+        assertTrue(result.getUncompiledSource().startsWith(header));
+    }
+
+    public void testFunctionsQueriesAndDeclarationsAreNotRules() {
+        String function = "function void log(String s) { if (s != null) { System.out.println(s); } }\n";
+        RuleParser.Result result = RuleParser.parse(HEADER
+                + function
+                + "query \"hosts\" LogMessage( host == \"a\" ) end\n"
+                + "rule \"a\" when LogMessage( host == \"a\" ) then end\n", 0);
+
+        assertEquals(1, result.compiled.size());
+        assertTrue(result.uncompiledNames.isEmpty());
+        assertTrue(result.getUncompiledSource().contains(function));
+        assertTrue(result.getUncompiledSource().contains("query \"hosts\""));
+    }
+
+    public void testUnterminatedString() {
+        assertMalformed("rule \"a\" when LogMessage( host == \"a ) then end", "Unterminated string at offset 34");
+        assertMalformed("rule 'a when", "Unterminated string at offset 5");
+    }
+
+    public void testMissingEnd() {
+        assertMalformed(HEADER + "rule \"a\" when LogMessage() then", "Missing end of rule at offset " + HEADER.length());
+        assertMalformed("query \"q\" LogMessage()", "Missing end of query at offset 0");
+    }
+
+    public void testUnbalancedFunction() {
+        assertMalformed("function void f() { if (true) { }", "Unbalanced function at offset 0");
+    }
+
+    private static void assertCondition(Condition condition, MessageField field, Operator operator, Object value) {
+        assertEquals(field, condition.getField());
+        assertEquals(operator, condition.getOperator());
+        assertEquals(value, condition.getValue());
+    }
+
+    private static void assertMalformed(String source, String message) {
+        try {
+            RuleParser.parse(source, 0);
+            fail("Parsed " + source);
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+}